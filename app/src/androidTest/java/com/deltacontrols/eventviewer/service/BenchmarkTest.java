@@ -0,0 +1,92 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.deltacontrols.eventviewer.App;
+import com.deltacontrols.eventviewer.R;
+import com.deltacontrols.eweb.support.models.iEvent;
+import com.deltacontrols.eweb.support.models.iEventList;
+
+/**
+ * Runs the polling load test and response replay, which need a device (they go through ServerPoller); the reports are 
+ * written to logcat. These are kept out of the app (they open a local server socket and write test files), so run them with 
+ * connectedAndroidTest. The cache benchmark runs on the JVM, see CacheBenchmark.
+ */
+public class BenchmarkTest extends AndroidTestCase {
+
+    public void testPollingLoad() throws Exception {
+        String report = PollingLoadTest.run(getContext(), templates());
+        Log.i(App.TAG, "PollingLoadTest\n" + report);
+
+        assertFalse(report, report.contains("Mock server failed"));
+        assertFalse(report, report.contains("expected"));
+    }
+
+    /**
+     * Replays the recording made on this device, if any (see ResponseRecorder); compare the digest between builds.
+     */
+    public void testResponseReplay() {
+        String report = ResponseReplay.run(getContext());
+        Log.i(App.TAG, "ResponseReplay\n" + report);
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private Helper Functions
+    // ------------------------------------------------------------------------------
+    /**
+     * The demo events; the synthetic events are based on these.
+     */
+    private ArrayList<iEvent> templates() throws IOException, JSONException {
+        InputStream in = getContext().getResources().openRawResource(R.raw.fake_events);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        StringBuilder builder = new StringBuilder();
+
+        try {
+            for (String line = null; (line = reader.readLine()) != null;) {
+                builder.append(line).append("\n");
+            }
+        } finally {
+            reader.close();
+        }
+
+        return iEventList.fromJson(new JSONObject(builder.toString())).events;
+    }
+}
@@ -0,0 +1,334 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.deltacontrols.eventviewer.App;
+import com.deltacontrols.eventviewer.LoginInfo;
+import com.deltacontrols.eventviewer.service.EventNotificationsService.STATUS;
+import com.deltacontrols.eweb.support.api.EwebConnection;
+import com.deltacontrols.eweb.support.api.FetchJSON;
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+import com.deltacontrols.eweb.support.models.iEvent;
+
+/**
+ * PollingLoadTest runs a ServerPoller against a MockEwebServer, end to end over HTTP, and reports:
+ * 
+ * - the first fetch of a fresh install (the newest page), and how long the older history took to backfill;
+ * - steady state poll cost with no new events, with and without server latency, and how many full fetches the latest
+ *   index probe avoided;
+ * - steady state poll cost with per request basic authentication against a reused session (see EwebHttpClient), when 
+ *   every credential check costs the server time, and that an expired session is logged in again;
+ * - ingestion rate while the server generates events, polling back to back;
+ * - catch up time after an outage (HTTP 500) during which a backlog built up, and the page size it ended with;
+ * - that an HTTP 401 ends up as STATUS.INVALID_LOGIN.
+ * 
+ * The poller reports to this class instead of the service, so the test leaves no notifications, noisy point stats or 
+ * cached events behind. Blocks for about half a minute; run it on a background thread.
+ */
+public class PollingLoadTest implements ServerPoller.Host {
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    private final static String POLLER_ID = "loadtest";     // Keeps the poller's files apart from the real ones
+    private final static int CACHE_SIZE = 500;
+    private final static long SEED = 7;
+    private final static int STEADY_POLLS = 20;
+    private final static int LATENCY_MS = 250;
+    private final static int AUTH_COST_MS = 50;
+    private final static double INGEST_EVENTS_PER_SECOND = 200;
+    private final static int INGEST_SECONDS = 10;
+    private final static int OUTAGE_BACKLOG = 2000;
+    private final static long WAIT_TIMEOUT_MS = 120000;
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private final Context mCtx;
+    private volatile int mEventsReceived = 0;
+    private volatile int mErrors = 0;
+    private volatile boolean mConnected = false;
+
+    private PollingLoadTest(Context ctx) {
+        mCtx = ctx;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Public functionality
+    // ------------------------------------------------------------------------------
+    /**
+     * Runs all scenarios; returns a report, one line per measurement.
+     */
+    public static String run(Context ctx, List<iEvent> templates) {
+        return new PollingLoadTest(ctx).runScenarios(templates);
+    }
+
+    // ------------------------------------------------------------------------------
+    // ServerPoller.Host
+    // ------------------------------------------------------------------------------
+    @Override
+    public String getString(int resId) {
+        return mCtx.getString(resId);
+    }
+
+    @Override
+    public void onEventsReceived(ServerPoller poller, ArrayList<iEvent> events) {
+        mEventsReceived += events.size();
+    }
+
+    @Override
+    public void onHighPriorityEvents(ServerPoller poller, ArrayList<iEvent> events) {
+    }
+
+    @Override
+    public void onServerUpdated(ServerPoller poller) {
+    }
+
+    @Override
+    public void onHistoryReceived(ServerPoller poller, ArrayList<iEvent> events) {
+    }
+
+    @Override
+    public void onHistoryAdded(ServerPoller poller) {
+    }
+
+    @Override
+    public void onServerError(ServerPoller poller, String message) {
+        mErrors++;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Scenarios
+    // ------------------------------------------------------------------------------
+    private String runScenarios(List<iEvent> templates) {
+        StringBuilder report = new StringBuilder();
+        MockEwebServer server = new MockEwebServer(new SyntheticEvents(templates, SEED, 1, 200, 20, 40));
+        ServerPoller poller = null;
+        boolean useSessions = EwebHttpClient.UseSessions;
+
+        try {
+            server.start();
+            server.addEvents(CACHE_SIZE);
+
+            LoginInfo login = new LoginInfo(server.getUrl(), POLLER_ID, POLLER_ID, 1, null, true, true, CACHE_SIZE);
+            EwebConnection eweb = new EwebConnection();
+            poller = new ServerPoller(this, POLLER_ID, login, eweb);
+            poller.open(mCtx, Long.MAX_VALUE);
+            poller.reset(); // Leftovers of an earlier run
+            poller.awaitFileWriter();
+
+            if (!connect(eweb, login)) {
+                return "Could not connect to the mock server\n";
+            }
+
+            // First fetch; the newest page only, then the rest of the cache page by page
+            long start = System.nanoTime();
+            pollOnce(poller, login);
+            line(report, "First fetch, newest %d events: %.0fms", poller.getEventCache().size(), ms(start));
+
+            int pages = 0;
+            start = System.nanoTime();
+            long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_MS;
+            while (poller.hasOlderHistory() && (System.currentTimeMillis() < deadline)) {
+                if (poller.loadOlder()) {
+                    pages++;
+                }
+                while (poller.isBackfilling() && (System.currentTimeMillis() < deadline)) {
+                    sleep(5);
+                }
+            }
+            line(report, "Backfill to %d events: %.0fms, %d pages", poller.getEventCache().size(), ms(start), pages);
+
+            // Steady state; nothing new, so the latest index probe should avoid every full fetch
+            long avoided = Metrics.counter(Metrics.POLL_FETCHES_AVOIDED).get();
+            start = System.nanoTime();
+            for (int i = 0; i < STEADY_POLLS; i++) {
+                pollOnce(poller, login);
+            }
+            line(report, "Steady poll, no new events: %.1fms/poll, %d/%d full fetches avoided", ms(start) / STEADY_POLLS,
+                    Metrics.counter(Metrics.POLL_FETCHES_AVOIDED).get() - avoided, STEADY_POLLS);
+
+            server.setLatencyMs(LATENCY_MS);
+            start = System.nanoTime();
+            for (int i = 0; i < STEADY_POLLS / 4; i++) {
+                pollOnce(poller, login);
+            }
+            line(report, "Steady poll, %dms server latency: %.1fms/poll", LATENCY_MS, ms(start) / (STEADY_POLLS / 4));
+            server.setLatencyMs(0);
+
+            // Basic authentication on every request against a reused session
+            server.setAuthCostMs(AUTH_COST_MS);
+            EwebHttpClient.UseSessions = false;
+            int checks = server.getAuthenticationCount();
+            start = System.nanoTime();
+            for (int i = 0; i < STEADY_POLLS; i++) {
+                pollOnce(poller, login);
+            }
+            line(report, "Steady poll, basic auth (%dms/check): %.1fms/poll, %d credential checks", AUTH_COST_MS, ms(start) / STEADY_POLLS,
+                    server.getAuthenticationCount() - checks);
+
+            EwebHttpClient.UseSessions = true;
+            checks = server.getAuthenticationCount();
+            start = System.nanoTime();
+            for (int i = 0; i < STEADY_POLLS; i++) {
+                pollOnce(poller, login);
+            }
+            line(report, "Steady poll, session (%dms/check): %.1fms/poll, %d credential checks", AUTH_COST_MS, ms(start) / STEADY_POLLS,
+                    server.getAuthenticationCount() - checks);
+
+            server.expireSessions();
+            long logins = Metrics.counter(Metrics.HTTP_LOGINS).get();
+            int errors = mErrors;
+            pollOnce(poller, login);
+            line(report, "Session expired: %d login(s), %d error reported, status %s", Metrics.counter(Metrics.HTTP_LOGINS).get() - logins, 
+                    mErrors - errors, poller.getCurrentStatus());
+            server.setAuthCostMs(0);
+
+            // Ingestion while the server generates events
+            int received = mEventsReceived;
+            int polls = 0;
+            server.setEventsPerSecond(INGEST_EVENTS_PER_SECOND);
+            start = System.nanoTime();
+            while (ms(start) < INGEST_SECONDS * 1000) {
+                pollOnce(poller, login);
+                polls++;
+            }
+            server.setEventsPerSecond(0);
+            pollOnce(poller, login); // Pick up the rest
+            double seconds = ms(start) / 1000;
+            line(report, "Ingestion at %.0f events/s: %.0f events/s received over %d polls, lag %s events",
+                    INGEST_EVENTS_PER_SECOND,
+                    (mEventsReceived - received) / seconds,
+                    polls,
+                    gap(server.getNewestIndex(), poller.getLastKnownIndex()));
+
+            // Outage with a backlog, then catch up
+            server.setErrorCode(500);
+            server.addEvents(OUTAGE_BACKLOG);
+            errors = mErrors;
+            pollOnce(poller, login);
+            server.setErrorCode(0);
+            int requests = server.getRequestCount();
+            start = System.nanoTime();
+            pollOnce(poller, login);
+            line(report, "Catch up after outage, %d event backlog: %.0fms, %d requests, %s (%d error reported), page size now %d",
+                    OUTAGE_BACKLOG,
+                    ms(start),
+                    server.getRequestCount() - requests,
+                    poller.getLastKnownIndex().equals(server.getNewestIndex()) ? "up to date" : "behind",
+                    mErrors - errors,
+                    poller.getPageSize());
+
+            // Invalid login
+            server.setErrorCode(401);
+            pollOnce(poller, login);
+            server.setErrorCode(0);
+            line(report, "HTTP 401: status %s", poller.getCurrentStatus());
+            if (poller.getCurrentStatus() != STATUS.INVALID_LOGIN) {
+                line(report, "  expected %s", STATUS.INVALID_LOGIN);
+            }
+        } 
+        catch (IOException e) {
+            line(report, "Mock server failed: %s", e.getMessage());
+        } 
+        finally {
+            EwebHttpClient.UseSessions = useSessions;
+            if (poller != null) {
+                poller.reset();
+                poller.close();
+            }
+            server.stop();
+        }
+
+        Log.i(App.TAG, "PollingLoadTest\n" + report);
+        return report.toString();
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private Helper Functions
+    // ------------------------------------------------------------------------------
+    private boolean connect(EwebConnection eweb, LoginInfo login) {
+        eweb.connect(login.url, login.username, login.password, new GenericCallback<FetchJSON.Result>() {
+            @Override
+            public void onCallback(FetchJSON.Result result) {
+                mConnected = true;
+            }
+        }, login.mBasicAuthentication);
+
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_MS;
+        while (!mConnected && (System.currentTimeMillis() < deadline)) {
+            sleep(10);
+        }
+        return eweb.isConnected();
+    }
+
+    /**
+     * Polls and waits until the poll, including all of its pages, has finished.
+     */
+    private void pollOnce(ServerPoller poller, LoginInfo login) {
+        poller.poll(login);
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_MS;
+        while (poller.getIsFetching() && (System.currentTimeMillis() < deadline)) {
+            sleep(5);
+        }
+    }
+
+    private static double ms(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e6;
+    }
+
+    private static String gap(String newest, String known) {
+        try {
+            return String.valueOf(Long.parseLong(newest) - Long.parseLong(known));
+        } 
+        catch (NumberFormatException e) {
+            return "?";
+        }
+    }
+
+    private static void line(StringBuilder report, String format, Object... args) {
+        report.append(String.format(format, args)).append('\n');
+    }
+
+    private static void sleep(int ms) {
+        try {
+            Thread.sleep(ms);
+        } 
+        catch (InterruptedException e) {
+            // Check again
+        }
+    }
+}
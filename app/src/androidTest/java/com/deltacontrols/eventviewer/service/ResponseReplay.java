@@ -0,0 +1,353 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.deltacontrols.eventviewer.App;
+import com.deltacontrols.eventviewer.LoginInfo;
+import com.deltacontrols.eweb.support.api.FetchJSON;
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+import com.deltacontrols.eweb.support.models.iEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * ResponseReplay feeds a ResponseRecorder recording back through a ServerPoller: parse, cache merge and persist run as
+ * they did live, but the responses come from the recording, in order, with no waiting on the network. The same 
+ * recording always ends in the same cache, so the digest in the report can be compared between builds.
+ * 
+ * Only the server of the first recorded response is replayed. Requests the poller makes that differ from the recorded 
+ * ones are counted as mismatches; the recorded response is still used, so a mismatch means the polling logic changed.
+ */
+public class ResponseReplay implements ServerPoller.Host {
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    private final static String POLLER_ID = "replay";   // Keeps the poller's files apart from the real ones
+    private final static String START_ID = "startID=-";
+    private final static String PROBE_RESULTS = "&max-results=1";  // See ServerPoller.startProbe
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private final Context mCtx;
+    private int mEventsReceived = 0;
+    private int mErrors = 0;
+
+    private ResponseReplay(Context ctx) {
+        mCtx = ctx;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Public functionality
+    // ------------------------------------------------------------------------------
+    /**
+     * Replays the current recording; returns a report. Blocks until done; run it on a background thread.
+     */
+    public static String run(Context ctx) {
+        return new ResponseReplay(ctx).replay(readRecording(ctx));
+    }
+
+    // ------------------------------------------------------------------------------
+    // ServerPoller.Host
+    // ------------------------------------------------------------------------------
+    @Override
+    public String getString(int resId) {
+        return mCtx.getString(resId);
+    }
+
+    @Override
+    public void onEventsReceived(ServerPoller poller, ArrayList<iEvent> events) {
+        mEventsReceived += events.size();
+    }
+
+    @Override
+    public void onHighPriorityEvents(ServerPoller poller, ArrayList<iEvent> events) {
+    }
+
+    @Override
+    public void onServerUpdated(ServerPoller poller) {
+    }
+
+    @Override
+    public void onHistoryReceived(ServerPoller poller, ArrayList<iEvent> events) {
+    }
+
+    @Override
+    public void onHistoryAdded(ServerPoller poller) {
+    }
+
+    @Override
+    public void onServerError(ServerPoller poller, String message) {
+        mErrors++;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Replay
+    // ------------------------------------------------------------------------------
+    private String replay(List<ResponseRecorder.Entry> recording) {
+        StringBuilder report = new StringBuilder();
+        if (recording.isEmpty()) {
+            line(report, "Nothing recorded");
+            return report.toString();
+        }
+
+        ReplayTransport transport = new ReplayTransport(recording);
+        LoginInfo login = LoginInfo.getLoginInfo(mCtx);
+        login = new LoginInfo(login.url, POLLER_ID, POLLER_ID, 1, null, true, true, login.cacheSize);
+        ServerPoller poller = new ServerPoller(this, POLLER_ID, login, transport);
+
+        try {
+            poller.open(mCtx, Long.MAX_VALUE);
+            poller.reset(); // Leftovers of an earlier run
+            poller.awaitFileWriter();
+
+            // Start where the recording started, so the requests match. A recording that starts with latest index probes
+            // did not move the index until its first fetch, so that fetch tells where it started.
+            for (ResponseRecorder.Entry entry : recording) {
+                if (!entry.first || (entry.request == null) || entry.request.endsWith(PROBE_RESULTS)) {
+                    continue;
+                }
+                if (entry.request.startsWith(START_ID)) {
+                    int end = entry.request.indexOf('&');
+                    poller.setLastKnownIndex(entry.request.substring(START_ID.length(), (end < 0) ? entry.request.length() : end));
+                }
+                break; // A first fetch starts from nothing
+            }
+
+            // The transport answers inline, so each poll, with all of its pages, is done when poll() returns
+            int polls = 0;
+            long start = System.nanoTime();
+            while (transport.hasMorePolls()) {
+                poller.poll(login);
+                polls++;
+            }
+            double ms = (System.nanoTime() - start) / 1e6;
+
+            line(report, "Server: %s", recording.get(0).server.isEmpty() ? "primary" : recording.get(0).server);
+            line(report, "Replayed %d responses in %d polls: %.0fms (%.2fms/response)", 
+                    transport.getServed(), polls, ms, ms / Math.max(1, transport.getServed()));
+            line(report, "Events received: %d, errors: %d", mEventsReceived, mErrors);
+            line(report, "Request mismatches: %d", transport.getMismatches());
+            line(report, "Cache: %d events, last index %s", poller.getEventCache().size(), poller.getLastKnownIndex());
+            line(report, "Digest: %08x", digest(poller.getEventCache().getCopy()));
+        } 
+        finally {
+            poller.reset();
+            poller.close();
+        }
+
+        Log.i(App.TAG, "ResponseReplay\n" + report);
+        return report.toString();
+    }
+
+    /**
+     * Serves recorded responses in order, on the calling thread. A "next" request past the recorded pages of a poll 
+     * gets an empty page, which ends the poll; recorded pages the poller does not ask for are skipped.
+     */
+    private static class ReplayTransport implements ServerPoller.Transport {
+        private final List<ResponseRecorder.Entry> mRecording;
+        private int mNext = 0;
+        private int mServed = 0;
+        private int mMismatches = 0;
+
+        ReplayTransport(List<ResponseRecorder.Entry> recording) {
+            mRecording = recording;
+        }
+
+        boolean hasMorePolls() {
+            skipPages();
+            return mNext < mRecording.size();
+        }
+
+        int getServed() {
+            return mServed;
+        }
+
+        int getMismatches() {
+            return mMismatches;
+        }
+
+        @Override
+        public boolean isInitialized() {
+            return true;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void connect(LoginInfo login, Runnable onDone) {
+            onDone.run();
+        }
+
+        @Override
+        public void getEventList(String lastIndex, String maxResults, int readTimeout, GenericCallback<FetchJSON.Result> callback) {
+            skipPages();
+            if (mNext >= mRecording.size()) {
+                mMismatches++;
+                callback.onCallback(toResult(null));
+                return;
+            }
+            serve(lastIndex + "&" + maxResults, callback);
+        }
+
+        @Override
+        public void getNextEventList(String url, int readTimeout, GenericCallback<FetchJSON.Result> callback) {
+            if ((mNext >= mRecording.size()) || mRecording.get(mNext).first) {
+                mMismatches++;
+                callback.onCallback(toResult(null));
+                return;
+            }
+            serve(url, callback);
+        }
+
+        private void serve(String request, GenericCallback<FetchJSON.Result> callback) {
+            ResponseRecorder.Entry entry = mRecording.get(mNext++);
+            if ((entry.request == null) || !entry.request.equals(request)) {
+                mMismatches++;
+            }
+            mServed++;
+            callback.onCallback(toResult(entry));
+        }
+
+        /**
+         * Skips "next" pages the poller did not ask for.
+         */
+        private void skipPages() {
+            while ((mNext < mRecording.size()) && !mRecording.get(mNext).first) {
+                mNext++;
+                mMismatches++;
+            }
+        }
+
+        /**
+         * Rebuilds the result as FetchJSON returned it; null gives an empty page.
+         */
+        private static FetchJSON.Result toResult(ResponseRecorder.Entry entry) {
+            FetchJSON.Result result = new FetchJSON.Result();
+            result.success = (entry == null) || entry.success;
+            result.statusCode = (entry == null) ? 200 : entry.statusCode;
+            result.rawResponse = (entry == null) ? "{}" : entry.body;
+            try {
+                result.json = new JSONObject((result.rawResponse == null) ? "{}" : result.rawResponse);
+            } 
+            catch (JSONException e) {
+                result.json = null;
+            }
+            return result;
+        }
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private Helper Functions
+    // ------------------------------------------------------------------------------
+    /**
+     * Reads the recording, oldest first, keeping only the server of the first entry.
+     */
+    private static List<ResponseRecorder.Entry> readRecording(Context ctx) {
+        ArrayList<ResponseRecorder.Entry> recording = new ArrayList<ResponseRecorder.Entry>();
+        Gson gson = new Gson();
+        String server = null;
+
+        for (File file : ResponseRecorder.getFiles(ctx)) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    ResponseRecorder.Entry entry = gson.fromJson(line, ResponseRecorder.Entry.class);
+                    if (entry == null) {
+                        continue;
+                    }
+                    if (entry.server == null) {
+                        entry.server = "";
+                    }
+                    if (server == null) {
+                        server = entry.server;
+                    }
+                    if (server.equals(entry.server)) {
+                        recording.add(entry);
+                    }
+                }
+            } 
+            catch (IOException e) {
+                Log.e(App.TAG, "ResponseReplay could not read " + file.getName() + ": " + e.getMessage());
+            } 
+            catch (JsonSyntaxException e) {
+                Log.e(App.TAG, "ResponseReplay stopped at a bad line in " + file.getName());
+            } 
+            finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } 
+                    catch (IOException e) {
+                        // Nothing more to do
+                    }
+                }
+            }
+        }
+        return recording;
+    }
+
+    /**
+     * Hash of what the cache decided about each event, in cache order.
+     */
+    private static int digest(List<iEvent> events) {
+        int hash = 17;
+        for (iEvent ev : events) {
+            hash = 31 * hash + String.valueOf(ev.getIndex()).hashCode();
+            hash = 31 * hash + String.valueOf(ev.getAcknowledged()).hashCode();
+            hash = 31 * hash + String.valueOf(ev.getMessage()).hashCode();
+            hash = 31 * hash + (ev.ackRequired() ? 1 : 0);
+        }
+        return hash;
+    }
+
+    private static void line(StringBuilder report, String format, Object... args) {
+        report.append(String.format(format, args)).append('\n');
+    }
+}
@@ -32,6 +32,7 @@ import android.app.Application;
 import android.content.Context;
 import android.util.DisplayMetrics;
 
+import com.deltacontrols.eventviewer.service.AndroidPlatform;
 import com.deltacontrols.eweb.support.api.EwebConnection;
 import com.deltacontrols.eweb.support.models.iEvent;
 
@@ -58,6 +59,7 @@ public class App extends Application {
     public void onCreate() {
         super.onCreate();
         mContext = this;
+        AndroidPlatform.install();
     }
 
     public static Context getContext() {
@@ -0,0 +1,118 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+
+/**
+ * EventFilter is a collection of filter options and the matching logic for the event list; EventItemAdapter filters 
+ * with it on the Filter thread. Because a Filter may only take a string, the options are passed as a JSON string 
+ * (see fromJson). Plain Java, so it can be timed outside of the app.
+ */
+public class EventFilter {
+    String groupName;
+    Boolean acked;
+    Boolean active;
+    String text;            // Lower case
+    Integer priorityLow;
+    Integer priorityHigh;
+
+    /**
+     * No constraints.
+     */
+    public EventFilter() {
+    }
+
+    /**
+     * Note, text is forced to lower case with the default locale, as are the fields it is compared against.
+     */
+    public static EventFilter fromJson(JSONObject json) throws JSONException {
+        EventFilter filter = new EventFilter();
+        filter.groupName = json.has("groupName") ? json.getString("groupName") : null;
+        filter.acked = json.has("acked") ? json.getBoolean("acked") : null;
+        filter.active = json.has("active") ? json.getBoolean("active") : null;
+        filter.text = json.has("text") ? json.getString("text").toLowerCase() : null;
+        filter.priorityLow = json.has("priorityLow") ? json.getInt("priorityLow") : null;
+        filter.priorityHigh = json.has("priorityHigh") ? json.getInt("priorityHigh") : null;
+        return filter;
+    }
+
+    public boolean hasConstraints() {
+        return !((groupName == null) && (acked == null) && (active == null) && (text == null)
+                && (priorityLow == null) && (priorityHigh == null));
+    }
+
+    /**
+     * Must match ALL options to be shown (ie. filters are ADDITIVE to each other); the text may match the event name,
+     * the monitored input name or the message.
+     */
+    public boolean matches(iEvent item) {
+        // Check matches alarm group name
+        boolean matchesGroupName = (groupName == null) || item.getAlarmGroupName().equals(groupName);
+
+        return matchesGroupName
+                && (containsText(item.getEventName()) || containsText(item.getInputName()) || containsText(item.getMessage()));
+    }
+
+    /**
+     * The matching events, in order; the list itself if there are no constraints.
+     */
+    public List<iEvent> apply(List<iEvent> events) {
+        if (!hasConstraints()) {
+            return events;
+        }
+
+        List<iEvent> resultList = new ArrayList<iEvent>();
+        for (iEvent item : events) {
+            if (matches(item)) {
+                resultList.add(item);
+            }
+        }
+        return resultList;
+    }
+
+    // --------------------------------------------------------------------------------
+    // Private Helper Functions
+    // --------------------------------------------------------------------------------
+    /**
+     * Events with no value for a field only match when there is no text filter.
+     */
+    private boolean containsText(String value) {
+        if (value == null) {
+            return (text == null);
+        }
+        return (text == null) || value.toLowerCase().contains(text);
+    }
+}
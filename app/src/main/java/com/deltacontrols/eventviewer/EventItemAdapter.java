@@ -29,11 +29,11 @@ POSSIBILITY OF SUCH DAMAGE.
 package com.deltacontrols.eventviewer;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 import org.json.JSONObject;
 
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.Context;
 import android.content.res.Resources;
@@ -52,6 +52,8 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.deltacontrols.eventviewer.service.EventSummary;
+import com.deltacontrols.eventviewer.service.Metrics;
 import com.deltacontrols.eweb.support.models.iEvent;
 
 /**
@@ -66,6 +68,7 @@ public class EventItemAdapter extends ArrayAdapter<iEvent> implements Filterable
     private ArrayList<iEvent> mFilteredList;    // Currently filtered list; subset of mFullList
     private EventItemFilter mFilter;            // Filter object; contains values for all filters
     private Drawable mAckIcon;                  // Reference to the ack flag icon
+    private HashMap<String, EventSummary> mSummaries; // Summary per EventRef when the list is collapsed; null otherwise
 
     public EventItemAdapter(Context context, int layoutResourceId, ArrayList<iEvent> data) {
         super(context, layoutResourceId, data);
@@ -94,6 +97,14 @@ public class EventItemAdapter extends ArrayAdapter<iEvent> implements Filterable
         this.notifyDataSetChanged();
     }
 
+    /**
+     * Sets the summaries (indexed on EventRef) used to show collapsed rows; the row for the latest transition of an 
+     * event shows the transition count and the ack state of all of its transitions. Null when the list is not collapsed.
+     */
+    public void setSummaries(HashMap<String, EventSummary> summaries) {
+        mSummaries = summaries;
+    }
+
     /**
      * @SuppressWarnings("deprecation") Remove when we are supporting API 16+ (setBackgroundDrawable currently allowing us to set background on < 16).
      */
@@ -152,6 +163,14 @@ public class EventItemAdapter extends ArrayAdapter<iEvent> implements Filterable
         holder.categoryIcon.setImageResource(App.getToStateIcon(event));
         holder.ackIcon.setImageDrawable(event.ackRequired() ? mAckIcon : null);
 
+        // Collapsed row; show the summary of all transitions of the event
+        EventSummary summary = (mSummaries == null) ? null : mSummaries.get(event.getEventRef());
+        if ((summary != null) && summary.getLatest().getIndex().equals(event.getIndex())) {
+            String format = res.getString(summary.isFlapping() ? R.string.x_transitions_flapping : R.string.x_transitions);
+            holder.eventTimestamp.setText(String.format(format, event.getEventTimestamp(), summary.getTransitionCount()));
+            holder.ackIcon.setImageDrawable(summary.getAckRequired() ? mAckIcon : null);
+        }
+
         return row;
     }
 
@@ -171,137 +190,34 @@ public class EventItemAdapter extends ArrayAdapter<iEvent> implements Filterable
     // --------------------------------------------------------------------------------
     // Implements Filter
     // --------------------------------------------------------------------------------
-    /**
-     * FilterBy is a collection of filter options; because EventItemFilter may only perform filtering on a string, we allow 
-     * the callee to pass in a JSON string representing a FilterBy object which may
-     * then be used to provide the filtering options.
-     */
-    private class FilterBy {
-        String groupName;
-        Boolean acked;
-        Boolean active;
-        String text;
-        Integer priorityLow;
-        Integer priorityHigh;
-
-        public FilterBy() {
-            setDefaults();
-        }
-
-        private void setDefaults() {
-            groupName = null;
-            acked = null;
-            active = null;
-            text = null;
-            priorityLow = null;
-            priorityHigh = null;
-        }
-
-        /**
-         * SuppressLint("DefaultLocale") added until we come up with a good way to indicate global locale.
-         */
-        @SuppressLint("DefaultLocale")
-        public FilterBy(JSONObject json) {
-            try {
-                groupName = json.has("groupName") ? json.getString("groupName") : null;
-                acked = json.has("acked") ? json.getBoolean("acked") : null;
-                active = json.has("active") ? json.getBoolean("active") : null;
-                text = json.has("text") ? json.getString("text").toLowerCase() : null; // Note, forced lower case
-                priorityLow = json.has("priorityLow") ? json.getInt("priorityLow") : null;
-                priorityHigh = json.has("priorityHigh") ? json.getInt("priorityHigh") : null;
-            } catch (Exception e) {
-                Context ctx = App.getContext();
-                ShowCustomToast(ctx, ctx.getResources().getString(R.string.could_not_parse_filter), Toast.LENGTH_SHORT);                
-                setDefaults();
-            }
-        }
-
-        public boolean hasConstraints() {
-            return !((groupName == null) && (acked == null) && (active == null) && (text == null)
-                    && (priorityLow == null) && (priorityHigh == null));
-        }
-    }
-
     /**
      * EventItemFilter Provides custom filtering for the adapter Allows us to apply multiple filters on the
      */
     private class EventItemFilter extends Filter {
+        private volatile long mFilterStartNanos; // Set on the filter thread, read on the UI thread; see Metrics.UI_FILTER
+
         /**
          * Filter the list using the filter options given in the constraint JSON string.
          * 
-         * @param constraint JSON String representing a {@link FilterBy} object.
+         * @param constraint JSON String representing a {@link EventFilter} object.
          */
-        @SuppressLint("DefaultLocale")
         @Override
         protected FilterResults performFiltering(CharSequence constraint) {
+            mFilterStartNanos = System.nanoTime();
             FilterResults results = new FilterResults();
-            FilterBy filters;
+            EventFilter filter;
 
             try {
-                JSONObject json = new JSONObject(constraint.toString());
-                filters = new FilterBy(json);
+                filter = EventFilter.fromJson(new JSONObject(constraint.toString()));
             } catch (Exception e) {
-                filters = new FilterBy(); // No constraints
+                filter = new EventFilter(); // No constraints
                 Context ctx = App.getContext();
                 ShowCustomToast(ctx, ctx.getResources().getString(R.string.could_not_parse_filter), Toast.LENGTH_SHORT);                 
             }
 
-            // We implement here the filter logic
-            if (filters.hasConstraints()) {
-
-                List<iEvent> resultList = new ArrayList<iEvent>();
-
-                for (iEvent item : mFullList) {
-
-                    // Check matches alarm group name
-                    boolean matchesGroupName = (filters.groupName == null) || item.getAlarmGroupName().equals(filters.groupName);
-
-                    // Check event name
-                    boolean matchesEventName = true;
-
-                    if (item.getEventName() == null) {
-                        matchesEventName = (filters.text == null); // Only list no name events if the name filter is null
-                    }
-                    else {
-                        // Else, event matches if we have no filter, or if the event name contains the filter string
-                        matchesEventName = (filters.text == null) || item.getEventName().toLowerCase().contains(filters.text);
-                    }
-
-                    // Check monitored input name
-                    boolean matchesObjectName = true;
-                    if (item.getInputName() == null) {
-                        matchesObjectName = (filters.text == null); // Only list no name events if the name filter is null
-                    }
-                    else {
-                        // Else, event matches if we have no filter, or if the event name contains the filter string
-                        matchesObjectName = (filters.text == null) || item.getInputName().toLowerCase().contains(filters.text);
-                    }
-
-                    // Check event message
-                    boolean matchesMessageMessage = true;
-                    if (item.getMessage() == null) {
-                        matchesMessageMessage = (filters.text == null); // Only list no name events if the name filter is null
-                    }
-                    else {
-                        // Else, event matches if we have no filter, or if the event name contains the filter string
-                        matchesMessageMessage = (filters.text == null) || item.getMessage().toLowerCase().contains(filters.text);
-                    }
-
-                    // Final decision; must match ALL cases to be shown (ie. filters are ADDITIVE to each other)
-                    if (matchesGroupName
-                            && (matchesEventName || matchesObjectName || matchesMessageMessage)) { // name could be either event (OR) object
-                        resultList.add(item);
-                    }
-                }
-
-                results.values = resultList;
-                results.count = resultList.size();
-            }
-            else {
-                // No constraints' we return the full list
-                results.values = mFullList;
-                results.count = mFullList.size();
-            }
+            List<iEvent> resultList = filter.apply(mFullList);
+            results.values = resultList;
+            results.count = resultList.size();
 
             return results;
         }
@@ -312,8 +228,9 @@ public class EventItemAdapter extends ArrayAdapter<iEvent> implements Filterable
             // Clear and then add all values to force the listAdapter to observe
             // the change; simply setting and then calling notify does not work.
             mFilteredList.clear();
-            mFilteredList.addAll((ArrayList<iEvent>) results.values);
+            mFilteredList.addAll((List<iEvent>) results.values);
             notifyDataSetChanged();
+            Metrics.histogram(Metrics.UI_FILTER).recordSince(mFilterStartNanos);
         }
     }
 
@@ -28,17 +28,24 @@ POSSIBILITY OF SUCH DAMAGE.
 */
 package com.deltacontrols.eventviewer;
 
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import com.deltacontrols.eventviewer.service.EventCache;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
 /**
  * Class wrapping all login information for a user, including their preferences. 
- * Started out with only 4 properties, so shared storage made sense; long term may want to change to storing a json
- * object for the login info instead of all the properties individually.
+ * Stored by LoginStore as part of a JSON document; the static functions below go through it. Older versions stored 
+ * each property individually in shared preferences, these are only read to migrate them.
  */
 public class LoginInfo {
-    // Currently stored in shared preferences
-    private static String SHARED_PREF_ID = "EVENTVIEWER_SHARED_PREFS";
+    static String SHARED_PREF_ID = "EVENTVIEWER_SHARED_PREFS";
     private static String SHARED_PREF_SERVER_ID = "SERVER";
     private static String SHARED_PREF_USERNAME_ID = "USERNAME";
     private static String SHARED_PREF_PASSWORD_ID = "PASSWORD";
@@ -46,6 +53,8 @@ public class LoginInfo {
     private static String SHARED_PREF_REFRESH_ID = "REFRESH";
     private static String SHARED_PREF_DISMISSINDEX_ID = "DISMISSINDEX";
     private static String SHARED_PREF_BASIC_AUTHETICATION_ID = "BASIC_AUTHENTIACATION";
+    private static String SHARED_PREF_CACHESIZE_ID = "CACHESIZE";
+    private static String SHARED_PREF_ADDITIONAL_SERVERS_ID = "ADDITIONAL_SERVERS"; // JSON array of LoginInfo for any additional servers
 
     public String url;          // eWEB url
     public String username;     // eWEB username
@@ -54,10 +63,12 @@ public class LoginInfo {
     public int refreshSeconds;  // Number of seconds between each notification refresh
     public String dismissIndex; // Index value when the user last dismissed the event list
     public boolean mBasicAuthentication = true; // By default use basic authentication method
+    public int cacheSize;       // Max number of events kept by the service
 
     private static boolean mDefaultActive = false;      // By default user is not logged in
     private static int mDefaultRefreshSeconds = 300;    // By default service runs every X seconds; 300 = 5 mins
     private static String mDefaultDismissIndex = null;  // By default no dimiss index is set
+    private static int mDefaultCacheSize = EventCache.DEFAULT_EVENT_CACHE_MAX;
 
     // ------------------------------------------------------------------------------
     // Constructors
@@ -75,6 +86,10 @@ public class LoginInfo {
     }
 
     public LoginInfo(String url, String username, String password, int refreshSeconds, String dismissIndex, boolean active, boolean basicAuthentication) {
+        this(url, username, password, refreshSeconds, dismissIndex, active, basicAuthentication, mDefaultCacheSize);
+    }
+
+    public LoginInfo(String url, String username, String password, int refreshSeconds, String dismissIndex, boolean active, boolean basicAuthentication, int cacheSize) {
         this.url = (url == null) ? "" : url;
         this.username = (username == null) ? "" : username;
         this.password = (password == null) ? "" : password;
@@ -82,6 +97,18 @@ public class LoginInfo {
         this.dismissIndex = dismissIndex;
         this.active = active;
         this.mBasicAuthentication = basicAuthentication;
+        this.cacheSize = cacheSize;
+    }
+
+    public LoginInfo(LoginInfo other) {
+        this(other.url, other.username, other.password, other.refreshSeconds, other.dismissIndex, other.active, other.mBasicAuthentication, other.cacheSize);
+    }
+
+    /**
+     * True if url, user and password are setup
+     */
+    public boolean isSetup() {
+        return !((url.equals("")) || (username.equals("")) || (password.equals("")));
     }
 
     // ------------------------------------------------------------------------------
@@ -101,7 +128,7 @@ public class LoginInfo {
 
     /**
      * Login info is equal if the password, name and url contain the same string value.
-     * NOTE Equals does not take "active" or "refreshSeconds" into account.
+     * NOTE Equals does not take "active", "refreshSeconds" or "cacheSize" into account.
      */
     @Override
     public boolean equals(Object obj) {
@@ -130,59 +157,113 @@ public class LoginInfo {
         return true;
     }
 
+    /**
+     * Identifies the server profile (url and user); used to name per-server files.
+     */
+    public String getId() {
+        return Integer.toHexString(String.format("%s|%s", url, username).hashCode());
+    }
+
     // ------------------------------------------------------------------------------
     // Static functions
     // ------------------------------------------------------------------------------
     /**
-     * Get login info for user stored in shared preferences
+     * Get login info for the main user; a copy, see LoginStore
      */
     public static LoginInfo getLoginInfo(Context ctx) {
-        SharedPreferences sharedPreferences = ctx.getSharedPreferences(SHARED_PREF_ID, Context.MODE_PRIVATE);
-        return new LoginInfo(
-                sharedPreferences.getString(SHARED_PREF_SERVER_ID, ""),
-                sharedPreferences.getString(SHARED_PREF_USERNAME_ID, ""),
-                sharedPreferences.getString(SHARED_PREF_PASSWORD_ID, ""),
-                sharedPreferences.getInt(SHARED_PREF_REFRESH_ID, mDefaultRefreshSeconds),
-                sharedPreferences.getString(SHARED_PREF_DISMISSINDEX_ID, mDefaultDismissIndex),
-                sharedPreferences.getBoolean(SHARED_PREF_ACTIVE_ID, mDefaultActive),
-                sharedPreferences.getBoolean(SHARED_PREF_BASIC_AUTHETICATION_ID, true));
+        return LoginStore.get(ctx).getPrimary();
     }
 
     /**
-     * Sets the shared preferences to contain the given login info.
+     * Stores the given login info as the main user; saved in the background.
      */
     public static void setLoginInfo(Context ctx, LoginInfo details) {
-        SharedPreferences.Editor editor = ctx.getSharedPreferences(SHARED_PREF_ID, Context.MODE_PRIVATE).edit();
-        editor.putString(SHARED_PREF_SERVER_ID, details.url);
-        editor.putString(SHARED_PREF_USERNAME_ID, details.username);
-        editor.putString(SHARED_PREF_PASSWORD_ID, details.password);
-        editor.putInt(SHARED_PREF_REFRESH_ID, details.refreshSeconds);
-        editor.putString(SHARED_PREF_DISMISSINDEX_ID, details.dismissIndex);
-        editor.putBoolean(SHARED_PREF_ACTIVE_ID, details.active);
-        editor.putBoolean(SHARED_PREF_BASIC_AUTHETICATION_ID, details.mBasicAuthentication);
-        editor.commit();
+        LoginStore.get(ctx).setPrimary(details);
+    }
 
+    /**
+     * Get the login info for any additional servers the user polls along with the main login. 
+     * Refresh rate, active state and cache size are always taken from the main login.
+     */
+    public static ArrayList<LoginInfo> getAdditionalLogins(Context ctx) {
+        return LoginStore.get(ctx).getAdditional();
+    }
+
+    /**
+     * Stores the given additional server logins; saved in the background.
+     */
+    public static void setAdditionalLogins(Context ctx, List<LoginInfo> logins) {
+        LoginStore.get(ctx).setAdditional(logins);
+    }
+
+    /**
+     * Updates the stored dismissIndex of the additional server with the same url and user as the given login.
+     */
+    public static void setAdditionalDismissIndex(Context ctx, LoginInfo login, String dismissIndex) {
+        LoginStore.get(ctx).setAdditionalDismissIndex(login, dismissIndex);
     }
 
     public static void deleteStoredLoginInfo(Context ctx) {
-        SharedPreferences.Editor editor = ctx.getSharedPreferences(SHARED_PREF_ID, Context.MODE_PRIVATE).edit();
-        editor.clear().commit();
+        LoginStore.get(ctx).clear();
     }
 
     /**
      * True if login url, user and password are setup
      */
     public static boolean storedLoginExists(Context ctx) {
-        LoginInfo storedLogin = LoginInfo.getLoginInfo(ctx);
-        return !((storedLogin.url.equals("")) || (storedLogin.username.equals("")) || (storedLogin.password.equals("")));
+        return getLoginInfo(ctx).isSetup();
     }
 
     /**
      * True if there is a stored user, and they are currently active/logged in
      */
     public static boolean storedUserIsActive(Context ctx) {
-        LoginInfo storedLogin = LoginInfo.getLoginInfo(ctx);
-        boolean setup = !((storedLogin.url.equals("")) || (storedLogin.username.equals("")) || (storedLogin.password.equals("")));
-        return setup && storedLogin.active;
+        LoginInfo storedLogin = getLoginInfo(ctx);
+        return storedLogin.isSetup() && storedLogin.active;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Preferences of older versions; see LoginStore
+    // ------------------------------------------------------------------------------
+    static LoginInfo readLegacyLoginInfo(SharedPreferences sharedPreferences) {
+        return new LoginInfo(
+                sharedPreferences.getString(SHARED_PREF_SERVER_ID, ""),
+                sharedPreferences.getString(SHARED_PREF_USERNAME_ID, ""),
+                sharedPreferences.getString(SHARED_PREF_PASSWORD_ID, ""),
+                sharedPreferences.getInt(SHARED_PREF_REFRESH_ID, mDefaultRefreshSeconds),
+                sharedPreferences.getString(SHARED_PREF_DISMISSINDEX_ID, mDefaultDismissIndex),
+                sharedPreferences.getBoolean(SHARED_PREF_ACTIVE_ID, mDefaultActive),
+                sharedPreferences.getBoolean(SHARED_PREF_BASIC_AUTHETICATION_ID, true),
+                sharedPreferences.getInt(SHARED_PREF_CACHESIZE_ID, mDefaultCacheSize));
+    }
+
+    static ArrayList<LoginInfo> readLegacyAdditionalLogins(SharedPreferences sharedPreferences) {
+        String json = sharedPreferences.getString(SHARED_PREF_ADDITIONAL_SERVERS_ID, null);
+        ArrayList<LoginInfo> list = null;
+
+        if (json != null) {
+            try {
+                Type listType = new TypeToken<List<LoginInfo>>() {
+                }.getType();
+                list = new Gson().fromJson(json, listType);
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        return (list == null) ? new ArrayList<LoginInfo>() : list;
+    }
+
+    static void removeLegacyPreferences(SharedPreferences.Editor editor) {
+        editor.remove(SHARED_PREF_SERVER_ID);
+        editor.remove(SHARED_PREF_USERNAME_ID);
+        editor.remove(SHARED_PREF_PASSWORD_ID);
+        editor.remove(SHARED_PREF_REFRESH_ID);
+        editor.remove(SHARED_PREF_DISMISSINDEX_ID);
+        editor.remove(SHARED_PREF_ACTIVE_ID);
+        editor.remove(SHARED_PREF_BASIC_AUTHETICATION_ID);
+        editor.remove(SHARED_PREF_CACHESIZE_ID);
+        editor.remove(SHARED_PREF_ADDITIONAL_SERVERS_ID);
     }
-}
\ No newline at end of file
+}
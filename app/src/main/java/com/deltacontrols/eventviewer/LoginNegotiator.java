@@ -0,0 +1,305 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+import android.util.Log;
+
+import com.deltacontrols.eweb.support.api.FetchRawResponse;
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+
+/**
+ * LoginNegotiator finds out how to log in to a server before the EwebConnection connects to it. Rather than trying 
+ * one way at a time (and waiting for each to time out), it logs in every candidate way at once, on its own thread:
+ *  - The url as entered, and with the other scheme (http/https); "http://" is assumed if none was entered.
+ *  - Each of those without its path as well, if the url has one.
+ *  - Basic authentication (/api/auth/basiclogin) and the session login (/api/auth/login), as EwebConnection does.
+ * 
+ * The first candidate to log in wins and the others are cancelled. If none does, the result is the most telling 
+ * failure: a server that answered (e.g. bad credentials) over one that did not. The callback is called once, on the 
+ * main thread.
+ */
+public class LoginNegotiator {
+
+    /**
+     * One way of logging in, and how it went.
+     */
+    public static class Candidate {
+        public final String url;
+        public final boolean basicAuthentication;
+        public int statusCode;          // 0 if there was no response
+        public boolean ok;              // Logged in
+
+        private volatile HttpURLConnection mConnection;     // While logging in; see cancel
+
+        Candidate(String url, boolean basicAuthentication) {
+            this.url = url;
+            this.basicAuthentication = basicAuthentication;
+        }
+
+        /**
+         * Lower is more telling, for a failed login: the server answered the login, answered something else, or did 
+         * not answer at all.
+         */
+        private int failureRank() {
+            if (statusCode == 0) {
+                return 2;
+            }
+            return (statusCode == HttpURLConnection.HTTP_NOT_FOUND) || (statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) ? 1 : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%s)", url, basicAuthentication ? "basic" : "session");
+        }
+    }
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    private final static String BASIC_LOGIN_URL = "%s/api/auth/basiclogin?alt=json";
+    private final static String LOGIN_URL = "%s/api/auth/login?alt=json&username=%s&password=%s";
+    private final static int READ_TIMEOUT = 1000 * 20;
+    private final static int CHAR_BUFFER = 1024;
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private final String mUsername;
+    private final String mPassword;
+    private final List<Candidate> mCandidates = new ArrayList<Candidate>();    // In order of preference
+    private GenericCallback<Candidate> mCallback;
+    private int mPending;               // Candidates still logging in
+    private boolean mDone = false;      // Callback has been called, or cancelled
+
+    // ------------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------------
+    public LoginNegotiator(String url, String username, String password) {
+        mUsername = username;
+        mPassword = password;
+        for (String candidateURL : candidateURLs(url)) {
+            mCandidates.add(new Candidate(candidateURL, true));
+            mCandidates.add(new Candidate(candidateURL, false));
+        }
+    }
+
+    // ------------------------------------------------------------------------------
+    // Public functionality
+    // ------------------------------------------------------------------------------
+    /**
+     * Starts logging in every candidate; calls back with the winner (ok) or the most telling failure.
+     */
+    public void start(GenericCallback<Candidate> callback) {
+        synchronized (this) {
+            mCallback = callback;
+            mPending = mCandidates.size();
+        }
+        for (final Candidate candidate : mCandidates) {
+            new Thread() {
+                @Override
+                public void run() {
+                    login(candidate);
+                    onLoginDone(candidate);
+                }
+            }.start();
+        }
+    }
+
+    /**
+     * Drops any outstanding logins; the callback will not be called.
+     */
+    public void cancel() {
+        synchronized (this) {
+            mDone = true;
+        }
+        cancelOthers(null);
+    }
+
+    /**
+     * The urls to try for what was entered, in order of preference.
+     */
+    static List<String> candidateURLs(String entered) {
+        String url = entered.trim();
+        while (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+
+        String scheme = "http";
+        String rest = url;
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd != -1) {
+            scheme = url.substring(0, schemeEnd).toLowerCase();
+            rest = url.substring(schemeEnd + 3);
+        }
+        String otherScheme = scheme.equals("https") ? "http" : "https";
+
+        int pathStart = rest.indexOf('/');
+        String host = (pathStart == -1) ? null : rest.substring(0, pathStart);
+
+        List<String> urls = new ArrayList<String>();
+        urls.add(scheme + "://" + rest);
+        urls.add(otherScheme + "://" + rest);
+        if (host != null) {
+            urls.add(scheme + "://" + host);
+            urls.add(otherScheme + "://" + host);
+        }
+        return urls;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private Helper Functions
+    // ------------------------------------------------------------------------------
+    private void onLoginDone(Candidate candidate) {
+        Candidate result = null;
+        synchronized (this) {
+            mPending--;
+            if (mDone) {
+                return;
+            }
+            if (candidate.ok) {
+                result = candidate;
+            }
+            else if (mPending == 0) {
+                for (Candidate other : mCandidates) {
+                    if ((result == null) || (other.failureRank() < result.failureRank())) {
+                        result = other;
+                    }
+                }
+            }
+            if (result == null) {
+                return;
+            }
+            mDone = true;
+        }
+
+        Log.i(App.TAG, String.format("LoginNegotiator: %s %s (%d)", result.ok ? "Logged in with" : "Could not log in; best was", result, result.statusCode));
+        if (result.ok) {
+            cancelOthers(result);
+        }
+
+        final GenericCallback<Candidate> callback = mCallback;
+        final Candidate done = result;
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCallback(done);
+            }
+        });
+    }
+
+    /**
+     * Disconnects the logins still running, other than the winner; their blocked reads fail, ending the threads.
+     */
+    private void cancelOthers(Candidate winner) {
+        for (Candidate candidate : mCandidates) {
+            HttpURLConnection connection = candidate.mConnection;
+            if ((candidate != winner) && (connection != null)) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Logs in the way of the candidate, on the calling thread; sets its statusCode and ok.
+     */
+    private void login(Candidate candidate) {
+        HttpURLConnection connection = null;
+        try {
+            String url;
+            if (candidate.basicAuthentication) {
+                url = String.format(BASIC_LOGIN_URL, candidate.url);
+            }
+            else {
+                url = String.format(LOGIN_URL, candidate.url, URLEncoder.encode(mUsername, "UTF-8"), URLEncoder.encode(mPassword, "UTF-8"));
+            }
+
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            candidate.mConnection = connection;
+            synchronized (this) {
+                if (mDone) {
+                    return;
+                }
+            }
+            connection.setConnectTimeout(FetchRawResponse.ConnectionTimeoutMS);
+            connection.setReadTimeout(READ_TIMEOUT);
+            if (candidate.basicAuthentication) {
+                String credentials = String.format("%s:%s", mUsername, mPassword);
+                connection.setRequestProperty("Authorization", "Basic " + Base64.encodeToString(credentials.getBytes(), Base64.NO_WRAP));
+            }
+
+            candidate.statusCode = connection.getResponseCode();
+            if (candidate.statusCode == HttpURLConnection.HTTP_OK) {
+                JSONObject json = new JSONObject(new JSONTokener(readToEnd(connection.getInputStream())));
+                candidate.ok = "OK".equals(json.optString("value"));
+            }
+        }
+        catch (Exception e) {
+            // Not reachable this way, or not an eWEB login response; statusCode tells which
+            Log.i(App.TAG, String.format("LoginNegotiator: %s failed: %s", candidate, e.getMessage()));
+        }
+        finally {
+            candidate.mConnection = null;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static String readToEnd(InputStream in) throws IOException {
+        Reader reader = new InputStreamReader(in, "UTF-8");
+        try {
+            StringBuilder body = new StringBuilder();
+            char[] buffer = new char[CHAR_BUFFER];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                body.append(buffer, 0, count);
+            }
+            return body.toString();
+        }
+        finally {
+            reader.close();
+        }
+    }
+}
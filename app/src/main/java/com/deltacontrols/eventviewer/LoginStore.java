@@ -0,0 +1,218 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+/**
+ * LoginStore keeps the login profiles (the main login and any additional servers) in memory. It loads them once and 
+ * saves every change in the background. Reads do not touch SharedPreferences; LoginInfo's static functions go 
+ * through it.
+ * 
+ * The profiles are persisted as one JSON document, see Profiles. On first use, the individual preferences of older 
+ * versions are migrated to it and removed.
+ * 
+ * Thread safe. Readers get copies, so a LoginInfo that was read may be changed freely and then saved. Listeners are 
+ * called on the thread that made the change.
+ */
+public class LoginStore {
+
+    public interface Listener {
+        void onLoginsChanged(LoginStore store);
+    }
+
+    /**
+     * The persisted document.
+     */
+    private static class Profiles {
+        int version = PROFILES_VERSION;
+        LoginInfo primary;
+        ArrayList<LoginInfo> additional;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    private final static String SHARED_PREF_PROFILES_ID = "PROFILES";
+    private final static int PROFILES_VERSION = 1;
+
+    private static LoginStore sInstance;
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private final SharedPreferences mPrefs;
+    private final Gson mGson = new Gson();
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<Listener>();
+    private LoginInfo mPrimary;
+    private ArrayList<LoginInfo> mAdditional;
+
+    private LoginStore(Context ctx) {
+        mPrefs = ctx.getSharedPreferences(LoginInfo.SHARED_PREF_ID, Context.MODE_PRIVATE);
+        load();
+    }
+
+    public static synchronized LoginStore get(Context ctx) {
+        if (sInstance == null) {
+            sInstance = new LoginStore(ctx.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Public functionality
+    // ------------------------------------------------------------------------------
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    public synchronized LoginInfo getPrimary() {
+        return new LoginInfo(mPrimary);
+    }
+
+    public synchronized ArrayList<LoginInfo> getAdditional() {
+        ArrayList<LoginInfo> copy = new ArrayList<LoginInfo>(mAdditional.size());
+        for (LoginInfo login : mAdditional) {
+            copy.add(new LoginInfo(login));
+        }
+        return copy;
+    }
+
+    public synchronized int getAdditionalCount() {
+        return mAdditional.size();
+    }
+
+    public void setPrimary(LoginInfo login) {
+        synchronized (this) {
+            mPrimary = new LoginInfo(login);
+            save();
+        }
+        notifyListeners();
+    }
+
+    public void setAdditional(List<LoginInfo> logins) {
+        synchronized (this) {
+            mAdditional = new ArrayList<LoginInfo>(logins.size());
+            for (LoginInfo login : logins) {
+                mAdditional.add(new LoginInfo(login));
+            }
+            save();
+        }
+        notifyListeners();
+    }
+
+    /**
+     * Updates the dismissIndex of the additional server with the same url and user as the given login.
+     */
+    public void setAdditionalDismissIndex(LoginInfo login, String dismissIndex) {
+        synchronized (this) {
+            for (LoginInfo additional : mAdditional) {
+                if (additional.equals(login)) {
+                    additional.dismissIndex = dismissIndex;
+                }
+            }
+            save();
+        }
+        notifyListeners();
+    }
+
+    /**
+     * Forgets all profiles.
+     */
+    public void clear() {
+        synchronized (this) {
+            mPrimary = new LoginInfo();
+            mAdditional = new ArrayList<LoginInfo>();
+            mPrefs.edit().clear().apply();
+        }
+        notifyListeners();
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private Helper Functions
+    // ------------------------------------------------------------------------------
+    private void load() {
+        Profiles profiles = null;
+        String json = mPrefs.getString(SHARED_PREF_PROFILES_ID, null);
+        if (json != null) {
+            try {
+                profiles = mGson.fromJson(json, Profiles.class);
+            } 
+            catch (Exception e) {
+                Log.e(App.TAG, "LoginStore could not read the profiles: " + e.getMessage());
+            }
+        }
+
+        if (profiles == null) {
+            // Older versions kept each property of the main login in its own preference
+            mPrimary = LoginInfo.readLegacyLoginInfo(mPrefs);
+            mAdditional = LoginInfo.readLegacyAdditionalLogins(mPrefs);
+            SharedPreferences.Editor editor = mPrefs.edit();
+            LoginInfo.removeLegacyPreferences(editor);
+            editor.putString(SHARED_PREF_PROFILES_ID, toJson());
+            editor.apply();
+            return;
+        }
+
+        mPrimary = (profiles.primary == null) ? new LoginInfo() : profiles.primary;
+        mAdditional = (profiles.additional == null) ? new ArrayList<LoginInfo>() : profiles.additional;
+    }
+
+    /**
+     * Persists in the background; SharedPreferences.apply() keeps the writes in order.
+     */
+    private void save() {
+        mPrefs.edit().putString(SHARED_PREF_PROFILES_ID, toJson()).apply();
+    }
+
+    private String toJson() {
+        Profiles profiles = new Profiles();
+        profiles.primary = mPrimary;
+        profiles.additional = mAdditional;
+        return mGson.toJson(profiles);
+    }
+
+    private void notifyListeners() {
+        for (Listener listener : mListeners) {
+            listener.onLoginsChanged(this);
+        }
+    }
+}
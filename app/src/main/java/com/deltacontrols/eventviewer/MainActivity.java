@@ -28,22 +28,25 @@ POSSIBILITY OF SUCH DAMAGE.
 */
 package com.deltacontrols.eventviewer;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 
 import org.json.JSONObject;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.Dialog;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.graphics.drawable.GradientDrawable;
 import android.net.Uri;
@@ -64,6 +67,7 @@ import android.widget.AbsListView;
 import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
+import android.widget.AdapterView.OnItemLongClickListener;
 import android.widget.AdapterView.OnItemSelectedListener;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
@@ -79,6 +83,12 @@ import android.widget.Toast;
 import com.deltacontrols.eventviewer.MoreIndicator.Direction;
 import com.deltacontrols.eventviewer.controls.EventDetailView;
 import com.deltacontrols.eventviewer.service.EventNotificationsService;
+import com.deltacontrols.eventviewer.service.EventStream;
+import com.deltacontrols.eventviewer.service.EventSummary;
+import com.deltacontrols.eventviewer.service.Metrics;
+import com.deltacontrols.eventviewer.service.NoisyPointStats;
+import com.deltacontrols.eventviewer.service.ResponseRecorder;
+import com.deltacontrols.eventviewer.service.TopKCounter;
 import com.deltacontrols.eventviewer.service.ScheduleEventNotifications;
 import com.deltacontrols.eweb.support.api.FetchXML;
 import com.deltacontrols.eweb.support.api.FetchXML.Result;
@@ -97,8 +107,8 @@ import com.deltacontrols.eweb.support.models.iEvent.iAlarmDetails;
  * EventViewer (onResume) will attempt to bind with the service creating a ServiceConnection which will give access to public 
  * functionality of the service.
  * 
- * Sets up an EventBroadcastReceiver which listens for the NOTIFICATION_INTENT_ACTION broadcast from EventNotificationService. 
- * This tells MainActivity it needs to update its data.
+ * Subscribes to the EventStream of EventNotificationService while bound; a STATE_CHANGED message tells MainActivity it 
+ * needs to update its data.
  * 
  * On log out, EventViewer calls logout on the service, forcing the cache to be reset and for the service to stop repeating. 
  * No more requests should be made to the server until the next login
@@ -106,24 +116,31 @@ import com.deltacontrols.eweb.support.models.iEvent.iAlarmDetails;
 public class MainActivity extends Activity {
 
     // ------------------------------------------------------------------------------
-    // EventBroadcastReciever
+    // EventStreamSubscriber
     // Listen for event notification from the background service
     // ------------------------------------------------------------------------------
-    private class EventBroadcastReciever extends BroadcastReceiver {
+    private class EventStreamSubscriber implements EventStream.Subscriber {
         @Override
-        public void onReceive(Context context, Intent intent) {
+        public void onMessage(EventStream.Message message) {
 
             if (mService == null) {
-                Log.e(App.TAG, "EventBroadcastReciever onReceive mNotificationService is null");
+                Log.e(App.TAG, "EventStreamSubscriber onMessage mNotificationService is null");
+                return;
+            }
+
+            if (message.type == EventStream.Type.STATUS_CHANGED) {
+                updateStatusMessage();
                 return;
             }
 
             // Check for error state
-            EventNotificationsService.STATUS status = mService.getCurrentStatus();
+            EventNotificationsService.STATUS status = message.status;
             if (status.equals(EventNotificationsService.STATUS.OK)) {
-                if (mAutoUpdate || (mListItemsArray.size() == 0)) {
-                    // If auto updating, OR we have no current data, then sync
+                if (mAutoUpdate || (mListItemsArray.size() == 0) || mLoadingOlder) {
+                    // If auto updating, OR we have no current data, OR the user scrolled for older events, then sync
+                    mLoadingOlder = false;
                     syncWithDataFromService();
+                    Metrics.histogram(Metrics.UI_PUBLISH_TO_RENDER).recordSince(message.publishedNanos);
                 }
                 else {
                     // Else, simply update the new events text
@@ -135,7 +152,8 @@ public class MainActivity extends Activity {
         }
     }
 
-    private EventBroadcastReciever evReceiver; // Setup notification receiver from service
+    private EventStreamSubscriber evSubscriber;     // Receives updates from the service
+    private EventStream.Subscription mSubscription; // While bound to the service
 
     // ------------------------------------------------------------------------------
     // EventNotificationsService binding
@@ -145,6 +163,9 @@ public class MainActivity extends Activity {
 
         public void onServiceConnected(ComponentName className, IBinder binder) {
             mService.setService(((EventNotificationsService.MyBinder) binder).getService());
+            // Every change is followed by a STATE_CHANGED; the list is synced from that alone, so the event messages (and 
+            // their copies of the events) are not needed.
+            mSubscription = mService.subscribe(evSubscriber, EnumSet.of(EventStream.Type.STATE_CHANGED, EventStream.Type.STATUS_CHANGED));
 
             updateStatusMessage();
 
@@ -163,15 +184,27 @@ public class MainActivity extends Activity {
         }
 
         public void onServiceDisconnected(ComponentName className) {
+            cancelSubscription();
             mService.setService(null);
         }
     };
 
+    private void cancelSubscription() {
+        if (mSubscription != null) {
+            mSubscription.cancel();
+            mSubscription = null;
+        }
+    }
+
     // ------------------------------------------------------------------------------
     // Static properties
     // ------------------------------------------------------------------------------
     static final String GROUP_SELECTED_POSITION = "EV_GROUP_SELECTED_POSITION"; // Save state for alarm group selection
     static final String AUTO_UPDATE = "EV_AUTO_UPDATE"; // Save state for pause/play
+    static final String GROUP_BY_POINT = "EV_GROUP_BY_POINT"; // Save state for collapsed list
+    static final int NOISY_POINTS_SHOWN = 10;  // Number of points listed per window in the noisiest points summary
+    static final int SPILLED_EVENTS_PAGE = 50; // Number of spilled (on disk) events added each time the end of the list is reached
+    static final String DIAGNOSTICS_FILENAME = "metrics.txt"; // Export of the diagnostics dialog
 
     // ------------------------------------------------------------------------------
     // Outlets
@@ -196,6 +229,8 @@ public class MainActivity extends Activity {
     // ------------------------------------------------------------------------------
     private Context mCtx;                   // App context
     private boolean mAutoUpdate;            // If list is currently auto updating when service broadcast is received
+    private boolean mLoadingOlder = false;  // Older events were requested by scrolling to the end of the list; see listScrollListener
+    private int mSpilledShown = 0;          // Spilled events added to the end of the list, once there is no server history left; see listScrollListener
     private EventItemAdapter mListAdapter;  // Event list adapter
     private ArrayList<iEvent> mListItemsArray;      // Event list data array
     private GroupSpinnerItemAdapter mGroupAdapter;  // Alarm group adapter
@@ -209,6 +244,9 @@ public class MainActivity extends Activity {
     private Dialog mDialog;                 // Reference to the event details dialog (could be null if dialog not showing)
     private ArrayAdapter<String> mDialogUserListAdapter;
     private String mGroupNameForAllEvents;  // String for "<All>" in the group dropdown
+    private boolean mGroupByPoint;          // Show one (summary) row per event instead of one row per transition
+    private String mExpandedEventRef;       // Event whose full history is shown below its summary row; null if none
+    private HashMap<String, EventSummary> mSummaryLookup; // Summaries for the current list, indexed on EventRef; null if not grouped
 
     // ------------------------------------------------------------------------------
     // Life Cycle
@@ -220,7 +258,7 @@ public class MainActivity extends Activity {
         setContentView(R.layout.activity_main);
 
         mCtx = this;
-        evReceiver = new EventBroadcastReciever();
+        evSubscriber = new EventStreamSubscriber();
         mService = new ServiceWrapper();
         mSelectedEvent = null;
         mFilterApplied = false;
@@ -233,10 +271,12 @@ public class MainActivity extends Activity {
             // Restore value of members from saved state
             mGroupCurrentSelectedPos = savedInstanceState.getInt(GROUP_SELECTED_POSITION);
             mAutoUpdate = savedInstanceState.getBoolean(AUTO_UPDATE);
+            mGroupByPoint = savedInstanceState.getBoolean(GROUP_BY_POINT);
         }
         else {
             mGroupCurrentSelectedPos = 0;
             mAutoUpdate = false;
+            mGroupByPoint = false;
         }
 
         // Get outlets
@@ -258,6 +298,14 @@ public class MainActivity extends Activity {
         });
 
         mStatusMessage = (TextView) findViewById(R.id.statusMessage);
+        mStatusMessage.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                // Hidden; for support and performance work
+                showDiagnostics();
+                return true;
+            }
+        });
         mStatusEwebConnection = (ImageView) findViewById(R.id.statusEwebConnection);
         mEventListFilters = findViewById(R.id.eventListFilters);
 
@@ -265,6 +313,7 @@ public class MainActivity extends Activity {
         mEventList = (ListView) findViewById(R.id.eventListView);
         mEventList.setEmptyView(findViewById(R.id.eventListView_empty));
         mEventList.setOnItemClickListener(selectEventItemListener);
+        mEventList.setOnItemLongClickListener(expandEventItemListener);
         mEventList.setOnScrollListener(listScrollListener);
 
         // Setup filter inputs
@@ -280,6 +329,7 @@ public class MainActivity extends Activity {
      */
     private void clearView() {
         mListItemsArray = new ArrayList<iEvent>();
+        mSpilledShown = 0;
         mGroupItemsArray = new ArrayList<AlarmGroup>();
         mUserList = new UserList();
     }
@@ -311,12 +361,8 @@ public class MainActivity extends Activity {
         }
         else {
             // Bind to EventNotificationsService
+            // Subscribes to the service's EventStream once connected
             bindService(new Intent(this, EventNotificationsService.class), mConnection, Context.BIND_AUTO_CREATE);
-
-            // Setup broadcast Receiver
-            IntentFilter intentFilter = new IntentFilter();
-            intentFilter.addAction(EventNotificationsService.NOTIFICATION_INTENT_ACTION);
-            registerReceiver(evReceiver, intentFilter);
         }
     }
 
@@ -334,7 +380,7 @@ public class MainActivity extends Activity {
             clearView();
         }
         else {
-            unregisterReceiver(evReceiver);
+            cancelSubscription();
             unbindService(mConnection);
         }
     }
@@ -354,6 +400,7 @@ public class MainActivity extends Activity {
         // Save the user's current game state
         savedInstanceState.putInt(GROUP_SELECTED_POSITION, mGroupCurrentSelectedPos);
         savedInstanceState.putBoolean(AUTO_UPDATE, mAutoUpdate);
+        savedInstanceState.putBoolean(GROUP_BY_POINT, mGroupByPoint);
 
         // Always call the superclass so it can save the view hierarchy state
         super.onSaveInstanceState(savedInstanceState);
@@ -383,6 +430,8 @@ public class MainActivity extends Activity {
         // Update menu icon to indicate if we have a filter applied or not.
         mFilterItem.setIcon(mFilterApplied ? R.drawable.ic_action_filter_selected : R.drawable.ic_action_filter);
 
+        menu.findItem(R.id.action_group_by_point).setChecked(mGroupByPoint);
+
         super.onPrepareOptionsMenu(menu);
         return true;
     }
@@ -430,6 +479,17 @@ public class MainActivity extends Activity {
                 syncWithDataFromService();
                 break;
 
+            case R.id.action_group_by_point:
+                mGroupByPoint = !mGroupByPoint;
+                mExpandedEventRef = null;
+                invalidateOptionsMenu();
+                syncWithDataFromService();
+                break;
+
+            case R.id.action_noisy_points:
+                showNoisyPoints();
+                break;
+
             case R.id.action_dismiss_all:
                 // Tell the service to dismiss events
                 mService.dimissAllEvents();
@@ -487,7 +547,16 @@ public class MainActivity extends Activity {
      */
     private void syncWithDataFromService() {
         try {
-            mListItemsArray = mService.getEventList();
+            if (mGroupByPoint) {
+                mListItemsArray = getGroupedEventList();
+            }
+            else {
+                mSummaryLookup = null;
+                mListItemsArray = mService.getEventList();
+                if (mSpilledShown > 0) {
+                    mListItemsArray.addAll(0, mService.getSpilledEvents(mSpilledShown));
+                }
+            }
             Log.i(App.TAG, String.format("Attempting to sync with service; loading %d events", mListItemsArray.size()));
             Collections.reverse(mListItemsArray);
 
@@ -500,6 +569,119 @@ public class MainActivity extends Activity {
         }
     }
 
+    /**
+     * Builds the collapsed list; the latest transition of each event, with the full history of the expanded event (if 
+     * any) in front of it. ASC order, like mService.getEventList.
+     */
+    private ArrayList<iEvent> getGroupedEventList() {
+        ArrayList<EventSummary> summaries = mService.getEventSummaries();
+        ArrayList<iEvent> list = new ArrayList<iEvent>();
+        mSummaryLookup = new HashMap<String, EventSummary>();
+
+        for (EventSummary summary : summaries) {
+            mSummaryLookup.put(summary.getEventRef(), summary);
+
+            if (summary.getEventRef().equals(mExpandedEventRef)) {
+                for (iEvent ev : mService.getEventHistory(mExpandedEventRef)) {
+                    if (!ev.getIndex().equals(summary.getLatest().getIndex())) {
+                        list.add(ev);
+                    }
+                }
+            }
+            list.add(summary.getLatest());
+        }
+
+        return list;
+    }
+
+    /**
+     * Shows the points that generated the most events this hour and today.
+     */
+    private void showNoisyPoints() {
+        StringBuilder sb = new StringBuilder();
+        appendNoisyPoints(sb, R.string.noisy_points_events_hour, NoisyPointStats.Window.HOUR, false);
+        appendNoisyPoints(sb, R.string.noisy_points_events_day, NoisyPointStats.Window.DAY, false);
+        appendNoisyPoints(sb, R.string.noisy_points_inputs_day, NoisyPointStats.Window.DAY, true);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_noisy_points)
+                .setMessage(sb.toString())
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
+
+    /**
+     * Shows the metrics registry; can export it to a file and send it on.
+     */
+    private void showDiagnostics() {
+        final String report = Metrics.report();
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.diagnostics_title)
+                .setMessage(report)
+                .setPositiveButton(ResponseRecorder.isEnabled() ? R.string.diagnostics_record_stop : R.string.diagnostics_record_start, 
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                toggleRecording();
+                            }
+                        })
+                .setNeutralButton(R.string.diagnostics_export, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        exportDiagnostics(report);
+                    }
+                })
+                .setNegativeButton(R.string.diagnostics_reset, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Metrics.reset();
+                    }
+                })
+                .show();
+    }
+
+    private void exportDiagnostics(String report) {
+        File file = new File(getFilesDir(), DIAGNOSTICS_FILENAME);
+        if (!Metrics.export(file)) {
+            ShowCustomToast(this, getString(R.string.diagnostics_export_failed), Toast.LENGTH_SHORT);
+            return;
+        }
+
+        ShowCustomToast(this, String.format(getString(R.string.diagnostics_exported), file.getAbsolutePath()), Toast.LENGTH_SHORT);
+
+        // The file is private to the app; hand the contents to whatever the user picks (mail etc.)
+        shareText(getString(R.string.diagnostics_title), report);
+    }
+
+    private void shareText(String subject, String text) {
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("text/plain");
+        send.putExtra(Intent.EXTRA_SUBJECT, subject);
+        send.putExtra(Intent.EXTRA_TEXT, text);
+        startActivity(Intent.createChooser(send, getString(R.string.diagnostics_export)));
+    }
+
+    private void toggleRecording() {
+        boolean enabled = !ResponseRecorder.isEnabled();
+        ResponseRecorder.setEnabled(this, enabled);
+        ShowCustomToast(this, getString(enabled ? R.string.diagnostics_recording_on : R.string.diagnostics_recording_off), Toast.LENGTH_SHORT);
+    }
+
+    private void appendNoisyPoints(StringBuilder sb, int titleId, NoisyPointStats.Window window, boolean byInput) {
+        sb.append(getString(titleId)).append('\n');
+
+        ArrayList<TopKCounter.Entry> top = mService.getNoisyPoints(window, byInput, NOISY_POINTS_SHOWN);
+        if (top.isEmpty()) {
+            sb.append(getString(R.string.noisy_points_none)).append('\n');
+        }
+        for (TopKCounter.Entry entry : top) {
+            String name = TextUtils.isEmpty(entry.label) ? entry.key : entry.label;
+            sb.append(String.format("%d  %s", entry.count, name)).append('\n');
+        }
+        sb.append('\n');
+    }
+
     /**
      * Update menu title and icons based on mNotificationService.getNewEventCount
      */
@@ -547,8 +729,14 @@ public class MainActivity extends Activity {
                     ? ""
                     : String.format(getString(R.string.serverstatus_last_success_at_X), lastSuccess.toString());
 
+            int catchUpTotal = mService.getCatchUpPagesTotal();
+
+            if (catchUpTotal > 0) {
+                message = String.format(getString(R.string.serverstatus_catching_up), mService.getCatchUpPagesDone(), catchUpTotal);
+                ok = true;
+            }
             // If unknown then we may just be starting up the service for the first time
-            if (status.equals(EventNotificationsService.STATUS.UNKNOWN)) {
+            else if (status.equals(EventNotificationsService.STATUS.UNKNOWN)) {
                 if (mListItemsArray.size() > 0) {
                     // We have loaded from cache; we have connected to the service
                     message = getString(R.string.serverstatus_connected_to_service);
@@ -559,6 +747,10 @@ public class MainActivity extends Activity {
 
                 ok = true;
             }
+            else if (status.equals(EventNotificationsService.STATUS.OK) && mService.isStorm()) {
+                message = String.format(getString(R.string.serverstatus_alarm_storm), mService.getStormWindowCount());
+                ok = true;
+            }
             else if (status.equals(EventNotificationsService.STATUS.OK)) {
                 message = getString(R.string.serverstatus_connected_to_service);
                 ok = true;
@@ -623,7 +815,7 @@ public class MainActivity extends Activity {
     /**
      * Reads the values supplied by the user in the filter view, creates the corresponding JSONObject to store those filters and 
      * then applies the filters to the list. Note: See
-     * {@link EventItemAdapter.FilterBy} for the acceptable values for the filter JSONObject.
+     * {@link EventFilter} for the acceptable values for the filter JSONObject.
      */
     private void applyFilters() {
         if (mListAdapter == null) {
@@ -681,6 +873,7 @@ public class MainActivity extends Activity {
         else {
             mListAdapter.updateData(mListItemsArray);
         }
+        mListAdapter.setSummaries(mSummaryLookup);
 
         // (Re)Apply filters
         applyFilters();
@@ -717,6 +910,16 @@ public class MainActivity extends Activity {
                     mEventListFauxFooter.setVisibility(View.GONE);
                     isFooterVisible = false;
                 }
+
+                // At the end of the list; load older events if the service has not backfilled them yet, else fault in 
+                // the next page of events spilled to disk
+                if ((totalItemCount > 0) && !mLoadingOlder && (mService != null)) {
+                    mLoadingOlder = mService.loadOlderEvents();
+                    if (!mLoadingOlder && !mGroupByPoint && (mSpilledShown < mService.getSpilledEventCount())) {
+                        mSpilledShown += SPILLED_EVENTS_PAGE;
+                        syncWithDataFromService();
+                    }
+                }
             }
             else if (!isFooterVisible) {
                 mEventListFauxFooter.setVisibility(View.VISIBLE);
@@ -727,8 +930,8 @@ public class MainActivity extends Activity {
 
     private OnClickListener openEWEBPage(final String link) {
 
-        LoginInfo login = LoginInfo.getLoginInfo(mCtx);
-        final String openUrl = String.format("%s%s", login.url, link);
+        // Links are relative to the server the selected event came from
+        final String openUrl = String.format("%s%s", mService.getServerUrl(mSelectedEvent), link);
 
         return new OnClickListener() {
             @Override
@@ -745,6 +948,24 @@ public class MainActivity extends Activity {
         };
     }
 
+    /**
+     * When grouped by point, a long press on a row shows (or hides) all transitions of that event.
+     */
+    private OnItemLongClickListener expandEventItemListener = new OnItemLongClickListener() {
+        @Override
+        public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+            Object o = mEventList.getItemAtPosition(position);
+            if (!mGroupByPoint || !(o instanceof iEvent)) {
+                return false;
+            }
+
+            String eventRef = ((iEvent) o).getEventRef();
+            mExpandedEventRef = eventRef.equals(mExpandedEventRef) ? null : eventRef;
+            syncWithDataFromService();
+            return true;
+        }
+    };
+
     /**
      * When event item is clicked in the list, pop open a detailed dialog for the item which allows the user to interact 
      */
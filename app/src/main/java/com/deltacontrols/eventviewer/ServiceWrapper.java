@@ -34,6 +34,7 @@ import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -47,10 +48,17 @@ import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
 
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.deltacontrols.eventviewer.service.EventCache;
 import com.deltacontrols.eventviewer.service.EventNotificationsService;
+import com.deltacontrols.eventviewer.service.EventStream;
+import com.deltacontrols.eventviewer.service.EwebHttpClient;
+import com.deltacontrols.eventviewer.service.EventSummary;
+import com.deltacontrols.eventviewer.service.NoisyPointStats;
+import com.deltacontrols.eventviewer.service.TopKCounter;
 import com.deltacontrols.eventviewer.service.EventNotificationsService.STATUS;
 import com.deltacontrols.eweb.support.api.EwebConnection;
 import com.deltacontrols.eweb.support.api.FetchJSON;
@@ -85,6 +93,20 @@ public class ServiceWrapper {
         mNotificationService = service;
     }
 
+    /**
+     * Demo: Returns null; the demo data never changes 
+     * Live: Subscribes to the given types of the service's EventStream on the main thread, keeping only the latest 
+     * message of each type
+     */
+    public EventStream.Subscription subscribe(EventStream.Subscriber subscriber, EnumSet<EventStream.Type> types) {
+        if (isDemo || (mNotificationService == null)) {
+            return null;
+        }
+        else {
+            return mNotificationService.getEventStream().subscribe(subscriber, types, null, EventStream.Backpressure.LATEST, 0);
+        }
+    }
+
     /**
      * Indicates if we want to show demo or actual data
      */
@@ -169,6 +191,82 @@ public class ServiceWrapper {
         return result;
     }
 
+    /**
+     * Demo: Returns 0; the demo cache has no cold tier 
+     * Live: Returns the number of events the service has spilled to disk; see getSpilledEvents
+     */
+    public int getSpilledEventCount() {
+        if (isDemo || (mNotificationService == null)) {
+            return 0;
+        }
+        else {
+            return mNotificationService.getSpilledEventCount();
+        }
+    }
+
+    /**
+     * Demo: Returns an empty list 
+     * Live: Returns the newest count events the service has spilled to disk, in ASC order; older than those returned by 
+     * getEventList, other than alarms still to be acknowledged
+     */
+    public ArrayList<iEvent> getSpilledEvents(int count) {
+        if (isDemo || (mNotificationService == null)) {
+            return new ArrayList<iEvent>();
+        }
+        else {
+            return mNotificationService.getSpilledEvents(count);
+        }
+    }
+
+    /**
+     * Demo: Returns the summary rows of the demo cache 
+     * Live: Returns the summary rows of the service cache; also clears service flags for count and notifications
+     */
+    public ArrayList<EventSummary> getEventSummaries() {
+        ArrayList<EventSummary> result = null;
+
+        if (isDemo) {
+            result = demoCache.getSummaryCopy();
+        }
+        else {
+            result = mNotificationService.getEventSummaryCopy();
+
+            // Remove system notification card if any are present
+            mNotificationService.resetNewEventCount(); // Tell service we have viewed the new events
+            mNotificationService.clearSystemNotification();
+        }
+
+        return result;
+    }
+
+    /**
+     * Demo: Returns all transitions of the event in the demo cache 
+     * Live: Returns all transitions of the event cached in the service
+     */
+    public ArrayList<iEvent> getEventHistory(String eventRef) {
+        if (isDemo) {
+            return demoCache.getHistory(eventRef);
+        }
+        else {
+            return mNotificationService.getEventHistory(eventRef);
+        }
+    }
+
+    /**
+     * Demo: Returns the noisiest points of the demo cache 
+     * Live: Returns the noisiest points tracked by the service
+     */
+    public ArrayList<TopKCounter.Entry> getNoisyPoints(NoisyPointStats.Window window, boolean byInput, int k) {
+        if (isDemo) {
+            NoisyPointStats stats = new NoisyPointStats();
+            stats.recordAll(demoCache.getCopy());
+            return stats.getTop(window, byInput, k);
+        }
+        else {
+            return mNotificationService.getNoisyPoints(window, byInput, k);
+        }
+    }
+
     /**
      * Demo: Returns 0; for demo we assume no new events 
      * Live: Returns the new event count of the service
@@ -203,6 +301,72 @@ public class ServiceWrapper {
         return result;
     }
 
+    /**
+     * Demo: Returns false 
+     * Live: Returns true if the service has detected an alarm storm
+     */
+    public boolean isStorm() {
+        if (isDemo) {
+            return false;
+        }
+        else {
+            return mNotificationService.isStorm();
+        }
+    }
+
+    /**
+     * Demo: Returns 0 
+     * Live: Returns the number of events received within the last minute (of event time)
+     */
+    public int getStormWindowCount() {
+        if (isDemo) {
+            return 0;
+        }
+        else {
+            return mNotificationService.getStormWindowCount();
+        }
+    }
+
+    /**
+     * Demo: Returns 0 
+     * Live: Returns the number of pages received so far while catching up; see getCatchUpPagesTotal
+     */
+    public int getCatchUpPagesDone() {
+        if (isDemo) {
+            return 0;
+        }
+        else {
+            return mNotificationService.getCatchUpPagesDone();
+        }
+    }
+
+    /**
+     * Demo: Returns 0 
+     * Live: Returns the estimated number of pages needed to catch up, or 0 if the service is not catching up
+     */
+    public int getCatchUpPagesTotal() {
+        if (isDemo) {
+            return 0;
+        }
+        else {
+            return mNotificationService.getCatchUpPagesTotal();
+        }
+    }
+
+    /**
+     * Demo: Returns false; the demo list is complete 
+     * Live: Requests the next page of older history, if there is any; returns true if a page was requested. False if 
+     * the service is not bound yet.
+     */
+    public boolean loadOlderEvents() {
+        if (isDemo || (mNotificationService == null)) {
+            return false;
+        }
+        else {
+            return mNotificationService.loadOlderEvents();
+        }
+    }
+
     /**
      * Demo: Returns a Date corresponding to now 
      * Live: Returns the Date of the last successful "get" from the service
@@ -228,7 +392,7 @@ public class ServiceWrapper {
         HashMap<String, AlarmGroup> result = null;
 
         if (isDemo) {
-            result = demoCache.alarmGroupInfo;
+            result = demoCache.getAlarmGroupInfoCopy();
         }
         else {
             result = mNotificationService.getEventCacheAlarmGroupInfo();
@@ -260,12 +424,8 @@ public class ServiceWrapper {
             demoCache.clear();
         }
         else {
-            // Save last index as dismissIndex and then tell the service to clear its cache.
-            LoginInfo login = LoginInfo.getLoginInfo(App.getContext());
-            login.dismissIndex = mNotificationService.getLastKnownIndex();
-            LoginInfo.setLoginInfo(App.getContext(), login);
-            // Tell service to clear
-            mNotificationService.clearCache();
+            // Service saves the last index of each server as its dismissIndex and then clears its caches.
+            mNotificationService.dismissAllEvents();
         }
     }
 
@@ -309,6 +469,19 @@ public class ServiceWrapper {
         }
     }
 
+    /**
+     * Demo: Returns the url of the stored login 
+     * Live: Returns the url of the server the event came from
+     */
+    public String getServerUrl(iEvent event) {
+        if (isDemo) {
+            return LoginInfo.getLoginInfo(App.getContext()).url;
+        }
+        else {
+            return mNotificationService.getServerUrlFor(event);
+        }
+    }
+
     // ------------------------------------------------------------------------------
     // Direct interaction with eWEB (or mock interaction if demo)
     // Because of async interaction with eWEB, each of these functions requires a callback
@@ -331,7 +504,7 @@ public class ServiceWrapper {
         else {
             LoginInfo login = LoginInfo.getLoginInfo(App.getContext());
             EwebConnection eweb = App.getEwebConnection();
-            eweb.getUserList(new GenericCallback<UserList>() {
+            GenericCallback<UserList> onUsers = new GenericCallback<UserList>() {
                 @Override
                 public void onCallback(UserList result) {
                     if (result.size() > 1) {
@@ -339,7 +512,14 @@ public class ServiceWrapper {
                     }
                     callback.onCallback(result);
                 }
-            });
+            };
+            EwebHttpClient http = EwebHttpClient.forConnection(eweb, login);
+            if (http != null) {
+                http.getUserList(onMainThread(onUsers));
+            }
+            else {
+                eweb.getUserList(onUsers);
+            }
         }
     }
 
@@ -354,8 +534,14 @@ public class ServiceWrapper {
             callback.onCallback(event.AlarmDetails);
         }
         else {
-            EwebConnection eweb = App.getEwebConnection();
-            eweb.getAlarmDetails(event, callback);
+            EwebHttpClient http = mNotificationService.getHttpClientFor(event);
+            if (http != null) {
+                http.getAlarmDetails(event, onMainThread(callback));
+            }
+            else {
+                EwebConnection eweb = mNotificationService.getEwebConnectionFor(event);
+                eweb.getAlarmDetails(event, callback);
+            }
         }
     }
 
@@ -374,7 +560,7 @@ public class ServiceWrapper {
             callback.onCallback(spoofResult);
         }
         else {
-            EwebConnection eweb = App.getEwebConnection();
+            EwebConnection eweb = mNotificationService.getEwebConnectionFor(event);
             eweb.setAlarmDetails(event, callback);
         }
     }
@@ -393,13 +579,35 @@ public class ServiceWrapper {
             callback.onCallback(spoofResult);
         }
         else {
-            // Setup eweb connection to make ack
-            EwebConnection eweb = App.getEwebConnection();
-            // Attempt to ack event on server
-            eweb.acknowledgeEvent(event, eventMessage, callback);
+            // Attempt to ack event on server; events may come from any of the servers
+            EwebHttpClient http = mNotificationService.getHttpClientFor(event);
+            if (http != null) {
+                http.acknowledgeEvent(event, eventMessage, onMainThread(callback));
+            }
+            else {
+                EwebConnection eweb = mNotificationService.getEwebConnectionFor(event);
+                eweb.acknowledgeEvent(event, eventMessage, callback);
+            }
         }
     }
 
+    /**
+     * EwebHttpClient calls back on a background thread; callers here expect the UI thread, as with EwebConnection.
+     */
+    private static <T> GenericCallback<T> onMainThread(final GenericCallback<T> callback) {
+        return new GenericCallback<T>() {
+            @Override
+            public void onCallback(final T result) {
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onCallback(result);
+                    }
+                });
+            }
+        };
+    }
+
     // ------------------------------------------------------------------------------
     // Helper functions to recreate xml and json results for demo
     // ------------------------------------------------------------------------------
@@ -34,7 +34,9 @@ import java.util.Iterator;
 import java.util.List;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
@@ -46,6 +48,7 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.deltacontrols.eventviewer.service.CircuitBreaker;
 import com.deltacontrols.eventviewer.service.ScheduleEventNotifications;
 import com.deltacontrols.eweb.support.api.EwebConnection;
 import com.deltacontrols.eweb.support.api.EwebConnection.CONNECTION_STATUS;
@@ -92,15 +95,20 @@ public class SettingsActivity extends Activity {
     private TextView mUser;
     private TextView mPass;
     private Spinner mRefreshTimeSpinner;
+    private Spinner mCacheSizeSpinner;
+    private Button mServersButton;
     private Button mLogin;
     private EwebConnection eweb;
     private LoginInfo mLoginInfo;
+    private LoginNegotiator mNegotiator;    // Login in progress, if any
 
     // ------------------------------------------------------------------------------
     // Properties
     // ------------------------------------------------------------------------------
     private static int mRefreshTimeDefaultIndex = 3;        // 5 mins.
     private searchableStringArrayList mRefreshTimeValues;   // Custom class; see above
+    private static int mCacheSizeDefaultIndex = 2;          // 500 events.
+    private searchableStringArrayList mCacheSizeValues;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -115,6 +123,15 @@ public class SettingsActivity extends Activity {
         mPass = (TextView) findViewById(R.id.password);
         mRefreshTimeSpinner = (Spinner) findViewById(R.id.refreshTimeSpinner);
         mRefreshTimeValues = new searchableStringArrayList(Arrays.asList(this.getResources().getStringArray(R.array.refresh_time_array_values)));
+        mCacheSizeSpinner = (Spinner) findViewById(R.id.cacheSizeSpinner);
+        mCacheSizeValues = new searchableStringArrayList(Arrays.asList(this.getResources().getStringArray(R.array.cache_size_array_values)));
+        mServersButton = (Button) findViewById(R.id.additionalServersButton);
+        mServersButton.setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showServersDialog();
+            }
+        });
 
         // Login button
         mLogin = (Button) findViewById(R.id.loginButton);
@@ -152,9 +169,13 @@ public class SettingsActivity extends Activity {
                     // Allow retry in case it does not used basic authentication
                     mConnectRetry = true;
 
-                    // Else, attempt login
-                    // try using basic authentication method
-                    eweb.connect(mLoginInfo.url, mLoginInfo.username, mLoginInfo.password, connectListener,true);
+                    // Else, attempt login; find the url and authentication method that work, then connect with those
+                    negotiateLogin(mLoginInfo, new GenericCallback<LoginInfo>() {
+                        @Override
+                        public void onCallback(LoginInfo login) {
+                            eweb.connect(login.url, login.username, login.password, connectListener, login.mBasicAuthentication);
+                        }
+                    });
                 }
             }
         });
@@ -171,6 +192,17 @@ public class SettingsActivity extends Activity {
         }
         mRefreshTimeSpinner.setSelection(refreshIndex);
 
+        // Set cache size; do lookup of value to get text index
+        int cacheSizeIndex = mCacheSizeValues.getIndexFor(mLoginInfo.cacheSize);
+        if (cacheSizeIndex == -1) {
+            cacheSizeIndex = mCacheSizeDefaultIndex;
+        }
+        mCacheSizeSpinner.setSelection(cacheSizeIndex);
+
+        // Additional servers can only be added once the user has logged in to the main server
+        updateServersButton();
+        findViewById(R.id.tableRow3).setVisibility(mLoginInfo.active ? View.VISIBLE : View.GONE);
+
         // Enable/disable based on if user is logged in / active
         if (mLoginInfo.active) {
             mLogin.setVisibility(View.GONE);
@@ -188,7 +220,7 @@ public class SettingsActivity extends Activity {
 
     // This is handler is used to call the old authentication when the new authentication fail.
     Handler connectHandler = new Handler(); // Handler for the refresh functionality
-    private final long mConnetTimeout = 10; // Refresh timeout in milliseconds
+    private final long mConnetTimeout = 10; // Minimum refresh timeout in milliseconds; the server's CircuitBreaker may ask for longer
     private boolean mConnectRetry = true;
     private Runnable connectTask = new Runnable() { // Runnable task executed by the handler via timeout
       @Override
@@ -215,7 +247,10 @@ public class SettingsActivity extends Activity {
     private GenericCallback<FetchJSON.Result> connectListener = new GenericCallback<FetchJSON.Result>() {
       @Override
       public void onCallback(FetchJSON.Result result) {
+        // Shared with the service's ServerPoller, so both back off from a server that is down
+        CircuitBreaker breaker = CircuitBreaker.forServer(mLoginInfo.url);
         if (eweb.getConnectionStatus() == CONNECTION_STATUS.OK) {
+          breaker.onSuccess();
           mLoginInfo.active = true;
           mLoginInfo.mBasicAuthentication = eweb.getBasicAuthenticationFlag();
           mLoginInfo.setLoginInfo(App.getContext(), mLoginInfo);
@@ -231,12 +266,13 @@ public class SettingsActivity extends Activity {
           if ((result.statusCode == HttpStatus.SC_BAD_REQUEST) || (result.statusCode == HttpStatus.SC_UNAUTHORIZED)) {
             if (mConnectRetry) {
               mConnectRetry = false;
-              startReconnect(mConnetTimeout);
+              startReconnect(Math.max(mConnetTimeout, breaker.getRetryDelayMs()));
             }
           } else {
               String errorMessage = errorMessage = getString(R.string.login_activity_failed_to_login);
 
               if (result.statusCode == 418){
+                breaker.onFailure(); // No response from the server
                 errorMessage = getString(R.string.notification_network_connection_issue);
               }
             else {
@@ -273,6 +309,174 @@ public class SettingsActivity extends Activity {
     };
 
 
+    // ------------------------------------------------------------------------------
+    // Additional servers
+    // ------------------------------------------------------------------------------
+    private void updateServersButton() {
+        int count = LoginInfo.getAdditionalLogins(this).size();
+        mServersButton.setText((count == 0) ? getString(R.string.login_activity_add_server) : String.format(getString(R.string.login_activity_x_servers), count));
+    }
+
+    /**
+     * Lists the additional servers; selecting one offers to remove it, the last item adds a new server.
+     */
+    private void showServersDialog() {
+        final ArrayList<LoginInfo> servers = LoginInfo.getAdditionalLogins(this);
+        if (servers.isEmpty()) {
+            showAddServerDialog();
+            return;
+        }
+
+        String[] items = new String[servers.size() + 1];
+        for (int i = 0; i < servers.size(); i++) {
+            items[i] = String.format("%s (%s)", servers.get(i).url, servers.get(i).username);
+        }
+        items[servers.size()] = getString(R.string.login_activity_add_server);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.login_activity_additional_servers)
+                .setItems(items, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (which < servers.size()) {
+                            confirmRemoveServer(servers.get(which));
+                        }
+                        else {
+                            showAddServerDialog();
+                        }
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private void confirmRemoveServer(final LoginInfo server) {
+        new AlertDialog.Builder(this)
+                .setMessage(String.format(getString(R.string.login_activity_remove_server), server.url))
+                .setPositiveButton(R.string.login_activity_remove, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // Service drops the server (and its cached events) on its next run
+                        ArrayList<LoginInfo> servers = LoginInfo.getAdditionalLogins(SettingsActivity.this);
+                        servers.remove(server);
+                        LoginInfo.setAdditionalLogins(SettingsActivity.this, servers);
+                        updateServersButton();
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Prompts for the url and login of another server, using the same inputs as the main login.
+     */
+    private void showAddServerDialog() {
+        final View inputs = getLayoutInflater().inflate(R.layout.view_login_inputs, null);
+        inputs.findViewById(R.id.loginButton).setVisibility(View.GONE);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.login_activity_add_server)
+                .setView(inputs)
+                .setPositiveButton(R.string.save, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String url = ((TextView) inputs.findViewById(R.id.url)).getText().toString();
+                        String user = ((TextView) inputs.findViewById(R.id.user_name)).getText().toString();
+                        String pass = ((TextView) inputs.findViewById(R.id.password)).getText().toString();
+                        if (!url.contains("http")) {
+                            url = String.format("http://%s", url);
+                        }
+                        addServer(new LoginInfo(url, user, pass, true));
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Verifies the login against the server before saving it; like the main login, the url and authentication method 
+     * are negotiated first.
+     */
+    private void addServer(final LoginInfo server) {
+        if (server.equals(mLoginInfo) || LoginInfo.getAdditionalLogins(this).contains(server)) {
+            return;
+        }
+
+        final EwebConnection connection = new EwebConnection();
+        final GenericCallback<FetchJSON.Result> listener = new GenericCallback<FetchJSON.Result>() {
+            private boolean mRetry = true;
+
+            @Override
+            public void onCallback(FetchJSON.Result result) {
+                if (connection.getConnectionStatus() == CONNECTION_STATUS.OK) {
+                    server.mBasicAuthentication = connection.getBasicAuthenticationFlag();
+                    // The service uses its own connection
+                    connection.disconnect();
+
+                    ArrayList<LoginInfo> servers = LoginInfo.getAdditionalLogins(SettingsActivity.this);
+                    servers.add(server);
+                    LoginInfo.setAdditionalLogins(SettingsActivity.this, servers);
+                    updateServersButton();
+                    ShowCustomToast(SettingsActivity.this, getString(R.string.login_activity_server_added), Toast.LENGTH_LONG);
+                }
+                else if (mRetry && ((result.statusCode == HttpStatus.SC_BAD_REQUEST) || (result.statusCode == HttpStatus.SC_UNAUTHORIZED))) {
+                    mRetry = false;
+                    connection.disconnect();
+                    connection.connect(server.url, server.username, server.password, this);
+                }
+                else if (connection.getConnectionStatus() == CONNECTION_STATUS.ERROR_INVALID_APPS_LICENSE) {
+                    ShowCustomToast(SettingsActivity.this, getString(R.string.login_activity_server_invalid_apps_license), Toast.LENGTH_LONG);
+                }
+                else {
+                    ShowCustomToast(SettingsActivity.this, getString(R.string.login_activity_failed_to_login), Toast.LENGTH_LONG);
+                }
+            }
+        };
+
+        negotiateLogin(server, new GenericCallback<LoginInfo>() {
+            @Override
+            public void onCallback(LoginInfo login) {
+                connection.connect(login.url, login.username, login.password, listener, login.mBasicAuthentication);
+            }
+        });
+    }
+
+    /**
+     * Works out the url and authentication method of the login with a LoginNegotiator, and sets them in it. Then 
+     * connects with the given callback, which does the actual EwebConnection connect and reports its outcome as 
+     * before. If no candidate logged in, the login is left as entered (basic authentication), unless a candidate 
+     * got an answer from the server, in which case that one is used so the connect gives the server's error quickly.
+     */
+    private void negotiateLogin(final LoginInfo login, final GenericCallback<LoginInfo> connect) {
+        if (mNegotiator != null) {
+            mNegotiator.cancel();
+        }
+        mNegotiator = new LoginNegotiator(login.url, login.username, login.password);
+        mNegotiator.start(new GenericCallback<LoginNegotiator.Candidate>() {
+            @Override
+            public void onCallback(LoginNegotiator.Candidate candidate) {
+                mNegotiator = null;
+                if (candidate.ok || (candidate.statusCode != 0)) {
+                    login.url = candidate.url;
+                    login.mBasicAuthentication = candidate.basicAuthentication;
+                }
+                else {
+                    login.mBasicAuthentication = true;
+                }
+                connect.onCallback(login);
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mNegotiator != null) {
+            mNegotiator.cancel();
+            mNegotiator = null;
+        }
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
@@ -283,6 +487,15 @@ public class SettingsActivity extends Activity {
 
             int refreshInt = Integer.parseInt(refreshTime);
             LoginInfo login = LoginInfo.getLoginInfo(App.getContext());
+
+            // Cache size is picked up by the service on its next run; no restart required.
+            int cacheSizeInt = Integer.parseInt(mCacheSizeValues.get(mCacheSizeSpinner.getSelectedItemPosition()));
+            if (login.cacheSize != cacheSizeInt) {
+                login.cacheSize = cacheSizeInt;
+                mLoginInfo.cacheSize = cacheSizeInt;
+                LoginInfo.setLoginInfo(App.getContext(), login);
+            }
+
             if (login.refreshSeconds != refreshInt) {
                 login.refreshSeconds = refreshInt;
                 LoginInfo.setLoginInfo(App.getContext(), login);
@@ -0,0 +1,90 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.util.Arrays;
+
+/**
+ * AdaptiveTimeout sets the read timeout of one kind of request (e.g. the latest index probe) from the latency of its 
+ * recent successful responses: MULTIPLIER times the PERCENTILE-th percentile of the last WINDOW, but at least the 
+ * given minimum and at most the given maximum. Until MIN_SAMPLES responses have been seen, and after a request 
+ * timed out, the maximum is used, so a server that has become slower is not cut off again and again. Thread safe.
+ */
+public class AdaptiveTimeout {
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    public final static int MIN_SAMPLES = 5;
+    private final static int WINDOW = 50;
+    private final static int PERCENTILE = 95;
+    private final static int MULTIPLIER = 4;
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private final int mMinMs;
+    private final long[] mSamples = new long[WINDOW];   // Ring of latencies, in ms
+    private int mCount = 0;
+    private int mNext = 0;
+
+    // ------------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------------
+    public AdaptiveTimeout(int minMs) {
+        mMinMs = minMs;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Public functionality
+    // ------------------------------------------------------------------------------
+    public synchronized void record(long latencyMs) {
+        mSamples[mNext] = latencyMs;
+        mNext = (mNext + 1) % WINDOW;
+        mCount = Math.min(WINDOW, mCount + 1);
+    }
+
+    /**
+     * The request got no response; forget the samples, so the maximum is used until they are learned again.
+     */
+    public synchronized void onTimeout() {
+        mCount = 0;
+        mNext = 0;
+    }
+
+    public synchronized int getTimeoutMs(int maxMs) {
+        if (mCount < MIN_SAMPLES) {
+            return maxMs;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        long percentile = sorted[Math.min(mCount - 1, (mCount * PERCENTILE) / 100)];
+        return (int) Math.max(mMinMs, Math.min(maxMs, percentile * MULTIPLIER));
+    }
+}
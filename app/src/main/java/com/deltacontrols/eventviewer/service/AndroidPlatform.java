@@ -0,0 +1,92 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.deltacontrols.eventviewer.App;
+
+/**
+ * The Android side of Platform: logcat and the app's private files.
+ */
+public final class AndroidPlatform {
+
+    public final static Platform.Logger LOGCAT = new Platform.Logger() {
+        @Override
+        public void i(String message) {
+            Log.i(App.TAG, message);
+        }
+
+        @Override
+        public void e(String message) {
+            Log.e(App.TAG, message);
+        }
+    };
+
+    /**
+     * Files in Context.getFilesDir(), opened through the Context so they keep MODE_PRIVATE.
+     */
+    public static class ContextStorage implements Platform.Storage {
+        private final Context mCtx;
+
+        public ContextStorage(Context ctx) {
+            mCtx = ctx;
+        }
+
+        @Override
+        public InputStream openInput(String name) throws IOException {
+            return mCtx.openFileInput(name);
+        }
+
+        @Override
+        public OutputStream openOutput(String name) throws IOException {
+            return mCtx.openFileOutput(name, Context.MODE_PRIVATE);
+        }
+
+        @Override
+        public boolean delete(String name) {
+            return mCtx.deleteFile(name);
+        }
+    }
+
+    private AndroidPlatform() {
+    }
+
+    /**
+     * Called once from App.onCreate().
+     */
+    public static void install() {
+        Platform.setLogger(LOGCAT);
+    }
+}
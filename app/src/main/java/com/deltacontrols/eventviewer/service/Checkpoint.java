@@ -0,0 +1,125 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Checkpoint is the small part of a ServerPoller's state that is needed to start polling: the last index, last 
+ * success, new event count, status and where the history backfill got to. It is kept in its own file, next to the cache file, so a restarted service can 
+ * poll right away and load the cache file in the background.
+ * 
+ * The file is replaced atomically (written to a temporary file, then renamed), so a reader sees either the old or the 
+ * new checkpoint. It is written after the cache file, so it never points past the events in the cache file.
+ */
+class Checkpoint {
+    private final static String TEMP_SUFFIX = ".tmp";
+
+    String lastIndex;       // ServerPoller.UnknownIndex if nothing was received yet
+    long lastSuccess;       // ms; 0 if never
+    int newEventCount;
+    String status;          // STATUS name
+    String backfillURL;     // Older history still to be loaded; see ServerPoller.loadOlder
+    transient long sequence; // Order of the snapshots within a process; not written
+
+    /**
+     * Returns null if there is no checkpoint, or it could not be read.
+     */
+    static Checkpoint read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            Checkpoint checkpoint = new Gson().fromJson(reader, Checkpoint.class);
+            return ((checkpoint == null) || (checkpoint.lastIndex == null)) ? null : checkpoint;
+        } 
+        catch (IOException e) {
+            Platform.log().e(String.format("Checkpoint could not read %s: %s", file.getName(), e.getMessage()));
+        } 
+        catch (JsonParseException e) {
+            Platform.log().e(String.format("Checkpoint could not parse %s: %s", file.getName(), e.getMessage()));
+        } 
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } 
+                catch (IOException e) {
+                    // Nothing more to do
+                }
+            }
+        }
+        return null;
+    }
+
+    void write(File file) {
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(new Gson().toJson(this).getBytes("UTF-8"));
+            out.getFD().sync();
+            out.close();
+            out = null;
+
+            if (!temp.renameTo(file)) {
+                Platform.log().e("Checkpoint could not replace " + file.getName());
+            }
+        } 
+        catch (IOException e) {
+            Platform.log().e(String.format("Checkpoint could not write %s: %s", file.getName(), e.getMessage()));
+        } 
+        finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } 
+                catch (IOException e) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+
+    static void delete(File file) {
+        file.delete();
+        new File(file.getPath() + TEMP_SUFFIX).delete();
+    }
+}
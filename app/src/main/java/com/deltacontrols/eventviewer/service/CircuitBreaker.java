@@ -0,0 +1,184 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CircuitBreaker stops calls to an eWEB server that keeps failing, and paces the attempts to reach it again. There is 
+ * one per server url (see forServer), shared by the service's ServerPoller and the login in SettingsActivity, so both 
+ * back off together and a successful connect from either closes it for both.
+ * 
+ * - CLOSED: calls go through. The first failure may be retried straight away (e.g. with the other authentication 
+ *   method); FAILURE_THRESHOLD failures in a row open the circuit.
+ * - OPEN: calls are refused until the backoff delay has passed. The delay doubles with every further failure, from 
+ *   BASE_DELAY_MS up to MAX_DELAY_MS, with some jitter so servers (and devices) do not retry in step.
+ * - HALF_OPEN: the delay has passed; a single trial call goes through. Success closes the circuit, failure opens it 
+ *   again for longer.
+ * 
+ * Thread safe.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    public final static int FAILURE_THRESHOLD = 3;
+    public final static long BASE_DELAY_MS = 2000;
+    public final static long MAX_DELAY_MS = 15 * 60 * 1000;
+    private final static long TRIAL_TIMEOUT_MS = 3 * 60 * 1000;    // A trial that never reported back no longer blocks the next
+    private final static double JITTER = 0.2;                       // Delays vary by up to this fraction either way
+    private final static ConcurrentHashMap<String, CircuitBreaker> mBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private final int mFailureThreshold;
+    private final Random mRandom = new Random();
+    private int mFailures = 0;              // In a row
+    private long mNextAttemptAt = 0;        // Platform clock time before which calls are refused, once open
+    private long mTrialStartedAt = 0;       // 0 unless a half open trial is outstanding
+
+    // ------------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------------
+    /**
+     * A breaker of its own; use forServer to share one. A failureThreshold of Integer.MAX_VALUE never opens.
+     */
+    public CircuitBreaker(int failureThreshold) {
+        mFailureThreshold = failureThreshold;
+    }
+
+    /**
+     * The breaker shared by everything that calls the server at url.
+     */
+    public static CircuitBreaker forServer(String url) {
+        String key = (url == null) ? "" : url.trim().toLowerCase();
+        while (key.endsWith("/")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        CircuitBreaker breaker = mBreakers.get(key);
+        if (breaker == null) {
+            mBreakers.putIfAbsent(key, new CircuitBreaker(FAILURE_THRESHOLD));
+            breaker = mBreakers.get(key);
+        }
+        return breaker;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Properties
+    // ------------------------------------------------------------------------------
+    public synchronized State getState() {
+        if (mFailures < mFailureThreshold) {
+            return State.CLOSED;
+        }
+        return ((mTrialStartedAt != 0) || (now() >= mNextAttemptAt)) ? State.HALF_OPEN : State.OPEN;
+    }
+
+    public synchronized int getFailures() {
+        return mFailures;
+    }
+
+    /**
+     * How long until the next attempt should be made; 0 if it can be made now. Meaningful in any state, so a caller 
+     * that retries on its own (e.g. SettingsActivity) can wait this long.
+     */
+    public synchronized long getRetryDelayMs() {
+        return Math.max(0, mNextAttemptAt - now());
+    }
+
+    // ------------------------------------------------------------------------------
+    // Public functionality
+    // ------------------------------------------------------------------------------
+    /**
+     * True if a call may be made now. In HALF_OPEN this is the trial, and the caller must report its outcome with 
+     * onSuccess or onFailure.
+     */
+    public synchronized boolean allowRequest() {
+        if (mFailures < mFailureThreshold) {
+            return true;
+        }
+        long now = now();
+        if (now < mNextAttemptAt) {
+            return false;
+        }
+        if ((mTrialStartedAt != 0) && ((now - mTrialStartedAt) < TRIAL_TIMEOUT_MS)) {
+            return false;
+        }
+        mTrialStartedAt = now;
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (mFailures >= mFailureThreshold) {
+            Platform.log().i(String.format("CircuitBreaker: closed after %d failures", mFailures));
+        }
+        mFailures = 0;
+        mNextAttemptAt = 0;
+        mTrialStartedAt = 0;
+    }
+
+    public synchronized void onFailure() {
+        mFailures++;
+        mTrialStartedAt = 0;
+        long delay = delayMs(mFailures);
+        mNextAttemptAt = now() + delay;
+        if (mFailures >= mFailureThreshold) {
+            Metrics.counter(Metrics.CIRCUIT_OPENED).inc();
+            Platform.log().i(String.format("CircuitBreaker: open for %dms after %d failures", delay, mFailures));
+        }
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private Helper Functions
+    // ------------------------------------------------------------------------------
+    /**
+     * Backoff after the given number of failures in a row; none after the first.
+     */
+    private long delayMs(int failures) {
+        if (failures <= 1) {
+            return 0;
+        }
+        long delay = MAX_DELAY_MS;
+        if (failures - 2 < 20) {
+            delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << (failures - 2));
+        }
+        double jitter = 1 + (JITTER * ((mRandom.nextDouble() * 2) - 1));
+        return (long) (delay * jitter);
+    }
+
+    private static long now() {
+        return Platform.clock().currentTimeMillis();
+    }
+}
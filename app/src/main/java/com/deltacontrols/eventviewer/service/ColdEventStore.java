@@ -0,0 +1,362 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+import com.google.gson.Gson;
+
+/**
+ * ColdEventStore is the on-disk tier of the EventCache; it holds events that were spilled out of memory so that they 
+ * can be faulted back in on demand.
+ * 
+ * The store is a single append-only file with one record per line: "<index>\t<event json>\n". Only the location of 
+ * each record is kept in memory. Rewriting an event appends a new record; the old one becomes dead space which is 
+ * reclaimed by compact() once it outweighs the live records.
+ */
+public class ColdEventStore {
+    // ----------------------------------------------------------------------------------------------------------------
+    // Properties
+    // ----------------------------------------------------------------------------------------------------------------
+    private final static int MIN_COMPACT_BYTES = 256 * 1024; // Do not bother compacting small files
+
+    private File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private int mMaxEvents;                                  // Max number of events kept; oldest are dropped first
+    private LinkedHashMap<String, long[]> mRecordLookup;     // Event index -> {offset, length} of its record; in the order events were spilled
+    private final Set<String> mIndexes;                      // Keys of mRecordLookup; read without the lock, so contains and size do not wait for writes
+    private long mLiveBytes;                                 // Bytes in the file used by live records
+    private Gson mGson;
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Constructors
+    // ----------------------------------------------------------------------------------------------------------------
+    /**
+     * Opens (or creates) the store in the given file, and rebuilds the record lookup from its contents.
+     */
+    public ColdEventStore(File file, int maxEvents) {
+        mFile = file;
+        mMaxEvents = Math.max(1, maxEvents);
+        mRecordLookup = new LinkedHashMap<String, long[]>();
+        mIndexes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        mLiveBytes = 0;
+        mGson = new Gson();
+
+        try {
+            mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+            buildLookup();
+        } catch (IOException e) {
+            Platform.log().e(String.format("ColdEventStore could not open %s: %s", mFile.getName(), e.getMessage()));
+            mRecordLookup.clear();
+            mIndexes.clear();
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Public functionality
+    // ----------------------------------------------------------------------------------------------------------------
+    /**
+     * Writes the event to the store, replacing any previous version of it.
+     */
+    public void put(iEvent ev) {
+        putAll(Collections.singletonList(ev));
+    }
+
+    /**
+     * Writes the events to the store, replacing any previous versions of them; the records are appended with one write.
+     */
+    public synchronized void putAll(List<iEvent> events) {
+        if ((mRandomAccessFile == null) || events.isEmpty()) {
+            return;
+        }
+
+        try {
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            long[] lengths = new long[events.size()];
+            for (int i = 0; i < events.size(); i++) {
+                iEvent ev = events.get(i);
+                byte[] record = (ev.getIndex() + "\t" + mGson.toJson(ev) + "\n").getBytes("UTF-8");
+                records.write(record);
+                lengths[i] = record.length;
+            }
+
+            long offset = mRandomAccessFile.length();
+            mRandomAccessFile.seek(offset);
+            mRandomAccessFile.write(records.toByteArray());
+
+            for (int i = 0; i < events.size(); i++) {
+                long[] previous = mRecordLookup.put(events.get(i).getIndex(), new long[] { offset, lengths[i] });
+                if (previous != null) {
+                    mLiveBytes -= previous[1];
+                }
+                mIndexes.add(events.get(i).getIndex());
+                mLiveBytes += lengths[i];
+                offset += lengths[i];
+            }
+
+            // Drop the first spilled events if over the limit; their records become dead space.
+            dropOverLimit();
+
+            long deadBytes = mRandomAccessFile.length() - mLiveBytes;
+            if ((deadBytes > MIN_COMPACT_BYTES) && (deadBytes > mLiveBytes)) {
+                compact();
+            }
+        } catch (IOException e) {
+            Platform.log().e(String.format("ColdEventStore could not write %d events: %s", events.size(), e.getMessage()));
+        }
+    }
+
+    /**
+     * Faults the event with the given index in from disk.
+     * 
+     * @return A new iEvent, or null if the event is not in the store.
+     */
+    public synchronized iEvent get(String index) {
+        long[] location = mRecordLookup.get(index);
+        if ((location == null) || (mRandomAccessFile == null)) {
+            return null;
+        }
+
+        try {
+            byte[] record = new byte[(int) location[1]];
+            mRandomAccessFile.seek(location[0]);
+            mRandomAccessFile.readFully(record);
+            return parseRecord(record);
+        } catch (IOException e) {
+            Platform.log().e(String.format("ColdEventStore could not read event %s: %s", index, e.getMessage()));
+            return null;
+        }
+    }
+
+    public boolean contains(String index) {
+        return mIndexes.contains(index);
+    }
+
+    /**
+     * Returns up to maxEvents of the newest events in the store that are older than beforeIndex (or the newest events
+     * if beforeIndex is null), in ASC index order.
+     */
+    public synchronized ArrayList<iEvent> getNewest(String beforeIndex, int maxEvents) {
+        ArrayList<String> indexes = new ArrayList<String>(mRecordLookup.keySet());
+        ArrayList<iEvent> result = new ArrayList<iEvent>();
+
+        // Events are not necessarily spilled in index order
+        Collections.sort(indexes, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return compareIndex(a, b);
+            }
+        });
+
+        for (int i = indexes.size() - 1; (i >= 0) && (result.size() < maxEvents); i--) {
+            String index = indexes.get(i);
+            if ((beforeIndex != null) && (compareIndex(index, beforeIndex) >= 0)) {
+                continue;
+            }
+
+            iEvent ev = get(index);
+            if (ev != null) {
+                result.add(0, ev);
+            }
+        }
+
+        return result;
+    }
+
+    public int size() {
+        return mIndexes.size();
+    }
+
+    /**
+     * Removes all events from the store and truncates the file.
+     */
+    public synchronized void clear() {
+        mRecordLookup.clear();
+        mIndexes.clear();
+        mLiveBytes = 0;
+
+        try {
+            if (mRandomAccessFile != null) {
+                mRandomAccessFile.setLength(0);
+            }
+        } catch (IOException e) {
+            Platform.log().e("ColdEventStore could not be cleared: " + e.getMessage());
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            if (mRandomAccessFile != null) {
+                mRandomAccessFile.close();
+            }
+        } catch (IOException e) {
+            Platform.log().e("ColdEventStore could not be closed: " + e.getMessage());
+        }
+        mRandomAccessFile = null;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Private functionality
+    // ----------------------------------------------------------------------------------------------------------------
+    private iEvent parseRecord(byte[] record) throws IOException {
+        String line = new String(record, "UTF-8");
+        int tab = line.indexOf('\t');
+        return mGson.fromJson(line.substring(tab + 1).trim(), iEvent.class);
+    }
+
+    /**
+     * Scans the file to rebuild the record lookup; only the index prefix of each record is read into memory. A trailing 
+     * partial record (from a write interrupted by the process being killed) is cut off.
+     */
+    private void buildLookup() throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(mFile));
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        long offset = 0;
+        long recordStart = 0;
+        boolean readingIndex = true;
+        int b;
+
+        try {
+            while ((b = in.read()) != -1) {
+                offset++;
+                if (b == '\n') {
+                    String recordIndex = index.toString("UTF-8");
+                    long[] previous = mRecordLookup.put(recordIndex, new long[] { recordStart, offset - recordStart });
+                    if (previous != null) {
+                        mLiveBytes -= previous[1];
+                    }
+                    mIndexes.add(recordIndex);
+                    mLiveBytes += offset - recordStart;
+
+                    index.reset();
+                    recordStart = offset;
+                    readingIndex = true;
+                }
+                else if (readingIndex) {
+                    if (b == '\t') {
+                        readingIndex = false;
+                    }
+                    else {
+                        index.write(b);
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        if (recordStart < offset) {
+            mRandomAccessFile.setLength(recordStart);
+        }
+
+        dropOverLimit();
+    }
+
+    /**
+     * Drops the first spilled events while there are more than mMaxEvents; their records become dead space.
+     */
+    private void dropOverLimit() {
+        Iterator<Map.Entry<String, long[]>> iter = mRecordLookup.entrySet().iterator();
+        while ((mRecordLookup.size() > mMaxEvents) && iter.hasNext()) {
+            Map.Entry<String, long[]> entry = iter.next();
+            mLiveBytes -= entry.getValue()[1];
+            mIndexes.remove(entry.getKey());
+            iter.remove();
+        }
+    }
+
+    /**
+     * Rewrites the file with only the live records. If the compacted file cannot replace the original, the original 
+     * (and its lookup) is kept open as it was.
+     */
+    private void compact() throws IOException {
+        File compactFile = new File(mFile.getPath() + ".compact");
+        RandomAccessFile out = new RandomAccessFile(compactFile, "rw");
+        LinkedHashMap<String, long[]> compactLookup = new LinkedHashMap<String, long[]>();
+        long offset = 0;
+
+        try {
+            out.setLength(0);
+            for (Map.Entry<String, long[]> entry : mRecordLookup.entrySet()) {
+                long[] location = entry.getValue();
+                byte[] record = new byte[(int) location[1]];
+                mRandomAccessFile.seek(location[0]);
+                mRandomAccessFile.readFully(record);
+                out.write(record);
+                compactLookup.put(entry.getKey(), new long[] { offset, record.length });
+                offset += record.length;
+            }
+        } finally {
+            out.close();
+        }
+
+        mRandomAccessFile.close();
+        boolean replaced = compactFile.renameTo(mFile);
+        try {
+            mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        } catch (IOException e) {
+            mRandomAccessFile = null;
+            throw e;
+        }
+        if (!replaced) {
+            compactFile.delete();
+            throw new IOException("Could not replace " + mFile.getName());
+        }
+        mRecordLookup = compactLookup;
+        mLiveBytes = offset;
+
+        Platform.log().i(String.format("ColdEventStore compacted to %d events, %d bytes", mRecordLookup.size(), mLiveBytes));
+    }
+
+    /**
+     * Same ordering as iEvent.compareTo; indexes are numeric strings of varying length.
+     */
+    static int compareIndex(String a, String b) {
+        if (a.length() != b.length()) {
+            return (a.length() < b.length()) ? -1 : 1;
+        }
+        return a.compareTo(b);
+    }
+}
@@ -29,14 +29,14 @@ POSSIBILITY OF SUCH DAMAGE.
 package com.deltacontrols.eventviewer.service;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.ListIterator;
 import java.util.concurrent.ConcurrentHashMap;
 
-import android.util.Log;
-
-import com.deltacontrols.eventviewer.App;
 import com.deltacontrols.eweb.support.models.AlarmGroup;
 import com.deltacontrols.eweb.support.models.iEvent;
 import com.deltacontrols.eweb.support.models.iEvent.TransitionState;
@@ -44,26 +44,52 @@ import com.deltacontrols.eweb.support.models.iEvent.TransitionState;
 /**
  * EventCache stores data about enteliWEB events (iEvent)
  * Note: Events must be added in increasing Index order
+ * 
+ * The cache has two tiers; the hot tier is kept in memory, and holds active and ack-required alarms as well as recent 
+ * transitions. When the hot tier overflows, other events are spilled to the cold tier (ColdEventStore, on disk) if one 
+ * has been set, and can be faulted back in with getEvent/getOlderEvents. Spilling only queues the events; they are 
+ * written to the cold tier by flushSpills, outside the cache lock, so readers are not held up by the disk.
+ * 
+ * A summary row per EventRef (EventSummary) is kept up to date as events are added, for the collapsed view of the list.
  */
 public class EventCache implements Iterable<iEvent> {
     // ----------------------------------------------------------------------------------------------------------------
     // Properties
     // ----------------------------------------------------------------------------------------------------------------
-    public static int EVENT_CACHE_MAX = 500;                // Max number of items that can be in the cache
-    public HashMap<String, AlarmGroup> alarmGroupInfo;      // Summary of the alarm groups found in the current mEventCache, indexed on group name.
+    public final static int DEFAULT_EVENT_CACHE_MAX = 500;                  // Default max number of items that can be in the cache
+    public final static long DEFAULT_EVENT_CACHE_MAX_BYTES = 4 * 1024 * 1024; // Default estimated memory budget for the cache
+    private final static int EVENT_OVERHEAD_BYTES = 800;                    // Rough size of an empty iEvent (node attributes, alarm details etc.)
+    private final static int RECENT_FRACTION = 4;                           // Newest 1/X of the cache are recent transitions, never spilled before older events
+    private final static int MAX_PINNED_SUMMARIES_FACTOR = 2;               // Summaries that need an ack are kept up to X times the cache size
+
+    public HashMap<String, AlarmGroup> alarmGroupInfo;      // Summary of the alarm groups found in the current mEventCache, indexed on group name. Read with getAlarmGroupInfoCopy from other threads.
 
     private LinkedList<iEvent> mEventCache;                 // FIFO list; new events added to end of list; therefore ordered ASC on notification index.
     private ConcurrentHashMap<String, iEvent> mEventLookup; // Lookup event based on ID; avoids linked list traverse for lookup
+    private int mMaxEvents;                                 // Max number of items that can be in this cache
+    private long mMaxBytes;                                 // Max estimated number of bytes the events in this cache may use
+    private long mEstimatedBytes;                           // Estimated number of bytes used by the events currently in cache
+    private ColdEventStore mColdStore;                      // On-disk tier for spilled events; may be null, in which case spilled events are dropped
+    private LinkedHashMap<String, iEvent> mPendingSpills;   // Spilled, not yet written to mColdStore; see flushSpills
+    private final Object mColdStoreLock = new Object();     // Serializes writes to mColdStore; taken before the cache lock, never while holding it
+    private LinkedHashMap<String, EventSummary> mSummaries; // One summary per EventRef; ordered on last update, oldest first
+    private LinkedHashMap<String, EventSummary> mEvictableSummaries; // Those of mSummaries that do not need an ack; ordered on last update or ack, oldest first
+    private FlapDetector mFlapDetector;                     // Watches incoming events for flapping points and alarm storms
 
     // ----------------------------------------------------------------------------------------------------------------
     // Constructors
     // ----------------------------------------------------------------------------------------------------------------
     public EventCache() {
-        init();
+        this(DEFAULT_EVENT_CACHE_MAX, DEFAULT_EVENT_CACHE_MAX_BYTES);
     }
 
     public EventCache(int limit) {
-        EVENT_CACHE_MAX = limit;
+        this(limit, DEFAULT_EVENT_CACHE_MAX_BYTES);
+    }
+
+    public EventCache(int limit, long maxBytes) {
+        mMaxEvents = Math.max(1, limit);
+        mMaxBytes = Math.max(1, maxBytes);
         init();
     }
 
@@ -71,6 +97,11 @@ public class EventCache implements Iterable<iEvent> {
         mEventCache = new LinkedList<iEvent>();
         mEventLookup = new ConcurrentHashMap<String, iEvent>();
         alarmGroupInfo = new HashMap<String, AlarmGroup>();
+        mSummaries = new LinkedHashMap<String, EventSummary>();
+        mEvictableSummaries = new LinkedHashMap<String, EventSummary>();
+        mPendingSpills = new LinkedHashMap<String, iEvent>();
+        mFlapDetector = new FlapDetector();
+        mEstimatedBytes = 0;
     }
 
     // ----------------------------------------------------------------------------------------------------------------
@@ -82,7 +113,114 @@ public class EventCache implements Iterable<iEvent> {
      * of this is to correctly indicate when a notification can be acknowledged or not, since we do not get that information
      * from enteliWEB
      */
-    public void add(iEvent ev) {
+    public synchronized void add(iEvent ev) {
+        prepareForAdd(ev);
+        boolean flapping = mFlapDetector.record(ev);
+
+        // Compare against old entries to set stale and reset ack flags; before spilling, so the event that is spilled 
+        // has its final flags (cold events are not compared against newer ones).
+        compareAgainstOlderEntries(ev, mEventCache.descendingIterator());
+
+        // Limit the list size; both on number of events and on estimated memory use
+        long evBytes = estimateSizeInBytes(ev);
+        while ((mEventCache.size() > 0)
+                && ((mEventCache.size() >= mMaxEvents) || (mEstimatedBytes + evBytes > mMaxBytes))) {
+            // Overflow, need to move an event out of memory
+            spillOne();
+        }
+
+        // Finally, add new event to list(s)
+        mEventCache.add(ev);
+        mEventLookup.put(ev.getIndex(), ev);
+        mEstimatedBytes += evBytes;
+
+        updateSummary(ev, flapping);
+    }
+
+    /**
+     * Adds a list of events to the cache.
+     */
+    public synchronized void addAll(ArrayList<iEvent> list) {
+        for (iEvent ev : list) {
+            this.add(ev);
+        }
+    }
+
+    /**
+     * Adds a page of events that is older than the newest events in the cache; used when catching up page by page, since
+     * eWEB returns the newest page first. The page must be in ASC order, and is inserted in front of the cached events
+     * that are newer than it. Those newer events are then applied to the page the same way add() applies a new event to
+     * the older ones. If the cache is then over capacity, the oldest events (normally the page) are spilled.
+     */
+    public synchronized void addOlderPage(ArrayList<iEvent> page) {
+        insertOlderPage(page, false);
+    }
+
+    /**
+     * Same as addOlderPage, for history: events from before the first fetch (see ServerPoller.loadOlder), or loaded 
+     * from the cache file after a restart. History counts towards flapping, but not towards the alarm storm rate.
+     */
+    public synchronized void addHistoryPage(ArrayList<iEvent> page) {
+        insertOlderPage(page, true);
+    }
+
+    private void insertOlderPage(ArrayList<iEvent> page, boolean history) {
+        if (page.isEmpty()) {
+            return;
+        }
+
+        // The flap detector expects time to move one way; pages arrive newest first, so give it the page newest first too.
+        for (int i = page.size() - 1; i >= 0; i--) {
+            prepareForAdd(page.get(i));
+            if (history) {
+                mFlapDetector.recordHistory(page.get(i));
+            }
+            else {
+                mFlapDetector.record(page.get(i));
+            }
+        }
+        boolean[] flapping = new boolean[page.size()];
+        for (int i = 0; i < page.size(); i++) {
+            flapping[i] = mFlapDetector.isFlapping(page.get(i).getEventRef());
+        }
+
+        // Find the insertion point; the newer events are near the end of the list, so walk backwards.
+        ArrayList<iEvent> newer = new ArrayList<iEvent>();
+        int insertAt = mEventCache.size();
+        Iterator<iEvent> iReverse = mEventCache.descendingIterator();
+        while (iReverse.hasNext()) {
+            iEvent cached = iReverse.next();
+            if (cached.compareTo(page.get(0)) < 0) {
+                break;
+            }
+            newer.add(cached);
+            insertAt--;
+        }
+        Collections.reverse(newer);
+
+        for (int i = 0; i < page.size(); i++) {
+            iEvent ev = page.get(i);
+            compareAgainstOlderEntries(ev, new DescendingIterator(mEventCache.listIterator(insertAt)));
+            mEventCache.add(insertAt++, ev);
+            mEventLookup.put(ev.getIndex(), ev);
+            mEstimatedBytes += estimateSizeInBytes(ev);
+            updateSummary(ev, flapping[i]);
+        }
+
+        // The events already in cache are newer than the page; bring the page up to date with them.
+        for (iEvent newerEvent : newer) {
+            compareAgainstOlderEntries(newerEvent, new DescendingIterator(page.listIterator(page.size())));
+        }
+
+        // Only now trim back to capacity, once the page has its final flags; spilling while inserting would move the 
+        // insertion point, and spilling up front would push out newer events to make room for older ones.
+        trimTo(mMaxEvents);
+    }
+
+    /**
+     * Sets up derived state on an event before it enters the cache.
+     */
+    private void prepareForAdd(iEvent ev) {
         // Massage alarm text (take out newlines etc)
         ev.setMessage(ev.getMessage().replace("\n", " ").replace("\r", " "));
 
@@ -111,35 +249,8 @@ public class EventCache implements Iterable<iEvent> {
 
         alarmGroupInfo.put(ev.getAlarmGroupName(), group);
 
-        // Limit the list size
-        if (mEventCache.size() >= EVENT_CACHE_MAX) {
-            // Overflow, need to remove
-            iEvent removed = mEventCache.remove();      // Remove from list
-            mEventLookup.remove(removed.getIndex());    // Remove from lookup
-
-            // Remove from alarm group summary?
-            group = alarmGroupInfo.get(removed.getAlarmGroupName());
-            group.count = Math.max(0, group.count - 1);
-        }
-
         // Update based on action
         massageBasedOnAction(ev);
-
-        // Compare against old entries to set stale and reset ack flags.
-        compareAgainstOlderEntries(ev);
-
-        // Finally, add new event to list(s)
-        mEventCache.add(ev);
-        mEventLookup.put(ev.getIndex(), ev);
-    }
-
-    /**
-     * Adds a list of events to the cache.
-     */
-    public void addAll(ArrayList<iEvent> list) {
-        for (iEvent ev : list) {
-            this.add(ev);
-        }
     }
 
     /**
@@ -159,7 +270,7 @@ public class EventCache implements Iterable<iEvent> {
      * Return a deep copy of the cached array This means that any clients that update the events must call back 
      * into the service to update the event.
      */
-    public ArrayList<iEvent> getCopy() {
+    public synchronized ArrayList<iEvent> getCopy() {
         ArrayList<iEvent> deepCopy = new ArrayList<iEvent>();
         for (iEvent ev : this.mEventCache) {
             deepCopy.add(new iEvent(ev));
@@ -168,21 +279,297 @@ public class EventCache implements Iterable<iEvent> {
     }
 
     /**
-     * Clears the cache and lookup objects
+     * Clears the cache and lookup objects, and the cold tier
      */
     public void clear() {
-        mEventCache.clear();
-        mEventLookup.clear();
-        alarmGroupInfo.clear();
+        synchronized (mColdStoreLock) {
+            ColdEventStore coldStore;
+            synchronized (this) {
+                mEventCache.clear();
+                mEventLookup.clear();
+                alarmGroupInfo.clear();
+                mSummaries.clear();
+                mEvictableSummaries.clear();
+                mFlapDetector.clear();
+                mEstimatedBytes = 0;
+                mPendingSpills.clear();
+                coldStore = mColdStore;
+            }
+
+            if (coldStore != null) {
+                coldStore.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of alarmGroupInfo; the groups are copied as well.
+     */
+    public synchronized HashMap<String, AlarmGroup> getAlarmGroupInfoCopy() {
+        HashMap<String, AlarmGroup> copy = new HashMap<String, AlarmGroup>();
+        for (AlarmGroup group : alarmGroupInfo.values()) {
+            AlarmGroup groupCopy = new AlarmGroup(group.name, group.color, group.sound);
+            groupCopy.count = group.count;
+            copy.put(group.name, groupCopy);
+        }
+        return copy;
+    }
+
+    /**
+     * Sets the viewed flag of every event in memory.
+     */
+    public synchronized void setAllViewed(boolean viewed) {
+        for (iEvent ev : mEventCache) {
+            ev.hasBeenViewed = viewed;
+        }
+    }
+
+    /**
+     * Returns a deep copy of the summary rows, one per EventRef, ordered on their latest transition (ASC, like getCopy).
+     */
+    public synchronized ArrayList<EventSummary> getSummaryCopy() {
+        ArrayList<EventSummary> deepCopy = new ArrayList<EventSummary>();
+        for (EventSummary summary : mSummaries.values()) {
+            deepCopy.add(new EventSummary(summary));
+        }
+        return deepCopy;
+    }
+
+    /**
+     * Returns a copy of all transitions of the given event that are still in memory, in ASC order; used to expand a 
+     * summary row.
+     */
+    public synchronized ArrayList<iEvent> getHistory(String eventRef) {
+        ArrayList<iEvent> history = new ArrayList<iEvent>();
+        for (iEvent ev : mEventCache) {
+            if (eventRef.equals(ev.getEventRef())) {
+                history.add(new iEvent(ev));
+            }
+        }
+        return history;
+    }
+
+    /**
+     * True if the events added recently arrived at alarm storm rates; see FlapDetector.
+     */
+    public synchronized boolean isStorm() {
+        return mFlapDetector.isStorm();
+    }
+
+    /**
+     * Most events added within FlapDetector.STORM_WINDOW_SECONDS (of event time) during the current storm.
+     */
+    public synchronized int getStormWindowCount() {
+        return mFlapDetector.getStormCount();
+    }
+
+    public synchronized ArrayList<String> getFlappingRefs() {
+        return mFlapDetector.getFlappingRefs();
+    }
+
+    /**
+     * Average time spent detecting flapping/storms per added event, in nanoseconds.
+     */
+    public synchronized long getFlapDetectorNanos() {
+        return mFlapDetector.getAverageRecordNanos();
+    }
+
+    /**
+     * Sets the cold tier; spilled events that were not yet written to the previous one are dropped, so flush first.
+     */
+    public synchronized void setColdStore(ColdEventStore coldStore) {
+        mColdStore = coldStore;
+        mPendingSpills.clear();
     }
 
     /**
-     * Returns the number of notifications in cache; should never be greater than EVENT_CACHE_MAX.
+     * Writes the events spilled since the last flush to the cold tier, in one append. Call after changing the cache, 
+     * off the main thread; until then the spilled events are still found by getEvent, contains and getOlderEvents.
+     */
+    public void flushSpills() {
+        synchronized (mColdStoreLock) {
+            ColdEventStore coldStore;
+            ArrayList<iEvent> batch;
+            synchronized (this) {
+                if ((mColdStore == null) || mPendingSpills.isEmpty()) {
+                    return;
+                }
+                coldStore = mColdStore;
+                batch = new ArrayList<iEvent>(mPendingSpills.values());
+            }
+
+            coldStore.putAll(batch);
+
+            synchronized (this) {
+                for (iEvent ev : batch) {
+                    // An update while writing replaced the pending event (see updateEvent); it goes out with the next flush
+                    if (mPendingSpills.get(ev.getIndex()) == ev) {
+                        mPendingSpills.remove(ev.getIndex());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the event with the given index, faulting it in from the cold tier if it is no longer in memory.
+     * 
+     * @return null if the event is in neither tier.
+     */
+    public iEvent getEvent(String index) {
+        ColdEventStore coldStore;
+        synchronized (this) {
+            iEvent ev = mEventLookup.get(index);
+            if (ev == null) {
+                ev = mPendingSpills.get(index);
+            }
+            if (ev != null) {
+                return new iEvent(ev);
+            }
+            coldStore = mColdStore;
+        }
+
+        // Outside the cache lock; a flush removes events from mPendingSpills only once they are written
+        return (coldStore == null) ? null : coldStore.get(index);
+    }
+
+    /**
+     * True if the event with the given index is in either tier; unlike getEvent, nothing is copied or read.
+     */
+    public boolean contains(String index) {
+        ColdEventStore coldStore;
+        synchronized (this) {
+            if (mEventLookup.containsKey(index) || mPendingSpills.containsKey(index)) {
+                return true;
+            }
+            coldStore = mColdStore;
+        }
+        return (coldStore != null) && coldStore.contains(index);
+    }
+
+    /**
+     * Returns up to maxEvents events from the cold tier that are older than beforeIndex (or the newest cold events if 
+     * beforeIndex is null), in ASC index order.
+     */
+    public ArrayList<iEvent> getOlderEvents(String beforeIndex, int maxEvents) {
+        ColdEventStore coldStore;
+        ArrayList<iEvent> events = new ArrayList<iEvent>();
+        synchronized (this) {
+            coldStore = mColdStore;
+            for (iEvent ev : mPendingSpills.values()) {
+                if ((beforeIndex == null) || (ColdEventStore.compareIndex(ev.getIndex(), beforeIndex) < 0)) {
+                    events.add(new iEvent(ev));
+                }
+            }
+        }
+
+        if (coldStore == null) {
+            return events;
+        }
+        if (events.isEmpty()) {
+            return coldStore.getNewest(beforeIndex, maxEvents);
+        }
+
+        // Merge in the events still waiting to be written; a flush may have written some of them meanwhile, and the 
+        // pending version is the newer one. The sort is stable, so it comes first.
+        events.addAll(coldStore.getNewest(beforeIndex, maxEvents));
+        Collections.sort(events);
+        ArrayList<iEvent> merged = new ArrayList<iEvent>(events.size());
+        for (iEvent ev : events) {
+            if (merged.isEmpty() || (merged.get(merged.size() - 1).compareTo(ev) != 0)) {
+                merged.add(ev);
+            }
+        }
+        return new ArrayList<iEvent>(merged.subList(Math.max(0, merged.size() - maxEvents), merged.size()));
+    }
+
+    /**
+     * Returns the number of events in the cold tier, written or not; 0 if there is none.
+     */
+    public int getSpilledCount() {
+        ColdEventStore coldStore;
+        int pending;
+        synchronized (this) {
+            coldStore = mColdStore;
+            pending = mPendingSpills.size();
+        }
+        return (coldStore == null) ? 0 : coldStore.size() + pending;
+    }
+
+    /**
+     * Returns the number of notifications in cache; should never be greater than getMaxEvents().
      */
     public int size() {
         return mEventCache.size();
     }
 
+    public int getMaxEvents() {
+        return mMaxEvents;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public long getEstimatedBytes() {
+        return mEstimatedBytes;
+    }
+
+    /**
+     * Changes the capacity of the cache; if the cache currently holds more than the new capacity allows, the oldest
+     * events are removed.
+     */
+    public synchronized void setCapacity(int maxEvents, long maxBytes) {
+        mMaxEvents = Math.max(1, maxEvents);
+        mMaxBytes = Math.max(1, maxBytes);
+        trimTo(mMaxEvents);
+    }
+
+    /**
+     * Spills events out of memory until at most maxEvents remain (and the cache is within its byte budget); the capacity 
+     * of the cache is not changed, so it may grow again as new events are added.
+     * 
+     * @return The spilled events. Empty if nothing was removed.
+     */
+    public synchronized ArrayList<iEvent> trimTo(int maxEvents) {
+        ArrayList<iEvent> removed = new ArrayList<iEvent>();
+        while ((mEventCache.size() > 0) && ((mEventCache.size() > maxEvents) || (mEstimatedBytes > mMaxBytes))) {
+            removed.add(spillOne());
+        }
+        return removed;
+    }
+
+    /**
+     * Rough estimate of the memory used by an event; based on the length of its strings rather than exact object sizes.
+     */
+    public static long estimateSizeInBytes(iEvent ev) {
+        long chars = length(ev.getIndex())
+                + length(ev.getEnteliwebTimestamp())
+                + length(ev.getEventTimestamp())
+                + length(ev.getRawTimestamp())
+                + length(ev.getAcknowledged())
+                + length(ev.getInputRef())
+                + length(ev.getInputName())
+                + length(ev.getInputLink())
+                + length(ev.getEventRef())
+                + length(ev.getEventName())
+                + length(ev.getEventLink())
+                + length(ev.getEventClassName())
+                + length(ev.getAlarmGroupName())
+                + length(ev.getAlarmGroupColor())
+                + length(ev.getFromState())
+                + length(ev.getToState())
+                + length(ev.getMessage())
+                + length(ev.getPriority())
+                + length(ev.getAction());
+
+        if (ev.AlarmDetails != null) {
+            chars += length(ev.AlarmDetails.getAssignee()) + length(ev.AlarmDetails.getText());
+        }
+
+        return EVENT_OVERHEAD_BYTES + (2 * chars); // Java strings are UTF-16
+    }
+
     /**
      * Given an event, attempt to find it in cache and update it with the new values. Note, if the event no longer 
      * exists in cache, a log entry is made, but no exception is thrown.
@@ -191,26 +578,55 @@ public class EventCache implements Iterable<iEvent> {
      */
     public void updateEvent(iEvent ev) {
         String index = ev.getIndex();
-        if (mEventLookup.containsKey(index)) {
-            mEventLookup.get(index).updateWith(ev); // Do not create new, will cause mEventLookup to no longer point to correct address space.
-            Log.i(App.TAG, "updateEvent Ack'd: " + mEventLookup.get(index).getAcknowledged());
+        ColdEventStore coldStore;
+        synchronized (this) {
+            if (mEventLookup.containsKey(index)) {
+                iEvent cached = mEventLookup.get(index);
+                boolean wasAckRequired = cached.ackRequired();
+                long oldBytes = estimateSizeInBytes(cached);
+                cached.updateWith(ev); // Do not create new, will cause mEventLookup to no longer point to correct address space.
+                mEstimatedBytes += estimateSizeInBytes(cached) - oldBytes;
+                summaryAckChanged(cached, wasAckRequired);
+                Platform.log().i("updateEvent Ack'd: " + mEventLookup.get(index).getAcknowledged());
+                return;
+            }
+
+            iEvent pending = mPendingSpills.get(index);
+            if (pending != null) {
+                // Replaced rather than changed, as flushSpills may be writing the old one
+                iEvent updated = new iEvent(pending);
+                updated.updateWith(ev);
+                mPendingSpills.put(index, updated);
+                return;
+            }
+            coldStore = mColdStore;
         }
-        else {
-            Log.i(App.TAG, String.format("Event %s : %s no longer exists in service cache", index, ev.getEventRef()));
+
+        // Cold events are read and rewritten outside the cache lock. Not counted by their summary any more; see spillOne
+        synchronized (mColdStoreLock) {
+            iEvent coldEvent = (coldStore == null) ? null : coldStore.get(index);
+            if (coldEvent != null) {
+                coldEvent.updateWith(ev);
+                coldStore.put(coldEvent);
+            }
+            else {
+                Platform.log().i(String.format("Event %s : %s no longer exists in service cache", index, ev.getEventRef()));
+            }
         }
     }
 
     /**
-     * Iterates over the linked mEventCache list.
+     * Iterates over a copy of the mEventCache list taken under the cache lock, so the cache can change while iterating. 
+     * The events themselves are the live cached ones; use updateEvent to change them.
      */
     @Override
-    public Iterator<iEvent> iterator() {
-        Iterator<iEvent> iEv = mEventCache.iterator();
+    public synchronized Iterator<iEvent> iterator() {
+        Iterator<iEvent> iEv = Collections.unmodifiableList(new ArrayList<iEvent>(mEventCache)).iterator();
         return iEv;
     }
 
     /**
-     * Iterates over the linked mEventCache list.
+     * Iterates over the linked mEventCache list, newest first; the caller must hold the cache lock while iterating.
      */
     public Iterator<iEvent> descendingIterator() {
         Iterator<iEvent> iEv = mEventCache.descendingIterator();
@@ -220,6 +636,151 @@ public class EventCache implements Iterable<iEvent> {
     // ----------------------------------------------------------------------------------------------------------------
     // Private functionality
     // ----------------------------------------------------------------------------------------------------------------
+    /**
+     * True if the event must stay in memory for as long as possible; active alarms and alarms that still need to be 
+     * acknowledged.
+     */
+    private static boolean mustStayHot(iEvent ev) {
+        return ev.ackRequired() || (!ev.staleTransition && (ev.currentState != TransitionState.NORMAL));
+    }
+
+    /**
+     * Moves one event out of memory; the oldest event that is neither an active/ack-required alarm nor a recent 
+     * transition is chosen. If every event must stay hot, the oldest one is spilled anyway to keep memory bounded.
+     * The event is removed from the list, lookup, alarm group summary and the ack count of its EventSummary (which 
+     * counts the transitions in memory only) and queued for the cold tier; see flushSpills.
+     */
+    private iEvent spillOne() {
+        int recent = Math.max(1, mMaxEvents / RECENT_FRACTION);
+        int searchable = mEventCache.size() - recent;
+        Iterator<iEvent> iter = mEventCache.iterator();
+        iEvent removed = null;
+
+        for (int i = 0; (i < searchable) && iter.hasNext(); i++) {
+            iEvent candidate = iter.next();
+            if (!mustStayHot(candidate)) {
+                removed = candidate;
+                iter.remove();                      // Remove from list; O(1) for the linked list iterator
+                break;
+            }
+        }
+
+        if (removed == null) {
+            removed = mEventCache.remove();         // Remove oldest from list
+        }
+
+        mEventLookup.remove(removed.getIndex());    // Remove from lookup
+        mEstimatedBytes = Math.max(0, mEstimatedBytes - estimateSizeInBytes(removed));
+
+        // Remove from alarm group summary
+        AlarmGroup group = alarmGroupInfo.get(removed.getAlarmGroupName());
+        if (group != null) {
+            group.count = Math.max(0, group.count - 1);
+        }
+
+        // Remove from the ack count of its summary; a cold event is no longer compared against newer transitions, so it 
+        // would never be cleared. Also right when there is no cold tier, or the cold tier later drops it.
+        summaryAckChanged(removed, removed.ackRequired(), false);
+
+        if (mColdStore != null) {
+            mPendingSpills.put(removed.getIndex(), removed);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Records the event in the summary of its EventRef. The summary is moved to the end so the map stays ordered on last 
+     * update, and the least recently updated (or acknowledged) summary that does not need an ack is dropped once there 
+     * are more summaries than the cache holds events; mEvictableSummaries keeps those in order so this is O(1). 
+     * Summaries that need an ack are only dropped (oldest first) past MAX_PINNED_SUMMARIES_FACTOR times that.
+     */
+    private void updateSummary(iEvent ev, boolean flapping) {
+        String ref = ev.getEventRef();
+        EventSummary summary = mSummaries.get(ref);
+        if ((summary != null) && (ev.compareTo(summary.getLatest()) < 0)) {
+            // Older transition from a caught up page; does not change the summary's place in the update order
+            summary.record(ev, flapping);
+            trackEvictable(summary);
+            return;
+        }
+        mSummaries.remove(ref);
+        mEvictableSummaries.remove(ref);
+        if (summary == null) {
+            summary = new EventSummary(ref);
+        }
+        summary.record(ev, flapping);
+        mSummaries.put(ref, summary);
+        trackEvictable(summary);
+
+        if (mSummaries.size() > mMaxEvents) {
+            // Drop the least recently updated summary that does not need an ack
+            boolean evicted = false;
+            if (!mEvictableSummaries.isEmpty()) {
+                Iterator<EventSummary> iter = mEvictableSummaries.values().iterator();
+                EventSummary candidate = iter.next();
+                if (candidate != summary) { // Just updated; keep it
+                    iter.remove();
+                    mSummaries.remove(candidate.getEventRef());
+                    evicted = true;
+                }
+            }
+
+            // Everything older needs an ack; still keep memory bounded
+            if (!evicted && (mSummaries.size() > mMaxEvents * MAX_PINNED_SUMMARIES_FACTOR)) {
+                Iterator<EventSummary> iter = mSummaries.values().iterator();
+                EventSummary oldest = iter.next();
+                iter.remove();
+                mEvictableSummaries.remove(oldest.getEventRef());
+            }
+        }
+    }
+
+    /**
+     * Adds the summary to the end of mEvictableSummaries once it no longer needs an ack, or removes it when it does.
+     */
+    private void trackEvictable(EventSummary summary) {
+        String ref = summary.getEventRef();
+        if (summary.getAckRequired()) {
+            mEvictableSummaries.remove(ref);
+        }
+        else if (!mEvictableSummaries.containsKey(ref)) {
+            mEvictableSummaries.put(ref, summary);
+        }
+    }
+
+    /**
+     * Marks a cached event as acknowledged, keeping its summary and the estimated size of the cache up to date.
+     */
+    private void setAcknowledged(iEvent cached) {
+        boolean wasAckRequired = cached.ackRequired();
+        long oldBytes = estimateSizeInBytes(cached);
+        cached.setAsAcknowledged();
+        mEstimatedBytes += estimateSizeInBytes(cached) - oldBytes;
+        summaryAckChanged(cached, wasAckRequired);
+    }
+
+    /**
+     * Keeps the ack-required flag of the summary in sync when the ack state of a cached event changes.
+     */
+    private void summaryAckChanged(iEvent ev, boolean wasAckRequired) {
+        summaryAckChanged(ev, wasAckRequired, ev.ackRequired());
+    }
+
+    private void summaryAckChanged(iEvent ev, boolean wasAckRequired, boolean ackRequired) {
+        if (ackRequired != wasAckRequired) {
+            EventSummary summary = mSummaries.get(ev.getEventRef());
+            if (summary != null) {
+                summary.ackChanged(ackRequired);
+                trackEvictable(summary);
+            }
+        }
+    }
+
+    private static int length(String str) {
+        return (str == null) ? 0 : str.length();
+    }
+
     /**
      * Updates the ack flag and message properties based on the notification action type
      */
@@ -274,11 +835,10 @@ public class EventCache implements Iterable<iEvent> {
      * acknowledge state. Note that the cache is implemented as a FIFO linked list; this means the "oldest" transition is 
      * at the beginning of the list.
      */
-    private void compareAgainstOlderEntries(iEvent ev) {
-        // LinkedList backed by double linked list; use descending iterator to start at the end
-        // (the newest) and work backwards (to the older) to determine if the new item now makes an older
+    private void compareAgainstOlderEntries(iEvent ev, Iterator<iEvent> iReverse) {
+        // LinkedList backed by double linked list; iReverse starts at the end
+        // (the newest) and works backwards (to the older) to determine if the new item now makes an older
         // transition 'stale'.
-        Iterator<iEvent> iReverse = mEventCache.descendingIterator();
         iEvent olderEvent;
 
         boolean isAlarmAck = ev.getAction().equals(iEvent.TransitionAction.ALARMACK.toString());
@@ -303,7 +863,7 @@ public class EventCache implements Iterable<iEvent> {
                 // Check to see if toStates are the same, if yes, then remove any ack that may be on the olderEvent as it is no longer relevant
                 // Note, use determined currentState, not toState (high-alarm and low-alarm are both "off-normal"
                 if (isSameTransition) {
-                    olderEvent.setAsAcknowledged();
+                    setAcknowledged(olderEvent);
                 }
             }
 
@@ -311,9 +871,35 @@ public class EventCache implements Iterable<iEvent> {
             // Note, do not want to set as stale since event MAY still be active.
             if (isAlarmAck && isSameEvent) { // (1) & (2)
                 if (isSameTransition) {
-                    olderEvent.setAsAcknowledged();
+                    setAcknowledged(olderEvent);
                 }
             }
         }
     }
+
+    /**
+     * Walks a ListIterator backwards, from its current position towards the start of the list.
+     */
+    private static class DescendingIterator implements Iterator<iEvent> {
+        private final ListIterator<iEvent> mIterator;
+
+        DescendingIterator(ListIterator<iEvent> iterator) {
+            mIterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mIterator.hasPrevious();
+        }
+
+        @Override
+        public iEvent next() {
+            return mIterator.previous();
+        }
+
+        @Override
+        public void remove() {
+            mIterator.remove();
+        }
+    }
 }
@@ -0,0 +1,120 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * EventListFile reads and writes a list of events as one JSON array; this is the format of the persisted cache 
+ * (see ServerPoller.writeToCacheFile).
+ */
+public class EventListFile {
+
+    private EventListFile() {
+    }
+
+    public static void write(Platform.Storage storage, String name, ArrayList<iEvent> list) {
+        Gson gson = new Gson();
+        String listJSON = gson.toJson(list);
+        OutputStream outputStream = null;
+
+        try {
+            outputStream = storage.openOutput(name);
+            outputStream.write(listJSON.getBytes());
+        } 
+        catch (IOException e) {
+            Platform.log().e(String.format("Could not write %s: %s", name, e.getMessage()));
+        } 
+        finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } 
+                catch (IOException e) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a list of events from the given file; returns an empty list if the file does not exist or could not be read.
+     */
+    public static ArrayList<iEvent> read(Platform.Storage storage, String name) {
+        Gson gson = new Gson();
+        ArrayList<iEvent> list = null;
+        BufferedReader bufferedReader = null;
+
+        try {
+            bufferedReader = new BufferedReader(new InputStreamReader(storage.openInput(name)));
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                sb.append(line);
+            }
+
+            Type listType = new TypeToken<List<iEvent>>() {
+            }.getType(); // Wowza! Ugly but that's Java for you.
+            list = gson.fromJson(sb.toString(), listType);
+        } 
+        catch (FileNotFoundException e) {
+            // Nothing persisted yet
+        } 
+        catch (IOException e) {
+            Platform.log().e(String.format("Could not read %s: %s", name, e.getMessage()));
+        } 
+        catch (JsonParseException e) {
+            Platform.log().e(String.format("Could not parse %s: %s", name, e.getMessage()));
+        } 
+        finally {
+            if (bufferedReader != null) {
+                try {
+                    bufferedReader.close();
+                } 
+                catch (IOException e) {
+                    // Nothing more to do
+                }
+            }
+        }
+
+        return (list == null) ? new ArrayList<iEvent>() : list;
+    }
+}
@@ -28,53 +28,57 @@ POSSIBILITY OF SUCH DAMAGE.
 */
 package com.deltacontrols.eventviewer.service;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.lang.reflect.Type;
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
-import org.json.JSONObject;
 
+import android.app.ActivityManager;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.deltacontrols.eventviewer.App;
 import com.deltacontrols.eventviewer.LoginInfo;
+import com.deltacontrols.eventviewer.LoginStore;
 import com.deltacontrols.eventviewer.MainActivity;
 import com.deltacontrols.eventviewer.R;
 import com.deltacontrols.eweb.support.api.EwebConnection;
-import com.deltacontrols.eweb.support.api.FetchJSON;
-import com.deltacontrols.eweb.support.interfaces.GenericCallback;
 import com.deltacontrols.eweb.support.models.AlarmGroup;
 import com.deltacontrols.eweb.support.models.iEvent;
-import com.deltacontrols.eweb.support.models.iEventList;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
 
 /**
- * Provides main communication with eWEB to get event notifications. Currently using basic HTTP auth to make requests, sessions are not kept.
+ * Provides main communication with eWEB to get event notifications. Requests log in once per server and reuse the session 
+ * (see EwebHttpClient), with basic HTTP auth as the fallback.
+ * Each server (the main login plus any additional servers) is polled by its own ServerPoller; clients see a single 
+ * merged view of all servers.
  */
-public class EventNotificationsService extends Service {
+public class EventNotificationsService extends Service implements ServerPoller.Host {
 
     // ------------------------------------------------------------------------------
     // Private classes
@@ -109,14 +113,16 @@ public class EventNotificationsService extends Service {
     };
 
     private CustomBroadcastReciever mScreenReceiver; // Setup notification receiver from device
+    private boolean mStormNotified = false;          // If the user has been alerted (with sound) to the current alarm storm
 
     // ------------------------------------------------------------------------------
     // Static properties
     // ------------------------------------------------------------------------------
-    private final static String CACHED_FILENAME = "cachedList.json";
+    private final static String NOISY_POINTS_FILENAME = "noisyPoints.json";
+    private final static int NOISY_POINTS_SAVE_DELAY = 10; // Seconds; pages received in this time are saved together
+    private final static int CACHE_HEAP_FRACTION = 16; // Event caches (of all servers) may use up to 1/X of the memory class of the device
     public final int NOTIFICATION_ICON_ID = 0;
     public final int NOTIFICATION_MESSAGE_ID = 0;
-    public final static String NOTIFICATION_INTENT_ACTION = "NewEvents";
 
     public static enum STATUS {
         UNKNOWN, OK,
@@ -132,102 +138,387 @@ public class EventNotificationsService extends Service {
         LOW
     };
 
+    public final int NOTIFICATION_HIGH_PRIORITY_ID = 1;
+    public final static int HIGH_PRIORITY_MAX = 63;     // BACnet priority 0-63 (life safety/critical) is AlertLevel.HIGH
+    public final static int MEDIUM_PRIORITY_MAX = 127;  // 64-127 (urgent) is MEDIUM; anything else is LOW
+
+    /**
+     * Alert level of an event based on its BACnet priority; only transitions into an alarm or fault state are HIGH or 
+     * MEDIUM, acks, comments and return to normal are always LOW.
+     */
+    public static AlertLevel getAlertLevel(iEvent ev) {
+        boolean toAlarm = iEvent.TransitionAction.STATUSCHANGE.toString().equals(ev.getAction())
+                && !"Normal".equals(ev.getToState());
+        if (!toAlarm) {
+            return AlertLevel.LOW;
+        }
+
+        int priority;
+        try {
+            priority = Integer.parseInt(ev.getPriority());
+        } 
+        catch (Exception e) {
+            return AlertLevel.LOW;
+        }
+
+        if (priority <= HIGH_PRIORITY_MAX) {
+            return AlertLevel.HIGH;
+        }
+        else if (priority <= MEDIUM_PRIORITY_MAX) {
+            return AlertLevel.MEDIUM;
+        }
+        return AlertLevel.LOW;
+    }
+
     public static int LongerReadTimeout = 9000 * 10; 
+    public static int ProbeReadTimeout = 1000 * 20;     // The latest index probe asks for a single event
     
     // ------------------------------------------------------------------------------
     // Private properties
     // ------------------------------------------------------------------------------
-    private static String UnknownIndex = "0";
     private final IBinder mBinder = new MyBinder();
-    private Intent mNotificationIntent = new Intent();
+    private final EventStream mEventStream = new EventStream();
+    private STATUS mPublishedStatus = STATUS.UNKNOWN;  // Status in the last STATUS_CHANGED message
+    private long mLastWorkAt = 0;                       // SystemClock.elapsedRealtime of the last doWork; see Metrics
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Picks up added or removed servers straight away, rather than on the next doWork.
+     */
+    private final LoginStore.Listener mLoginListener = new LoginStore.Listener() {
+        @Override
+        public void onLoginsChanged(final LoginStore store) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    syncPollers(store.getPrimary());
+                }
+            });
+        }
+    };
 
     // ------------------------------------------------------------------------------
     // Read-only properties
     // ------------------------------------------------------------------------------
-    private boolean mIsFetching = false;
+    /**
+     * One poller per server; the first is always the main login. Read from client and background threads.
+     */
+    private final List<ServerPoller> mPollers = new CopyOnWriteArrayList<ServerPoller>();
 
-    public boolean getIsFetching() {
-        return mIsFetching;
+    /**
+     * Clients subscribe here to be told about new events and state/status changes.
+     */
+    public EventStream getEventStream() {
+        return mEventStream;
     }
 
     /**
-     * The list of all new events for the last request; because we may need to make multiple requests to 
-     * fulfill a request, this is required to hold temporary results.
+     * Which points generate the most events; over all servers.
      */
-    private ArrayList<iEvent> mNewEventsList;
+    private NoisyPointStats mNoisyPoints;
+    private ScheduledFuture<?> mNoisyPointsSave;     // Pending save, if any; guarded by mNoisyPointsWriter
 
     /**
-     * Tracks the number of 'new' events. Clients (EventViewer) may choose to clear this number at will
+     * Saves (and deletes) the noisy point statistics, one at a time and in order.
      */
-    private int mNewEventCount = 0;
+    private final ScheduledExecutorService mNoisyPointsWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "NoisyPoints writer");
+        }
+    });
+
+    public ArrayList<TopKCounter.Entry> getNoisyPoints(NoisyPointStats.Window window, boolean byInput, int k) {
+        return mNoisyPoints.getTop(window, byInput, k);
+    }
+
+    /**
+     * Asks every server with older history still to load for its next page; see ServerPoller.loadOlder. Returns true 
+     * if any page was requested.
+     */
+    public boolean loadOlderEvents() {
+        boolean requested = false;
+        for (ServerPoller poller : mPollers) {
+            requested |= poller.loadOlder();
+        }
+        return requested;
+    }
+
+    public boolean getIsFetching() {
+        for (ServerPoller poller : mPollers) {
+            if (poller.getIsFetching()) {
+                return true;
+            }
+        }
+        return false;
+    }
 
+    /**
+     * Tracks the number of 'new' events, over all servers. Clients (EventViewer) may choose to clear this number at will
+     */
     public int getNewEventCount() {
-        return mNewEventCount;
+        int count = 0;
+        for (ServerPoller poller : mPollers) {
+            count += poller.getNewEventCount();
+        }
+        return count;
     }
 
     public void resetNewEventCount() {
-        mNewEventCount = 0;
+        for (ServerPoller poller : mPollers) {
+            poller.resetNewEventCount();
+        }
     }
 
     /**
-     * Index of that last/latest event received from eWEB Can be used to make requests to 
+     * Index of that last/latest event received from the main eWEB server Can be used to make requests to 
      * eWEB to avoid large DB queries
      */
-    private String mLastIndex = UnknownIndex;
-
     public String getLastKnownIndex() {
-        return mLastIndex;
+        return getPrimaryPoller().getLastKnownIndex();
     }
 
     /**
-     * Date of last successful response from eWEB
+     * Date of last successful response from eWEB; the oldest over all servers, or null if any server has not responded yet.
      */
-    private Date mLastSuccess = null;
-
     public Date getLastSuccess() {
-        return (mLastSuccess == null) ? null : (Date) mLastSuccess.clone();
+        Date oldest = null;
+        for (ServerPoller poller : mPollers) {
+            Date lastSuccess = poller.getLastSuccess();
+            if (lastSuccess == null) {
+                return null;
+            }
+            if ((oldest == null) || lastSuccess.before(oldest)) {
+                oldest = lastSuccess;
+            }
+        }
+        return oldest;
     }
 
     /**
-     * Main array of cached events Should never have size > EVENT_CACHE_MAX
+     * Summary of the alarm groups over all servers, indexed on group name.
      */
-    private EventCache mEventCache = new EventCache(EventCache.EVENT_CACHE_MAX);
-
     public HashMap<String, AlarmGroup> getEventCacheAlarmGroupInfo() {
-        return mEventCache.alarmGroupInfo;
+        if (mPollers.size() == 1) {
+            return getPrimaryPoller().getEventCache().getAlarmGroupInfoCopy();
+        }
+
+        HashMap<String, AlarmGroup> merged = new HashMap<String, AlarmGroup>();
+        for (ServerPoller poller : mPollers) {
+            for (AlarmGroup group : poller.getEventCache().getAlarmGroupInfoCopy().values()) {
+                AlarmGroup mergedGroup = merged.get(group.name);
+                if (mergedGroup == null) {
+                    mergedGroup = new AlarmGroup(group.name, group.color, group.sound);
+                    merged.put(group.name, mergedGroup);
+                }
+                mergedGroup.count += group.count;
+            }
+        }
+        return merged;
     }
 
+    /**
+     * Returns a copy of the newest events over all servers, merged in timestamp order.
+     */
     public ArrayList<iEvent> getEventCacheCopy() {
-        return mEventCache.getCopy();
+        ArrayList<EventCache> caches = new ArrayList<EventCache>();
+        for (ServerPoller poller : mPollers) {
+            caches.add(poller.getEventCache());
+        }
+        return MergedEventStream.getMergedCopy(caches, getPrimaryPoller().getEventCache().getMaxEvents());
+    }
+
+    /**
+     * Returns the number of events spilled to the cold tier (on disk) of the caches, over all servers.
+     */
+    public int getSpilledEventCount() {
+        int count = 0;
+        for (ServerPoller poller : mPollers) {
+            count += poller.getEventCache().getSpilledCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns copies of the newest count events spilled to the cold tier of the caches, over all servers, ordered on 
+     * their timestamp (ASC). These are faulted in from disk; they are older than the events in getEventCacheCopy other 
+     * than alarms kept in memory until they are acknowledged.
+     */
+    public ArrayList<iEvent> getSpilledEvents(int count) {
+        if (mPollers.size() == 1) {
+            return getPrimaryPoller().getEventCache().getOlderEvents(null, count);
+        }
+
+        ArrayList<iEvent> events = new ArrayList<iEvent>();
+        for (ServerPoller poller : mPollers) {
+            events.addAll(poller.getEventCache().getOlderEvents(null, count));
+        }
+        Collections.sort(events, new Comparator<iEvent>() {
+            @Override
+            public int compare(iEvent lhs, iEvent rhs) {
+                String l = (lhs.getEnteliwebTimestamp() == null) ? "" : lhs.getEnteliwebTimestamp();
+                String r = (rhs.getEnteliwebTimestamp() == null) ? "" : rhs.getEnteliwebTimestamp();
+                return l.compareTo(r);
+            }
+        });
+        return new ArrayList<iEvent>(events.subList(Math.max(0, events.size() - count), events.size()));
+    }
+
+    /**
+     * Returns a copy of the summary rows (one per event) over all servers, ordered on their latest transition (ASC).
+     */
+    public ArrayList<EventSummary> getEventSummaryCopy() {
+        if (mPollers.size() == 1) {
+            return getPrimaryPoller().getEventCache().getSummaryCopy();
+        }
+
+        ArrayList<EventSummary> summaries = new ArrayList<EventSummary>();
+        for (ServerPoller poller : mPollers) {
+            summaries.addAll(poller.getEventCache().getSummaryCopy());
+        }
+        Collections.sort(summaries, new Comparator<EventSummary>() {
+            @Override
+            public int compare(EventSummary lhs, EventSummary rhs) {
+                String l = (lhs.getLastTimestamp() == null) ? "" : lhs.getLastTimestamp();
+                String r = (rhs.getLastTimestamp() == null) ? "" : rhs.getLastTimestamp();
+                return l.compareTo(r);
+            }
+        });
+        return summaries;
+    }
+
+    /**
+     * Returns a copy of all cached transitions of the given event (ASC order); used to expand a summary row.
+     */
+    public ArrayList<iEvent> getEventHistory(String eventRef) {
+        ArrayList<iEvent> history = new ArrayList<iEvent>();
+        for (ServerPoller poller : mPollers) {
+            history.addAll(poller.getEventCache().getHistory(eventRef));
+        }
+        return history;
     }
 
     /**
      * Update event both in active and stored (file) cache
      */
     public void updateEventInCache(iEvent ev) {
-        mEventCache.updateEvent(ev);
-        writeToCacheFile(EventNotificationsService.this);
+        getPollerFor(ev).updateEvent(ev);
     }
 
     /**
-     * Get current status of service Allows clients to visually indicate to users that the 
-     * service may not be running correctly
+     * Connection to the server the given event came from; used to ack and assign the event.
+     */
+    public EwebConnection getEwebConnectionFor(iEvent ev) {
+        return getPollerFor(ev).getEwebConnection();
+    }
+
+    /**
+     * Client for the server the given event came from, or null to use getEwebConnectionFor; see EwebHttpClient.forConnection.
+     */
+    public EwebHttpClient getHttpClientFor(iEvent ev) {
+        ServerPoller poller = getPollerFor(ev);
+        return EwebHttpClient.forConnection(poller.getEwebConnection(), poller.getLogin());
+    }
+
+    /**
+     * Url of the server the given event came from; used to open links in the event.
      */
-    private STATUS mCurrentStatus = STATUS.UNKNOWN;
+    public String getServerUrlFor(iEvent ev) {
+        return getPollerFor(ev).getLogin().url;
+    }
 
+    /**
+     * Get current status of service Allows clients to visually indicate to users that the 
+     * service may not be running correctly. Only OK if every server is OK.
+     */
     public STATUS getCurrentStatus() {
-        return mCurrentStatus;
+        for (ServerPoller poller : mPollers) {
+            if (poller.getCurrentStatus() != STATUS.OK) {
+                return poller.getCurrentStatus();
+            }
+        }
+        return mPollers.isEmpty() ? STATUS.UNKNOWN : STATUS.OK;
     }
 
     /**
-     * Send out a broadcast indicating that a notification has been received.
+     * Pages received so far by the servers that are catching up; see getCatchUpPagesTotal.
      */
-    private void sendUpdateBroadcast() {
-        Log.i(App.TAG, String.format("SERVICE (sendUpdateBroadcast)"));
-        // Inform any activities listening
-        mNotificationIntent = new Intent();
-        mNotificationIntent.setAction(NOTIFICATION_INTENT_ACTION);
-        sendBroadcast(mNotificationIntent);
+    public int getCatchUpPagesDone() {
+        int done = 0;
+        for (ServerPoller poller : mPollers) {
+            if (poller.isCatchingUp()) {
+                done += poller.getCatchUpPagesDone();
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Estimated number of pages the servers that are catching up need in total; 0 if none are catching up.
+     */
+    public int getCatchUpPagesTotal() {
+        int total = 0;
+        for (ServerPoller poller : mPollers) {
+            if (poller.isCatchingUp()) {
+                total += poller.getCatchUpPagesTotal();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * True if any server is in an alarm storm; see FlapDetector.
+     */
+    public boolean isStorm() {
+        for (ServerPoller poller : mPollers) {
+            if (poller.getEventCache().isStorm()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of events over all servers within one storm window (a minute of event time) during their current storms.
+     */
+    public int getStormWindowCount() {
+        int count = 0;
+        for (ServerPoller poller : mPollers) {
+            count += poller.getEventCache().getStormWindowCount();
+        }
+        return count;
+    }
+
+    private void updateGauges() {
+        long events = 0;
+        long bytes = 0;
+        long flapNanos = 0;
+        for (ServerPoller poller : mPollers) {
+            events += poller.getEventCache().size();
+            bytes += poller.getEventCache().getEstimatedBytes();
+            flapNanos = Math.max(flapNanos, poller.getEventCache().getFlapDetectorNanos());
+        }
+        Metrics.gauge(Metrics.CACHE_EVENTS).set(events);
+        Metrics.gauge(Metrics.CACHE_BYTES).set(bytes);
+        Metrics.gauge(Metrics.CACHE_FLAP_RECORD_NS).set(flapNanos);
+        Metrics.gauge(Metrics.NOTIFY_EMITTED).set(mCoalescer.getEmittedCount());
+        Metrics.gauge(Metrics.NOTIFY_SUPPRESSED).set(mCoalescer.getSuppressedCount());
+    }
+
+    /**
+     * Tells subscribed clients that the cached data changed, and that the overall status changed if it did.
+     */
+    private void publishUpdate() {
+        STATUS status = getCurrentStatus();
+        Log.i(App.TAG, String.format("SERVICE (publishUpdate): %d subscribers, status %s", mEventStream.getSubscriberCount(), status));
+
+        updateGauges();
+
+        if (status != mPublishedStatus) {
+            mPublishedStatus = status;
+            mEventStream.publish(new EventStream.Message(EventStream.Type.STATUS_CHANGED, status, null, null));
+        }
+        mEventStream.publish(new EventStream.Message(EventStream.Type.STATE_CHANGED, status, null, null));
     }
 
     // ------------------------------------------------------------------------------
@@ -257,12 +548,11 @@ public class EventNotificationsService extends Service {
         filter.addAction(Intent.ACTION_SCREEN_OFF);
         registerReceiver(mScreenReceiver, filter);
 
-        // Attempt to load from cache and set last known index based on values in cache
-        loadFromCacheFile(this);
-        mLastIndex = mEventCache.getLastKnownIndex();
-        if (mLastIndex == null) {
-            mLastIndex = UnknownIndex;
-        }
+        mNoisyPoints = NoisyPointStats.load(new File(getFilesDir(), NOISY_POINTS_FILENAME));
+
+        // Setup a poller per server; each restores its checkpoint and loads its cache from file in the background
+        syncPollers(LoginInfo.getLoginInfo(this));
+        LoginStore.get(this).addListener(mLoginListener);
     }
 
     /**
@@ -295,7 +585,44 @@ public class EventNotificationsService extends Service {
         super.onDestroy();
 
         unregisterReceiver(mScreenReceiver);
+        LoginStore.get(this).removeListener(mLoginListener);
+        mHandler.removeCallbacksAndMessages(null);
         // mWakeLock.release();
+
+        for (ServerPoller poller : mPollers) {
+            poller.close();
+        }
+        mEventStream.clear();
+
+        // Save any pending statistics now, then let the writer finish
+        saveNoisyPoints(0);
+        synchronized (mNoisyPointsWriter) {
+            mNoisyPointsWriter.shutdown();
+        }
+    }
+
+    /**
+     * Shrinks the in-memory caches when the system is running low on memory. Events removed from memory are spilled to 
+     * the cold tier so that the persisted history is kept intact.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        Log.i(App.TAG, String.format("SERVICE onTrimMemory (level %d)", level));
+
+        if ((level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) || (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)) {
+            trimInMemoryCaches(4);
+        }
+        else if ((level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) || (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)) {
+            trimInMemoryCaches(2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        Log.i(App.TAG, "SERVICE onLowMemory");
+        trimInMemoryCaches(4);
     }
 
     // ------------------------------------------------------------------------------
@@ -311,267 +638,292 @@ public class EventNotificationsService extends Service {
     }
 
     /**
-     * Do the main service work here, contact eWEB if we are logged in etc.
+     * Do the main service work here, contact eWEB if we are logged in etc. Every server is polled at the same time; 
+     * results come back through onServerUpdated/onServerError.
      */
     private void doWork() {
-        // Crude way to avoid having two requests out at once (handles case where eWEB takes longer to respond then
-        // the repeat time. We do not want to miss any alarms, thus we do not want to double up on requests (since we are
-        // currently passing along lastIndex).
-        if (mIsFetching) {
-            return;
-        }
-
-        final EwebConnection eWeb = App.getEwebConnection();
-        mNewEventsList = new ArrayList<iEvent>(); // Reset new events list.
-
         Log.i(App.TAG, String.format("SERVICE (doWork): Starting"));
         LoginInfo login = LoginInfo.getLoginInfo(this);
 
         // Check to make sure we have enough information to run the service.
         // If not, we must wait for the client (EventViewer) to setup the login information and then restart the service repeating.
-        if (!LoginInfo.storedLoginExists(this) || !LoginInfo.storedUserIsActive(this)) {
+        if (!login.isSetup() || !login.active) {
             logout();
             Log.i(App.TAG, "SERVICE (doWork) : Stored user no longer exists, stopping service");
             return;
         }
 
-        // Check if login has occur
-        if (eWeb.getConnectionStatus() == EwebConnection.CONNECTION_STATUS.NOT_INITIALIZED){
-            // Call without caring for the response. Result will check later.
-            eWeb.connect(login.url, login.username, login.password, null, login.mBasicAuthentication);
-            ScheduleEventNotifications.stopServiceRepeating(this);
-            ScheduleEventNotifications.startServiceRepeating(this, 0, login.refreshSeconds);
-            return;
-        };
-
-        // if eWeb is not connected, inform user
-        if (!eWeb.isConnected()){
-
-            String title = getString(R.string.notification_event_viewer_failed_to_update);
-            String message = getString(R.string.serverstatus_not_connected);
-            mCurrentStatus = STATUS.NOT_CONNECTED;
-            createNotification(title, message, "", 0);
-            sendUpdateBroadcast();
-            return;
+        // How late this run is compared to the refresh interval (the repeating alarm is inexact).
+        long now = SystemClock.elapsedRealtime();
+        if (mLastWorkAt != 0) {
+            long lateMs = (now - mLastWorkAt) - (login.refreshSeconds * 1000L);
+            Metrics.histogram(Metrics.POLL_SCHEDULE_DELAY).record(Math.max(0, lateMs) * 1000000L);
         }
+        mLastWorkAt = now;
 
-        mIsFetching = true;
-        String lastIndex = "";
-        // Used in sequence-le to attempt to speed up response from eWEB. Use sql unsigned big int as max value.
-        String maxSQLIndex = "9223372036854775807"; 
+        // Pick up any change to the server list or the cache size setting
+        syncPollers(login);
 
-        // If we do not have a mLastIndex
-        if (mLastIndex.equals(UnknownIndex)) {
-            // Attempt to use the user's dismissIndex
-            if (login.dismissIndex != null) {
-                lastIndex = "startID=-" + String.valueOf(login.dismissIndex);
-            }
-            else {
-                // Else, give the api a max value and ask to get all records BEFORE that.
-                // Note: eWEB seems to run faster when given an index vs. just asking for "the most recent".
-                lastIndex = "sequence-le=" + maxSQLIndex;
-            }
+        // A poller that is not connected yet connects first, and fetches as soon as the connect is done.
+        for (ServerPoller poller : mPollers) {
+            poller.poll(poller.isPrimary() ? login : poller.getLogin());
         }
-        else {
-            // Use mLastIndex as it is the most recent value
-            lastIndex = "startID=-" + String.valueOf(mLastIndex);
-        }
-
-        // No need to request more than the max cache.
-        String maxResults = "max-results=" + EventCache.EVENT_CACHE_MAX;
+    }
 
-        eWeb.getEventList(lastIndex, maxResults, mHandleResultCallback, LongerReadTimeout);
-        Log.i(App.TAG, String.format("SERVICE (doWork): Starting request (mLastIndex: %s)", mLastIndex.toString()));
+    /**
+     * Called by a poller with each page of new events, before it is added to its cache.
+     */
+    @Override
+    public void onEventsReceived(ServerPoller poller, ArrayList<iEvent> events) {
+        mNoisyPoints.recordAll(events);
+        mEventStream.publishEvents(EventStream.Type.EVENTS_RECEIVED, getCurrentStatus(), poller.getLogin().url, events);
+        saveNoisyPoints(NOISY_POINTS_SAVE_DELAY);
     }
-    
+
     /**
-     * Handler for data result. Runs on a background thread to avoid locking up the main UI.
+     * Saves the noisy point statistics on mNoisyPointsWriter after the given delay, so we don't hang the fetch. A save 
+     * that is already pending covers any pages received before it runs, so a catch up of many pages is saved once.
      */
-    private GenericCallback<FetchJSON.Result> mHandleResultCallback = new GenericCallback<FetchJSON.Result>() {
-        @Override
-        public void onCallback(final FetchJSON.Result fetchResult) {
-            // Run on different thread so we don't hang the UI if it is running.
-            Thread thread = new Thread() {
+    private void saveNoisyPoints(long delaySeconds) {
+        synchronized (mNoisyPointsWriter) {
+            if (mNoisyPointsWriter.isShutdown()) {
+                return; // A fetch that finished after onDestroy
+            }
+            if (mNoisyPointsSave != null && !mNoisyPointsSave.isDone()) {
+                if (mNoisyPointsSave.getDelay(TimeUnit.SECONDS) <= delaySeconds) {
+                    return;
+                }
+                mNoisyPointsSave.cancel(false);
+            }
+            mNoisyPointsSave = mNoisyPointsWriter.schedule(new Runnable() {
                 @Override
                 public void run() {
-                    mHandleResult(fetchResult);
+                    mNoisyPoints.save(new File(getFilesDir(), NOISY_POINTS_FILENAME));
                 }
-            };
-            thread.start();
+            }, delaySeconds, TimeUnit.SECONDS);
         }
-    };
+    }
 
     /**
-     * Handles the JSON result from eWEB; checks for errors and then processes the data, updates the cache and sends out a broadcast if new data has been received.
+     * Called by a poller as soon as a page holds HIGH level alarms; these are announced straight away, without waiting 
+     * for the remaining pages or the coalescer. Lower levels are notified once the fetch completes.
      */
-    private void mHandleResult(FetchJSON.Result fetchResult) {
+    @Override
+    public void onHighPriorityEvents(ServerPoller poller, ArrayList<iEvent> events) {
+        iEvent latest = events.get(events.size() - 1);
+        String title = (events.size() == 1)
+                ? String.format(getString(R.string.notification_high_priority_alarm), latest.getEventName())
+                : String.format(getString(R.string.notification_x_high_priority_alarms), events.size());
+
+        Log.i(App.TAG, String.format("SERVICE (onHighPriorityEvents): %s", title));
+        createNotification(NOTIFICATION_HIGH_PRIORITY_ID, title, latest.getMessage(), "", events.size(), true);
+    }
 
-        String title, message;
-        JSONObject result = fetchResult.json;
+    /**
+     * Called by a poller when it has new events, or when it has recovered from an error. Updates are coalesced, see 
+     * NotificationCoalescer.
+     */
+    @Override
+    public void onServerUpdated(ServerPoller poller) {
+        mCoalescer.requestUpdate();
+    }
 
-        // Parse result
-        iEventList lastGet = iEventList.fromJson(result);
+    /**
+     * Called by a poller with each page of older history, before it is added to its cache. Unlike onEventsReceived, 
+     * the events are not counted as noisy points and not notified.
+     */
+    @Override
+    public void onHistoryReceived(ServerPoller poller, ArrayList<iEvent> events) {
+        mEventStream.publishEvents(EventStream.Type.HISTORY_RECEIVED, getCurrentStatus(), poller.getLogin().url, events);
+    }
 
-        if (lastGet.events == null) {
-            Log.i(App.TAG, "Service - handleJSONResult data is null, do nothing.");
-            mIsFetching = false;
-            return;
-        }
+    /**
+     * Called by a poller once a page of older history, or its cache file, is in its cache; clients are told straight 
+     * away, without a notification.
+     */
+    @Override
+    public void onHistoryAdded(ServerPoller poller) {
+        publishUpdate();
+    }
 
-        try {
-            // Check for failed response:
-            // - the request itself failed
-            // - or the response contained a success JSON object that indicated a failure
-            boolean failed = (!fetchResult.success) || ((result.has("success") && !result.getBoolean("success")));
-            if (failed) {
-                title = getString(R.string.notification_event_viewer_failed_to_update);
-
-                if (fetchResult.statusCode == HttpStatus.SC_UNAUTHORIZED) {
-                    mCurrentStatus = STATUS.INVALID_LOGIN;
-                    message = getString(R.string.notification_invalid_eweb_login);
-                }
-                else {
-                    // Assume network connection issue
-                    mCurrentStatus = STATUS.EWEB_ERROR;
-                    message = getString(R.string.notification_network_connection_issue);
-                }
+    /**
+     * Called by a poller when its server could not be reached or returned an error.
+     */
+    @Override
+    public void onServerError(ServerPoller poller, String message) {
+        String title = getString(R.string.notification_event_viewer_failed_to_update);
+        if (mPollers.size() > 1) {
+            message = String.format("%s: %s", poller.getLogin().url, message);
+        }
 
-                createNotification(title, message, "", 0);
-                sendUpdateBroadcast();
-                Log.i(App.TAG, String.format("SERVICE (handleJSONResult): %s", message));
+        mCoalescer.requestError(title, message);
+    }
 
-                mIsFetching = false;
-                return;
-            }
+    /**
+     * Emits the (coalesced) notifications and broadcasts.
+     */
+    private NotificationCoalescer mCoalescer = new NotificationCoalescer(new NotificationCoalescer.Listener() {
+        @Override
+        public void onEmitUpdate() {
+            // Create android system notification
+            updateNewEventsNotification();
+        }
 
-            // Else we have a successful result.
+        @Override
+        public void onEmitError(String title, String message) {
+            createNotification(title, message, "", 0);
+        }
 
-            // Add events from last get
-            if (lastGet.events.size() > 0) {
-                // iEventList sorts the events in ASC order on event index number.
-                // This means that we need to place the event list at the beginning of the FULL list (mNewEventsList)
-                // to make sure the ASC order is maintained.
-                mNewEventsList.addAll(0, lastGet.events);
-            }
+        @Override
+        public void onEmitBroadcast() {
+            // Always tell clients when new data available
+            publishUpdate();
+        }
+    });
 
-            // Check if we have MORE data to get
-            // Note, it appears that eWEB is returning next url even when 0 events remain
-            // This means we cannot rely on the existence of the next url to tell when we are "done" getting data.
-            // Instead use the number of results we have retrieved.
-            // Also note: this is our original request if our cache is empty. Only use "next" if this is not the case.
-            if ((mEventCache.size() != 0)
-                    && (lastGet.next != null)
-                    && (mNewEventsList.size() <= EventCache.EVENT_CACHE_MAX)) {
-                Log.i(App.TAG, String.format("SERVICE (handleJSONResult): Next URL found, %s", lastGet.next));
-                getNextData(lastGet.next, EventCache.EVENT_CACHE_MAX - mNewEventsList.size());
-                // Note, still fetching!
-                return;
-            }
+    public int getNotificationsEmitted() {
+        return mCoalescer.getEmittedCount();
+    }
 
-            // When here, we have all the data we need to respond to the request.
+    public int getNotificationsSuppressed() {
+        return mCoalescer.getSuppressedCount();
+    }
 
-            // Determine the latest/largest ID returned with this data set.
-            // Note: lastGet.data.index no longer appears to return the highest index; it returns the first? or 0?
-            // If no new data returned, then assume matching max index until we
-            // know that we can depend on lastGet.data.index
-            String lastGetLastIndex = mLastIndex;
-            int numEvents = mNewEventsList.size();
+    // ------------------------------------------------------------------------------
+    // Private Helper Functions
+    // ------------------------------------------------------------------------------
+    private ServerPoller getPrimaryPoller() {
+        return mPollers.get(0);
+    }
 
-            if (numEvents > 0) {
-                lastGetLastIndex = mNewEventsList.get(numEvents - 1).getIndex();
+    /**
+     * Finds the poller of the server the given event came from; defaults to the main login.
+     */
+    private ServerPoller getPollerFor(iEvent ev) {
+        if (mPollers.size() > 1) {
+            for (ServerPoller poller : mPollers) {
+                // Indexes are per server; the same index on another server is a different event, so check the EventRef
+                EventCache cache = poller.getEventCache();
+                if (!cache.contains(ev.getIndex())) {
+                    continue;
+                }
+                iEvent cached = cache.getEvent(ev.getIndex());
+                if ((cached != null) && (cached.getEventRef() != null) && cached.getEventRef().equals(ev.getEventRef())) {
+                    return poller;
+                }
             }
+        }
+        return getPrimaryPoller();
+    }
 
-            mLastSuccess = Calendar.getInstance().getTime();
-
-            // We have new data!
-            if (!mLastIndex.equals(lastGetLastIndex)) {
-                mCurrentStatus = STATUS.OK;
-
-                // Update last index
-                mLastIndex = lastGetLastIndex;
-                mNewEventCount = mNewEventCount + mNewEventsList.size();
-
-                // Add to stored cache
-                mEventCache.addAll(mNewEventsList);
-                writeToCacheFile(EventNotificationsService.this);
-
-                // Create android system notification
-                updateNewEventsNotification();
-
-                // Always send an update broadcast when new data available
-                sendUpdateBroadcast();
+    /**
+     * Creates or removes pollers so that there is one for the main login and one for each additional server, and sizes 
+     * their caches. The event caches share a memory budget based on the memory class of the device.
+     */
+    private void syncPollers(LoginInfo login) {
+        ArrayList<LoginInfo> additional = LoginInfo.getAdditionalLogins(this);
+        ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        long maxBytes = ((long) am.getMemoryClass() * 1024 * 1024) / CACHE_HEAP_FRACTION / (additional.size() + 1);
+
+        if (mPollers.isEmpty()) {
+            ServerPoller primary = new ServerPoller(this, "", login, App.getEwebConnection());
+            primary.open(this, maxBytes);
+            mPollers.add(primary);
+        }
 
-                Log.i(App.TAG, String.format("SERVICE (handleJSONResult): %s Total events, %s New events", mEventCache.size(), mNewEventCount));
+        // Remove servers that are no longer in the list
+        for (ServerPoller poller : mPollers) {
+            if (!poller.isPrimary() && !additional.contains(poller.getLogin())) {
+                Log.i(App.TAG, String.format("SERVICE (syncPollers): Removing %s", poller.getLogin().url));
+                mPollers.remove(poller);
+                poller.reset();
+                poller.close();
             }
-            // No new data.
-            else {
-                // Only send broadcast if we transition from a non-ok status to an ok status to allow client UIs to be updated
-                if (mCurrentStatus != STATUS.OK) {
-                    mCurrentStatus = STATUS.OK;
-                    updateNewEventsNotification();
-                    sendUpdateBroadcast();
-                }
+        }
 
-                Log.i(App.TAG, "SERVICE (handleJSONResult): No new events");
+        // Add new servers; they share the refresh and cache settings of the main login
+        for (LoginInfo server : additional) {
+            server.cacheSize = login.cacheSize;
+            ServerPoller existing = null;
+            for (ServerPoller poller : mPollers) {
+                if (!poller.isPrimary() && poller.getLogin().equals(server)) {
+                    existing = poller;
+                }
             }
-        } 
-        catch (Exception e) {
-            mCurrentStatus = STATUS.EWEB_ERROR;
-
-            title = getString(R.string.notification_event_viewer_failed_to_update);
-            message = getString(R.string.notification_error_getting_events);
-            createNotification(title, message, "", 0);
 
-            Log.e(App.TAG, String.format("SERVICE (handleJSONResult): Error found: %s", e.getMessage()));
+            if (existing == null) {
+                Log.i(App.TAG, String.format("SERVICE (syncPollers): Adding %s", server.url));
+                ServerPoller poller = new ServerPoller(this, server.getId(), server, new EwebConnection());
+                poller.open(this, maxBytes);
+                mPollers.add(poller);
+            }
         }
 
-        // Attempt to run the next item in the queue.
-        mIsFetching = false;
+        for (ServerPoller poller : mPollers) {
+            if (poller.setCacheCapacity(login.cacheSize, maxBytes)) {
+                Log.i(App.TAG, String.format("SERVICE (syncPollers): %s %d events, %d bytes", poller.getLogin().url, login.cacheSize, maxBytes));
+            }
+        }
     }
-    
+
     /**
-     * If another request is required to fulfill the original request, eWEB will return a "next" url.
-     * This method runs that url and then calls the original callback.
-     * @param url
-     * @param maxResults
+     * Spills events from memory to the cold tier until at most 1/fraction of each cache remains in memory. Runs on the 
+     * main thread; the disk is written on the pollers' file writer.
      */
-    private void getNextData(String url, int maxResults) {
-        String fullURL = String.format("%s&alt=json", url);
-        EwebConnection eWeb = App.getEwebConnection();
-
-        eWeb.getNextEventList(fullURL, mHandleResultCallback, LongerReadTimeout);
-
-        Log.i(App.TAG, String.format("SERVICE (getNextData): Starting request (fullURL: %s)", fullURL));
+    private void trimInMemoryCaches(int fraction) {
+        for (ServerPoller poller : mPollers) {
+            int removed = poller.trimInMemoryCache(poller.getEventCache().getMaxEvents() / fraction);
+            if (removed > 0) {
+                Log.i(App.TAG, String.format("SERVICE (trimInMemoryCaches): Moved %d events out of memory", removed));
+            }
+        }
     }
 
-    // ------------------------------------------------------------------------------
-    // Private Helper Functions
-    // ------------------------------------------------------------------------------
     /**
-     * Creates a system notification based on the current mNewEventCount. If there are no new events then the notification is cleared as there is nothing to report.
+     * Creates a system notification based on the current new event count. If there are no new events then the notification is cleared as there is nothing to report.
      */
     private void updateNewEventsNotification() {
+        int newEventCount = getNewEventCount();
 
-        if (mNewEventCount == 0) {
+        if (newEventCount == 0) {
             clearSystemNotification();
         }
+        else if (isStorm()) {
+            // Alert once when the storm starts; after that, keep the count up to date without a sound for every update
+            String title = String.format(getString(R.string.notification_alarm_storm), getStormWindowCount());
+            String format = (newEventCount == 1) ? getString(R.string.x_new_event) : getString(R.string.x_new_events);
+            String message = String.format(format, newEventCount);
+            createNotification(title, message, "", newEventCount, !mStormNotified);
+            mStormNotified = true;
+        }
         else {
+            mStormNotified = false;
+
             // Create android system notification
-            String format = (mNewEventCount == 1) ? getString(R.string.x_new_event) : getString(R.string.x_new_events);
-            String title = String.format(format, mNewEventCount);
+            String format = (newEventCount == 1) ? getString(R.string.x_new_event) : getString(R.string.x_new_events);
+            String title = String.format(format, newEventCount);
             String message = getString(R.string.notification_touch_to_view);
             String content = "";
-            createNotification(title, message, content, mNewEventCount);
+            createNotification(title, message, content, newEventCount);
         }
     }
 
     /**
      * Creates a system notification containing the desired message and content 
-     * 
+     */
+    private void createNotification(String title, String message, String content, int num) {
+        createNotification(NOTIFICATION_MESSAGE_ID, title, message, content, num, true);
+    }
+
+    private void createNotification(String title, String message, String content, int num, boolean sound) {
+        createNotification(NOTIFICATION_MESSAGE_ID, title, message, content, num, sound);
+    }
+
+    /**
      * @SuppressWarnings("deprecation") Remove if app moves to use .build (API 16+)
      */
     @SuppressWarnings("deprecation")
-    private void createNotification(String title, String message, String content, int num) {
+    private void createNotification(int id, String title, String message, String content, int num, boolean sound) {
         Intent intent = new Intent(this, MainActivity.class);
         PendingIntent pIntent = PendingIntent.getActivity(this, 0, intent, 0);
 
@@ -582,82 +934,39 @@ public class EventNotificationsService extends Service {
                 .setContentIntent(pIntent)
                 .setNumber(num)
                 .setTicker(title)
-                .setDefaults(Notification.DEFAULT_SOUND)
+                .setDefaults(sound ? Notification.DEFAULT_SOUND : 0)
                 .setAutoCancel(true).getNotification(); // use .build if API 16+
 
         NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        notificationManager.notify(NOTIFICATION_MESSAGE_ID, n);
+        notificationManager.notify(id, n);
     }
 
-    // ------------------------------------------------------------------------------------------------
-    // Serializing JSON to/from internal file so that data can persist if app process is killed and restarted
-    // ------------------------------------------------------------------------------------------------
-    /**
-     * Writes eventCache json object to a file in internal storage so that it may persist if application is killed and restarted. 
-     * Run on different thread so we don't hang the UI
-     */
-    private void writeToCacheFile(Context ctx) {
-        Thread thread = new Thread() {
-            @Override
-            public void run() {
-                ArrayList<iEvent> list = mEventCache.getCopy();
-                Gson gson = new Gson();
-                String listJSON = gson.toJson(list);
-                FileOutputStream outputStream;
-
-                try {
-                    outputStream = App.getContext().openFileOutput(CACHED_FILENAME, Context.MODE_PRIVATE);
-                    outputStream.write(listJSON.getBytes());
-                    outputStream.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        };
-        thread.start();
+    // ------------------------------------------------------------------------------
+    // Helper Functions
+    // Exposed to clients by binding to the service
+    // ------------------------------------------------------------------------------
+    public void clearCache() {
+        for (ServerPoller poller : mPollers) {
+            poller.reset();
+        }
     }
 
     /**
-     * Note, for now this file blocks the UI thread as we need to get the data
-     * before we can proceed to show the list and do updates correctly
+     * Saves the last index of each server as its dismissIndex and then clears the caches.
      */
-    private void loadFromCacheFile(Context ctx) {
-        Gson gson = new Gson();
-
-        try {
-            FileInputStream in = ctx.openFileInput(CACHED_FILENAME);
-            InputStreamReader inputStreamReader = new InputStreamReader(in);
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                sb.append(line);
+    public void dismissAllEvents() {
+        for (ServerPoller poller : mPollers) {
+            if (poller.isPrimary()) {
+                LoginInfo login = LoginInfo.getLoginInfo(this);
+                login.dismissIndex = poller.getLastKnownIndex();
+                LoginInfo.setLoginInfo(this, login);
+            }
+            else {
+                poller.getLogin().dismissIndex = poller.getLastKnownIndex();
+                LoginInfo.setAdditionalDismissIndex(this, poller.getLogin(), poller.getLastKnownIndex());
             }
-
-            inputStreamReader.close();
-            Type listType = new TypeToken<List<iEvent>>() {
-            }.getType(); // Wowza! Ugly but that's Java for you.
-            ArrayList<iEvent> list = gson.fromJson(sb.toString(), listType);
-
-            mEventCache.addAll(list);
-        } 
-        catch (IOException e) {
-            e.printStackTrace();
         }
-    }
-
-    private void deleteCacheFile() {
-        deleteFile(CACHED_FILENAME);
-    }
-
-    // ------------------------------------------------------------------------------
-    // Helper Functions
-    // Exposed to clients by binding to the service
-    // ------------------------------------------------------------------------------
-    public void clearCache() {
-        mEventCache.clear();
-        mNewEventCount = 0;
-        deleteCacheFile();
+        clearCache();
     }
 
     /**
@@ -666,20 +975,22 @@ public class EventNotificationsService extends Service {
     public void clearSystemNotification() {
         NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
         notificationManager.cancel(NOTIFICATION_MESSAGE_ID);
+        notificationManager.cancel(NOTIFICATION_HIGH_PRIORITY_ID);
     }
 
     public void markAllAsRead() {
-        for (iEvent event : mEventCache) {
-            event.hasBeenViewed = true;
-        }
-        writeToCacheFile(EventNotificationsService.this);
+        setAllViewed(true);
     }
 
     public void markAllAsUnread() {
-        for (iEvent event : mEventCache) {
-            event.hasBeenViewed = false;
+        setAllViewed(false);
+    }
+
+    private void setAllViewed(boolean viewed) {
+        for (ServerPoller poller : mPollers) {
+            poller.getEventCache().setAllViewed(viewed);
+            poller.writeToCacheFile();
         }
-        writeToCacheFile(EventNotificationsService.this);
     }
 
     /**
@@ -689,20 +1000,38 @@ public class EventNotificationsService extends Service {
     public void logout() {
         Log.i(App.TAG, "Service logout");
 
-        mLastIndex = UnknownIndex;
-        mCurrentStatus = STATUS.UNKNOWN;
+        // Clear caches and any files in internal storage
+        for (ServerPoller poller : mPollers) {
+            poller.reset();
+        }
 
-        mEventCache.clear();
-        mNewEventCount = 0;
-        mLastSuccess = null;
-        mIsFetching = false;
+        mNoisyPoints.clear();
+        synchronized (mNoisyPointsWriter) {
+            if (mNoisyPointsSave != null) {
+                mNoisyPointsSave.cancel(false);
+                mNoisyPointsSave = null;
+            }
+            // Delete on the writer, after any save that is already running
+            if (mNoisyPointsWriter.isShutdown()) {
+                deleteFile(NOISY_POINTS_FILENAME);
+            }
+            else {
+                mNoisyPointsWriter.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deleteFile(NOISY_POINTS_FILENAME);
+                    }
+                });
+            }
+        }
+
+        // Forget the credentials and sessions of the eWEB clients
+        EwebHttpClient.clearClients();
 
         // Notifications no longer relevant
+        mCoalescer.cancel();
         clearSystemNotification();
 
-        // Clear any files in internal storage
-        deleteCacheFile();
-
         // Stop any repeating of this service
         ScheduleEventNotifications.stopServiceRepeating(this);
     }
@@ -0,0 +1,284 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.deltacontrols.eventviewer.service.EventNotificationsService.STATUS;
+import com.deltacontrols.eweb.support.models.iEvent;
+
+/**
+ * EventStream is the in-process publish/subscribe channel from EventNotificationsService to its clients; it replaces
+ * the global NewEvents broadcast. Messages are typed so clients no longer need to call back into the service to find 
+ * out what changed. Each subscriber picks the Handler it is called on and how a backlog is handled:
+ * 
+ * LATEST - only the newest undelivered message of each type is kept; right for clients that resync on any change.
+ * BUFFER - up to bufferSize undelivered messages are kept in order; the oldest is dropped when full.
+ * 
+ * A subscriber may also pick the message types it wants. Messages that carry events are only built (and the events 
+ * copied) when someone subscribes to their type; see publishEvents.
+ */
+public class EventStream {
+
+    // ------------------------------------------------------------------------------
+    // Messages
+    // ------------------------------------------------------------------------------
+    public enum Type {
+        EVENTS_RECEIVED,    // A server returned new events; see Message.events
+        HISTORY_RECEIVED,   // A server returned older history (see ServerPoller.loadOlder); see Message.events. Not new events
+        STATE_CHANGED,      // Cached data changed (new events, acks, dismiss, clear); clients should resync
+        STATUS_CHANGED      // The overall service status changed; see Message.status
+    }
+
+    public static class Message {
+        public final Type type;
+        public final STATUS status;             // Service status when the message was published
+        public final String serverUrl;          // EVENTS_RECEIVED and HISTORY_RECEIVED only; the server the events came from
+        public final List<iEvent> events;       // EVENTS_RECEIVED and HISTORY_RECEIVED only; ASC order, copies of the events as received
+        public final long publishedNanos;       // System.nanoTime when published; see Metrics.UI_PUBLISH_TO_RENDER
+
+        /**
+         * The events are copied; the poller goes on to add the originals to its cache, which changes them. Publish before
+         * handing the events to the cache, while no other thread can change them. Use publishEvents, which skips the 
+         * copy when no one is subscribed to the type.
+         */
+        public Message(Type type, STATUS status, String serverUrl, List<iEvent> events) {
+            this.type = type;
+            this.status = status;
+            this.serverUrl = serverUrl;
+            this.events = (events == null) ? null : Collections.unmodifiableList(copyOf(events));
+            this.publishedNanos = System.nanoTime();
+        }
+
+        private static ArrayList<iEvent> copyOf(List<iEvent> events) {
+            ArrayList<iEvent> copy = new ArrayList<iEvent>(events.size());
+            for (iEvent ev : events) {
+                copy.add(new iEvent(ev));
+            }
+            return copy;
+        }
+    }
+
+    public interface Subscriber {
+        void onMessage(Message message);
+    }
+
+    public enum Backpressure {
+        LATEST, BUFFER
+    }
+
+    // ------------------------------------------------------------------------------
+    // Subscription
+    // ------------------------------------------------------------------------------
+    /**
+     * Returned by subscribe; cancel() stops delivery, including messages that are already queued.
+     */
+    public class Subscription {
+        private final Subscriber mSubscriber;
+        private final EnumSet<Type> mTypes;
+        private final Handler mHandler;
+        private final Backpressure mBackpressure;
+        private final int mBufferSize;
+        private final LinkedHashMap<Type, Message> mLatest = new LinkedHashMap<Type, Message>(); // LATEST backlog
+        private final LinkedList<Message> mBuffer = new LinkedList<Message>();                   // BUFFER backlog
+        private boolean mDrainScheduled = false;
+        private boolean mCancelled = false;
+        private int mDropped = 0;               // Messages dropped or collapsed because of backpressure
+
+        private final Runnable mDrain = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+
+        private Subscription(Subscriber subscriber, EnumSet<Type> types, Handler handler, Backpressure backpressure, int bufferSize) {
+            mSubscriber = subscriber;
+            mTypes = EnumSet.copyOf(types);
+            mHandler = handler;
+            mBackpressure = backpressure;
+            mBufferSize = Math.max(1, bufferSize);
+        }
+
+        public void cancel() {
+            mSubscriptions.remove(this);
+            synchronized (this) {
+                mCancelled = true;
+                mLatest.clear();
+                mBuffer.clear();
+            }
+        }
+
+        public synchronized int getDroppedCount() {
+            return mDropped;
+        }
+
+        private void offer(Message message) {
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+
+                if (mBackpressure == Backpressure.LATEST) {
+                    // Remove first so the message takes its place at the end of the delivery order
+                    if (mLatest.remove(message.type) != null) {
+                        mDropped++;
+                    }
+                    mLatest.put(message.type, message);
+                }
+                else {
+                    if (mBuffer.size() >= mBufferSize) {
+                        mBuffer.removeFirst();
+                        mDropped++;
+                    }
+                    mBuffer.addLast(message);
+                }
+
+                if (mDrainScheduled) {
+                    return;
+                }
+                mDrainScheduled = true;
+            }
+            mHandler.post(mDrain);
+        }
+
+        private void drain() {
+            ArrayList<Message> messages;
+            synchronized (this) {
+                mDrainScheduled = false;
+                if (mCancelled) {
+                    return;
+                }
+                if (mBackpressure == Backpressure.LATEST) {
+                    messages = new ArrayList<Message>(mLatest.values());
+                    mLatest.clear();
+                }
+                else {
+                    messages = new ArrayList<Message>(mBuffer);
+                    mBuffer.clear();
+                }
+            }
+
+            for (Message message : messages) {
+                synchronized (this) {
+                    if (mCancelled) {
+                        return;
+                    }
+                }
+                mSubscriber.onMessage(message);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private final List<Subscription> mSubscriptions = new CopyOnWriteArrayList<Subscription>();
+
+    // ------------------------------------------------------------------------------
+    // Public functionality
+    // ------------------------------------------------------------------------------
+    /**
+     * Subscribes to all messages. 
+     * 
+     * @param handler Handler the subscriber is called on; null for the main thread.
+     * @param bufferSize Only used with Backpressure.BUFFER.
+     */
+    public Subscription subscribe(Subscriber subscriber, Handler handler, Backpressure backpressure, int bufferSize) {
+        return subscribe(subscriber, EnumSet.allOf(Type.class), handler, backpressure, bufferSize);
+    }
+
+    /**
+     * Subscribes to messages of the given types only.
+     * 
+     * @param handler Handler the subscriber is called on; null for the main thread.
+     * @param bufferSize Only used with Backpressure.BUFFER.
+     */
+    public Subscription subscribe(Subscriber subscriber, EnumSet<Type> types, Handler handler, Backpressure backpressure, int bufferSize) {
+        Subscription subscription = new Subscription(subscriber,
+                types,
+                (handler == null) ? new Handler(Looper.getMainLooper()) : handler,
+                backpressure,
+                bufferSize);
+        mSubscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Queues the message for every subscriber; does not block on them. May be called from any thread.
+     */
+    public void publish(Message message) {
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.mTypes.contains(message.type)) {
+                subscription.offer(message);
+            }
+        }
+    }
+
+    /**
+     * Publishes EVENTS_RECEIVED or HISTORY_RECEIVED; the message (and its copy of the events) is only built when 
+     * someone is subscribed to the type. Same rules as the Message constructor otherwise.
+     */
+    public void publishEvents(Type type, STATUS status, String serverUrl, List<iEvent> events) {
+        if (isSubscribed(type)) {
+            publish(new Message(type, status, serverUrl, events));
+        }
+    }
+
+    public boolean isSubscribed(Type type) {
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.mTypes.contains(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getSubscriberCount() {
+        return mSubscriptions.size();
+    }
+
+    /**
+     * Cancels all subscriptions; used when the service goes away.
+     */
+    public void clear() {
+        for (Subscription subscription : mSubscriptions) {
+            subscription.cancel();
+        }
+    }
+}
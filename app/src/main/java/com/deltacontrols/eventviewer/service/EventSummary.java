@@ -0,0 +1,136 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+
+/**
+ * EventSummary is the collapsed view of all transitions of a single event (EventRef) in an EventCache; the latest 
+ * transition, how many transitions were seen, the first/last time and if any of the transitions still need an ack.
+ * Maintained by EventCache as events are added, so the list can show one row per point instead of one per transition.
+ */
+public class EventSummary {
+
+    // ------------------------------------------------------------------------------
+    // Properties
+    // ------------------------------------------------------------------------------
+    private String mEventRef;
+    private iEvent mLatest;             // Latest transition; the live cached event (copied when the summary is copied)
+    private int mTransitionCount;       // Number of transitions seen since the cache was last cleared
+    private int mAckRequiredCount;      // Number of those transitions still in memory that need to be acknowledged
+    private String mFirstTimestamp;     // EnteliwebTimestamp of the first transition seen
+    private String mLastTimestamp;      // EnteliwebTimestamp of the latest transition
+    private boolean mFlapping;          // If the event was flapping as of its latest transition; see FlapDetector
+
+    // ------------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------------
+    public EventSummary(String eventRef) {
+        mEventRef = eventRef;
+    }
+
+    /**
+     * Deep copy; the latest event is copied as well.
+     */
+    public EventSummary(EventSummary other) {
+        mEventRef = other.mEventRef;
+        mLatest = (other.mLatest == null) ? null : new iEvent(other.mLatest);
+        mTransitionCount = other.mTransitionCount;
+        mAckRequiredCount = other.mAckRequiredCount;
+        mFirstTimestamp = other.mFirstTimestamp;
+        mLastTimestamp = other.mLastTimestamp;
+        mFlapping = other.mFlapping;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Read-only properties
+    // ------------------------------------------------------------------------------
+    public String getEventRef() {
+        return mEventRef;
+    }
+
+    public iEvent getLatest() {
+        return mLatest;
+    }
+
+    public int getTransitionCount() {
+        return mTransitionCount;
+    }
+
+    public String getFirstTimestamp() {
+        return mFirstTimestamp;
+    }
+
+    public String getLastTimestamp() {
+        return mLastTimestamp;
+    }
+
+    public boolean isFlapping() {
+        return mFlapping;
+    }
+
+    /**
+     * True if any of the transitions of this event in memory still need to be acknowledged; spilled transitions are not 
+     * counted (see EventCache.spillOne).
+     */
+    public boolean getAckRequired() {
+        return mAckRequiredCount > 0;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Updates; called by EventCache only
+    // ------------------------------------------------------------------------------
+    void record(iEvent ev, boolean flapping) {
+        mTransitionCount++;
+        String timestamp = ev.getEnteliwebTimestamp();
+        if ((mLatest == null) || (ev.compareTo(mLatest) > 0)) {
+            // Pages caught up newest first may record older transitions after newer ones
+            mLatest = ev;
+            mFlapping = flapping;
+            mLastTimestamp = timestamp;
+        }
+        else if (flapping) {
+            // Older transitions can only bring the latest ones closer together, never make them stop flapping
+            mFlapping = true;
+        }
+        if ((mFirstTimestamp == null) || (timestamp.compareTo(mFirstTimestamp) < 0)) {
+            mFirstTimestamp = timestamp;
+        }
+        if (ev.ackRequired()) {
+            mAckRequiredCount++;
+        }
+    }
+
+    /**
+     * Called when one of the transitions of this event changes from ack required to acknowledged, or back.
+     */
+    void ackChanged(boolean ackRequired) {
+        mAckRequiredCount = Math.max(0, mAckRequiredCount + (ackRequired ? 1 : -1));
+    }
+}
@@ -0,0 +1,641 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import android.util.Base64;
+import android.util.Log;
+
+import com.deltacontrols.eventviewer.App;
+import com.deltacontrols.eventviewer.LoginInfo;
+import com.deltacontrols.eweb.support.api.EwebConnection;
+import com.deltacontrols.eweb.support.api.FetchJSON;
+import com.deltacontrols.eweb.support.api.FetchRawResponse;
+import com.deltacontrols.eweb.support.api.FetchXML;
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+import com.deltacontrols.eweb.support.models.UserList;
+import com.deltacontrols.eweb.support.models.iEvent;
+import com.google.gson.Gson;
+
+/**
+ * EwebHttpClient makes the eWEB calls of the app (events, AlarmDetails, ack and users) over HttpURLConnection, instead 
+ * of through the eweb-support FetchJSON/FetchXML tasks. Unlike those it:
+ *  - Keeps connections alive; HttpURLConnection pools a connection once its response has been read to the end and 
+ *    closed, so we never call disconnect() (the eweb-support tasks do, after every request).
+ *  - Asks for gzip responses, which shrinks the event JSON considerably.
+ *  - Decodes the response as it is read, with a read timeout per request.
+ *  - Records requests, latency and bytes (on the wire and decoded) in Metrics.
+ * 
+ * Authentication: rather than sending basic authentication with every request (which eWEB checks every time), the 
+ * client logs in once per server and reuses the session cookie and CSRF token for all calls, logging in again 
+ * when a call comes back 401. If the server does not accept the session login, it falls back to basic 
+ * authentication. Clients are shared per server and login (see forConnection), so the poller and the UI share 
+ * the session. It is only used for servers the EwebConnection connected with basic authentication; callers fall 
+ * back to the EwebConnection otherwise, which keeps its own session. Connecting remains with EwebConnection.
+ * 
+ * The async methods call back on a background thread, with the same results the EwebConnection methods would give.
+ */
+public class EwebHttpClient {
+
+    // ------------------------------------------------------------------------------
+    // Response
+    // ------------------------------------------------------------------------------
+    /**
+     * Raw response of a request; statusCode is 0 if the request failed before a response arrived.
+     */
+    public static class Response {
+        public int statusCode;
+        public String body = "";
+        public long wireBytes;      // As received, i.e. compressed if gzip
+        public long bodyBytes;      // Decoded
+        public long latencyNanos;   // Request to the end of the body
+        public boolean gzip;
+        public String cookies;      // Set-Cookie name=value pairs, as a Cookie header; null if none were set
+
+        public boolean isSuccess() {
+            return statusCode == HttpURLConnection.HTTP_OK;
+        }
+    }
+
+    // ------------------------------------------------------------------------------
+    // Session
+    // ------------------------------------------------------------------------------
+    private static class Session {
+        final String cookie;
+        final String csrfToken;
+
+        Session(String cookie, String csrfToken) {
+            this.cookie = cookie;
+            this.csrfToken = csrfToken;
+        }
+    }
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    public static volatile boolean UseSessions = true;     // False sends basic authentication with every request, as eweb-support does
+
+    private final static String LOGIN_URL = "%s/api/auth/login?alt=json&username=%s&password=%s";
+    private final static String EVENT_LIST_URL = "%s/api/event?alt=json&%s&%s";
+    private final static String ALARM_DETAILS_URL = "%s/api/event/%s/AlarmDetails?alt=json";
+    private final static String ACK_URL = "%s/api/event/ack";
+    private final static String USER_URL = "%s/api/user";
+    private final static int CHAR_BUFFER = 8192;
+    private final static int MAX_ATTEMPTS = 2;  // A pooled connection may have been closed by the server; retry once on a fresh one
+    private final static Session SESSIONLESS = new Session(null, null);    // Sends no credentials; for the login itself
+    private final static ConcurrentHashMap<String, EwebHttpClient> mClients = new ConcurrentHashMap<String, EwebHttpClient>(); // On server and username
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private final String mServerURL;
+    private final String mUsername;
+    private final String mPassword;
+    private final String mAuthorization;        // Basic authentication header
+    private final Object mSessionLock = new Object();
+    private volatile Session mSession;          // Null until logged in
+    private volatile boolean mSessionUnsupported = false;   // The server refused the session login; use basic authentication
+
+    // ------------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------------
+    public EwebHttpClient(String serverURL, String username, String password) {
+        mServerURL = serverURL;
+        mUsername = username;
+        mPassword = password;
+        String credentials = String.format("%s:%s", username, password);
+        mAuthorization = "Basic " + Base64.encodeToString(credentials.getBytes(), Base64.NO_WRAP);
+    }
+
+    /**
+     * Client for the server of the given connection, or null if the connection is not using basic authentication or 
+     * is not connected; use the EwebConnection in that case. Returns the same client for the same server and login; 
+     * a changed password replaces the client (and its session).
+     */
+    public static EwebHttpClient forConnection(EwebConnection eweb, LoginInfo login) {
+        if ((eweb == null) || (login == null) || !eweb.getBasicAuthenticationFlag() || !eweb.isConnected()) {
+            return null;
+        }
+        String serverURL = eweb.getServerURL();
+        if ((serverURL == null) || (serverURL.length() == 0)) {
+            return null;
+        }
+        String key = String.format("%s\n%s", serverURL, login.username);
+        EwebHttpClient client = mClients.get(key);
+        if ((client != null) && !client.mPassword.equals(login.password)) {
+            mClients.remove(key, client);
+            client = null;
+        }
+        if (client == null) {
+            mClients.putIfAbsent(key, new EwebHttpClient(serverURL, login.username, login.password));
+            client = mClients.get(key);
+        }
+        return client;
+    }
+
+    /**
+     * Drops every client, with its credentials and session; on logout.
+     */
+    public static void clearClients() {
+        mClients.clear();
+    }
+
+    /**
+     * True once logged in; false before, or when using basic authentication.
+     */
+    public boolean hasSession() {
+        return mSession != null;
+    }
+
+    // ------------------------------------------------------------------------------
+    // eWEB API
+    // ------------------------------------------------------------------------------
+    public void getEventList(String lastIndex, String maxResults, int readTimeout, GenericCallback<FetchJSON.Result> callback) {
+        getJSON(String.format(EVENT_LIST_URL, mServerURL, lastIndex, maxResults), readTimeout, callback);
+    }
+
+    /**
+     * Follows a "next" url from a previous event list.
+     */
+    public void getNextEventList(String url, int readTimeout, GenericCallback<FetchJSON.Result> callback) {
+        getJSON(url, readTimeout, callback);
+    }
+
+    /**
+     * Calls back with null if the details could not be retrieved.
+     */
+    public void getAlarmDetails(final iEvent event, final GenericCallback<iEvent.iAlarmDetails> callback) {
+        new Thread() {
+            @Override
+            public void run() {
+                Response response = get(String.format(ALARM_DETAILS_URL, mServerURL, event.getIndex()), FetchRawResponse.ReadTimeoutMS);
+                iEvent.iAlarmDetails details = null;
+                if (response.isSuccess()) {
+                    try {
+                        details = new Gson().fromJson(response.body, iEvent.iAlarmDetails.class);
+                    }
+                    catch (Exception e) {
+                        Log.e(App.TAG, "EwebHttpClient: Error parsing AlarmDetails: " + e.getMessage());
+                    }
+                }
+                callback.onCallback(details);
+            }
+        }.start();
+    }
+
+    public void acknowledgeEvent(final iEvent event, final String ackText, final GenericCallback<FetchXML.Result> callback) {
+        final StringBuilder xml = new StringBuilder("<Struct>");
+        xml.append(String.format("<String name=\"EventRef\" value=\"%s\" />", event.getEventRef()));
+        xml.append(String.format("<String name=\"AckText\" value=\"%s\" />", iEvent.encodeXMLString(ackText)));
+        xml.append(String.format("<String name=\"Timestamp\" value=\"%s\" />", event.getRawTimestamp()));
+        xml.append(String.format("<String name=\"ToState\" value=\"%s\" />", event.getToState()));
+        xml.append("<String name=\"Module\" value=\"bacnet\" />");
+        xml.append("</Struct>");
+
+        new Thread() {
+            @Override
+            public void run() {
+                Response response = post(String.format(ACK_URL, mServerURL), "application/xml", xml.toString(), FetchRawResponse.ReadTimeoutMS);
+                callback.onCallback(toXMLResult(response));
+            }
+        }.start();
+    }
+
+    /**
+     * Calls back with an empty list if the users could not be retrieved.
+     */
+    public void getUserList(final GenericCallback<UserList> callback) {
+        new Thread() {
+            @Override
+            public void run() {
+                FetchXML.Result result = toXMLResult(get(String.format(USER_URL, mServerURL), FetchRawResponse.ReadTimeoutMS));
+                UserList users = new UserList();
+                if (result.success && (result.xml != null)) {
+                    try {
+                        NodeList structs = (NodeList) XPathFactory.newInstance().newXPath().compile("//Struct").evaluate(result.xml, XPathConstants.NODESET);
+                        for (int i = 0; i < structs.getLength(); i++) {
+                            Node name = structs.item(i).getAttributes().getNamedItem("name");
+                            if (name != null) {
+                                users.add(name.getNodeValue());
+                            }
+                        }
+                    }
+                    catch (Exception e) {
+                        Log.e(App.TAG, "EwebHttpClient: Error parsing user list: " + e.getMessage());
+                    }
+                }
+                callback.onCallback(users);
+            }
+        }.start();
+    }
+
+    private void getJSON(final String url, final int readTimeout, final GenericCallback<FetchJSON.Result> callback) {
+        new Thread() {
+            @Override
+            public void run() {
+                callback.onCallback(toJSONResult(get(url, readTimeout)));
+            }
+        }.start();
+    }
+
+    // ------------------------------------------------------------------------------
+    // Requests
+    // ------------------------------------------------------------------------------
+    /**
+     * Runs a GET on the calling thread.
+     */
+    public Response get(String url, int readTimeout) {
+        return execute("GET", url, null, null, readTimeout);
+    }
+
+    /**
+     * Runs a POST on the calling thread.
+     */
+    public Response post(String url, String contentType, String body, int readTimeout) {
+        return execute("POST", url, contentType, body, readTimeout);
+    }
+
+    private Response execute(String method, String url, String contentType, String body, int readTimeout) {
+        long start = System.nanoTime();
+        Response response;
+
+        Session session = null;
+        if (UseSessions && !mSessionUnsupported) {
+            session = mSession;
+            if (session == null) {
+                response = login(null, readTimeout);
+                session = mSession;
+                if ((session == null) && !mSessionUnsupported) {
+                    // Could not log in (e.g. 401); that is the result of the call
+                    return finish(response, start);
+                }
+            }
+        }
+
+        response = send(method, url, contentType, body, readTimeout, session);
+
+        if ((session != null) && (response.statusCode == HttpURLConnection.HTTP_UNAUTHORIZED)) {
+            // The session has expired; log in again and repeat the call once. Nothing was done on a 401, so a POST is safe to repeat too.
+            Response relogin = login(session, readTimeout);
+            session = mSession;
+            if ((session == null) && !mSessionUnsupported) {
+                return finish(relogin, start);
+            }
+            response = send(method, url, contentType, body, readTimeout, session);
+        }
+
+        return finish(response, start);
+    }
+
+    private Response finish(Response response, long start) {
+        response.latencyNanos = System.nanoTime() - start;
+        Metrics.histogram(Metrics.HTTP_REQUEST).record(response.latencyNanos);
+        Metrics.counter(Metrics.HTTP_BYTES_WIRE).add(response.wireBytes);
+        Metrics.counter(Metrics.HTTP_BYTES_DECODED).add(response.bodyBytes);
+        if (!response.isSuccess()) {
+            Metrics.counter(Metrics.HTTP_ERRORS).inc();
+        }
+        return response;
+    }
+
+    /**
+     * Sends the request with the session, or with basic authentication if session is null.
+     */
+    private Response send(String method, String url, String contentType, String body, int readTimeout, Session session) {
+        Response response = new Response();
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            Response attempted = new Response();
+            try {
+                response = attempt(method, url, contentType, body, readTimeout, session, attempted);
+                break;
+            }
+            catch (IOException e) {
+                String message = (e.getMessage() == null) ? null : e.getMessage().replace(url, withoutQuery(url));
+                Log.e(App.TAG, String.format("EwebHttpClient: %s %s failed (attempt %d): %s", method, withoutQuery(url), attempt, message));
+
+                // Only a GET is safe to repeat (a POST may already have been applied), and only if a pooled connection 
+                // turned out to be closed before any response arrived. A timeout is not repeated; the server is slow, 
+                // and the caller's timeout already covers it.
+                if (!"GET".equals(method) || (attempted.statusCode != 0) || !isStaleConnection(e)) {
+                    break;
+                }
+            }
+        }
+        return response;
+    }
+
+    /**
+     * True if the error is what a pooled connection the server has since closed gives: the connection is reset, or 
+     * ends, as the request is sent.
+     */
+    private static boolean isStaleConnection(IOException e) {
+        if ((e instanceof SocketTimeoutException) || (e instanceof ConnectException)) {
+            return false;
+        }
+        if ((e instanceof EOFException) || (e instanceof SocketException)) {
+            return true;
+        }
+        return (e.getMessage() != null) && e.getMessage().contains("unexpected end of stream");
+    }
+
+    /**
+     * Logs in and sets mSession, unless another thread already replaced the stale session (null if there was none). 
+     * Returns the login response; null if no login was needed. If the server does not support the session login, 
+     * sets mSessionUnsupported instead, so that basic authentication is used from then on.
+     */
+    private Response login(Session stale, int readTimeout) {
+        synchronized (mSessionLock) {
+            if (mSession != stale) {
+                return null;
+            }
+            mSession = null;
+
+            Response response;
+            try {
+                String url = String.format(LOGIN_URL, mServerURL, URLEncoder.encode(mUsername, "UTF-8"), URLEncoder.encode(mPassword, "UTF-8"));
+                response = send("GET", url, null, null, readTimeout, SESSIONLESS);
+            }
+            catch (UnsupportedEncodingException e) {
+                response = new Response();
+            }
+            Metrics.counter(Metrics.HTTP_LOGINS).inc();
+
+            if (!response.isSuccess() && (response.statusCode != HttpURLConnection.HTTP_NOT_FOUND)) {
+                // Bad credentials, a server error or the server is not reachable; basic authentication would fail too
+                return response;
+            }
+
+            String csrfToken = null;
+            boolean ok = false;
+            if (response.isSuccess()) {
+                try {
+                    JSONObject json = new JSONObject(new JSONTokener(response.body));
+                    ok = "OK".equals(json.optString("value"));
+                    Iterator<?> keys = json.keys();
+                    while (keys.hasNext()) {
+                        String key = keys.next().toString();
+                        if (key.contains("_csrfToken")) {
+                            csrfToken = json.optString(key);
+                        }
+                    }
+                }
+                catch (Exception e) {
+                    ok = false;
+                }
+            }
+
+            if (ok && (response.cookies != null)) {
+                mSession = new Session(response.cookies, csrfToken);
+                Log.i(App.TAG, String.format("EwebHttpClient: Logged in to %s", mServerURL));
+            }
+            else {
+                mSessionUnsupported = true;
+                Log.i(App.TAG, String.format("EwebHttpClient: Session login not supported by %s (%d); using basic authentication", mServerURL, response.statusCode));
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Fills in response; its statusCode stays 0 unless a response arrived.
+     */
+    private Response attempt(String method, String url, String contentType, String body, int readTimeout, Session session, Response response) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(FetchRawResponse.ConnectionTimeoutMS);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Accept-Encoding", "gzip");   // Set explicitly, so we decode (and count) it ourselves
+        if (session == SESSIONLESS) {
+            // Logging in
+        }
+        else if (session != null) {
+            connection.setRequestProperty("Cookie", session.cookie);
+            if (session.csrfToken != null) {
+                connection.setRequestProperty("X-CSRF-Token", session.csrfToken);
+            }
+        }
+        else {
+            connection.setRequestProperty("Authorization", mAuthorization);
+        }
+
+        if (body != null) {
+            byte[] bytes = body.getBytes("UTF-8");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(bytes.length);
+            connection.setRequestProperty("Content-Type", contentType);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(bytes);
+            }
+            finally {
+                out.close();
+            }
+        }
+
+        response.statusCode = connection.getResponseCode();
+        response.cookies = cookies(connection);
+
+        // Error responses have their body on the error stream; it must be read to the end too, or the connection 
+        // cannot be reused.
+        InputStream raw = (response.statusCode < HttpURLConnection.HTTP_BAD_REQUEST) ? connection.getInputStream() : connection.getErrorStream();
+        if (raw == null) {
+            return response;
+        }
+
+        CountingInputStream wire = new CountingInputStream(raw);
+        try {
+            response.gzip = "gzip".equalsIgnoreCase(connection.getContentEncoding());
+            InputStream decoded = response.gzip ? new GZIPInputStream(wire) : wire;
+            response.body = readToEnd(decoded, connection.getContentLength(), response);
+            while (wire.read() != -1) {
+                // Drain anything after the gzip trailer
+            }
+        }
+        finally {
+            wire.close();
+            response.wireBytes = wire.getCount();
+        }
+        return response;
+    }
+
+    /**
+     * The url without its query, for logging; the login url carries the username and password.
+     */
+    private static String withoutQuery(String url) {
+        int query = url.indexOf('?');
+        return (query == -1) ? url : url.substring(0, query);
+    }
+
+    /**
+     * The name=value pairs of the Set-Cookie headers, joined as a Cookie header; null if there are none.
+     */
+    private static String cookies(HttpURLConnection connection) {
+        StringBuilder cookies = new StringBuilder();
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if ((header.getKey() == null) || !header.getKey().equalsIgnoreCase("Set-Cookie")) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                int end = value.indexOf(';');
+                if (cookies.length() > 0) {
+                    cookies.append("; ");
+                }
+                cookies.append((end < 0) ? value : value.substring(0, end));
+            }
+        }
+        return (cookies.length() == 0) ? null : cookies.toString();
+    }
+
+    /**
+     * Reads the decoded body as it arrives, counting its bytes into response.bodyBytes.
+     */
+    private static String readToEnd(InputStream in, int contentLength, Response response) throws IOException {
+        CountingInputStream counted = new CountingInputStream(in);
+        Reader reader = new InputStreamReader(counted, "UTF-8");
+        StringBuilder body = new StringBuilder(contentLength > 0 ? contentLength : CHAR_BUFFER);
+        char[] buffer = new char[CHAR_BUFFER];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            body.append(buffer, 0, read);
+        }
+        response.bodyBytes = counted.getCount();
+        return body.toString();
+    }
+
+    // ------------------------------------------------------------------------------
+    // Results as given by eweb-support
+    // ------------------------------------------------------------------------------
+    /**
+     * As FetchJSON gives it; json is empty if the body is not JSON.
+     */
+    public static FetchJSON.Result toJSONResult(Response response) {
+        FetchJSON.Result result = new FetchJSON.Result();
+        result.statusCode = response.statusCode;
+        result.success = response.isSuccess();
+        result.rawResponse = response.body;
+        try {
+            result.json = new JSONObject(new JSONTokener(response.body));
+        }
+        catch (Exception e) {
+            result.json = new JSONObject();
+        }
+        return result;
+    }
+
+    /**
+     * As FetchXML gives it; xml is null if the body is not XML.
+     */
+    public static FetchXML.Result toXMLResult(Response response) {
+        FetchXML.Result result = new FetchXML.Result();
+        result.statusCode = response.statusCode;
+        result.success = response.isSuccess();
+        result.rawResponse = response.body;
+        if (response.body.length() > 0) {
+            try {
+                Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(response.body)));
+                result.xml = doc;
+            }
+            catch (Exception e) {
+                result.xml = null;
+            }
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Helpers
+    // ------------------------------------------------------------------------------
+    private static class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
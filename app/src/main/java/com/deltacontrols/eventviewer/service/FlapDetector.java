@@ -0,0 +1,355 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+
+/**
+ * FlapDetector watches the events entering an EventCache for flapping points and alarm storms, in bounded memory.
+ * 
+ * - Flapping: an EventRef with FLAP_THRESHOLD or more status changes within FLAP_WINDOW_SECONDS. The latest FLAP_THRESHOLD 
+ *   transition times are kept per EventRef, for at most MAX_TRACKED_REFS EventRefs (least recently changed are dropped).
+ * - Storm: STORM_THRESHOLD or more events (of any kind) within the last STORM_WINDOW_SECONDS, counted in one second 
+ *   buckets. The storm ends once the rate drops below half the threshold, or once no event was counted for 
+ *   STORM_WINDOW_SECONDS of the Platform clock (a quiet site sends no events that would lower the rate).
+ * 
+ * Time is taken from the enteliWEB timestamp of the events, so a replay of recorded events is detected the same way 
+ * as the live events were. Events may arrive out of order while catching up, since eWEB returns the newest page first; 
+ * events older than the storm window are counted in a second set of buckets that moves back in time, so a storm in 
+ * the caught up events is found as well. That only works if they are recorded newest first (see 
+ * EventCache.addOlderPage). Not thread safe; EventCache calls it while holding its own lock.
+ */
+public class FlapDetector {
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    public final static int FLAP_THRESHOLD = 6;             // Status changes within the window for an EventRef to be flapping
+    public final static int FLAP_WINDOW_SECONDS = 10 * 60;
+    public final static int STORM_THRESHOLD = 120;          // Events within the window for the site to be in a storm
+    public final static int STORM_WINDOW_SECONDS = 60;
+    private final static int MAX_TRACKED_REFS = 256;
+
+    // ------------------------------------------------------------------------------
+    // Private classes
+    // ------------------------------------------------------------------------------
+    /**
+     * Latest FLAP_THRESHOLD transition times (seconds) of an EventRef, in ASC order; the order they are added in does
+     * not matter.
+     */
+    private static class TransitionTimes {
+        long[] times = new long[FLAP_THRESHOLD];
+        int count = 0;
+
+        void add(long time) {
+            int i;
+            if (count < FLAP_THRESHOLD) {
+                i = count++;
+            }
+            else if (time > times[0]) {
+                // Full; drop the oldest time
+                System.arraycopy(times, 1, times, 0, FLAP_THRESHOLD - 1);
+                i = FLAP_THRESHOLD - 1;
+            }
+            else {
+                return; // Older than all kept times
+            }
+
+            // Insertion sort; only FLAP_THRESHOLD entries
+            while ((i > 0) && (times[i - 1] > time)) {
+                times[i] = times[i - 1];
+                i--;
+            }
+            times[i] = time;
+        }
+
+        /**
+         * Holds FLAP_THRESHOLD times, and the oldest is within the window of the newest.
+         */
+        boolean isFlapping() {
+            return (count == FLAP_THRESHOLD) && ((times[FLAP_THRESHOLD - 1] - times[0]) <= FLAP_WINDOW_SECONDS);
+        }
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    /**
+     * Transition times of each tracked EventRef; ordered on last change so the least recently changed EventRef is dropped first.
+     */
+    private LinkedHashMap<String, TransitionTimes> mTransitions = new LinkedHashMap<String, TransitionTimes>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TransitionTimes> eldest) {
+            return size() > MAX_TRACKED_REFS;
+        }
+    };
+
+    private int[] mBuckets = new int[STORM_WINDOW_SECONDS]; // Events per second, ring indexed on (time % window)
+    private long mLastBucketTime = 0;                       // Time (seconds) of the newest bucket
+    private int mWindowCount = 0;                           // Sum of mBuckets
+    private int[] mOlderBuckets = new int[STORM_WINDOW_SECONDS]; // As mBuckets, for events older than the window; moves back in time
+    private long mOldestBucketTime = 0;                     // Time (seconds) of the oldest of mOlderBuckets
+    private int mOlderWindowCount = 0;                      // Sum of mOlderBuckets
+    private boolean mStorm = false;
+    private int mStormCount = 0;                            // Most events within a window since the storm started
+    private long mLastRateMillis = 0;                       // Platform clock time of the last event counted towards the rate; 0 if none
+
+    private long mRecordCount = 0;                          // For measuring the overhead of the detector
+    private long mRecordNanos = 0;
+
+    // ------------------------------------------------------------------------------
+    // Public functions
+    // ------------------------------------------------------------------------------
+    /**
+     * Records an event that has just entered the cache.
+     * 
+     * @return true if the EventRef of the event is now flapping.
+     */
+    public boolean record(iEvent ev) {
+        long start = Platform.clock().nanoTime();
+
+        long time = parseTimestamp(ev.getEnteliwebTimestamp());
+        recordRate(time);
+
+        boolean flapping = false;
+        if (iEvent.TransitionAction.STATUSCHANGE.toString().equals(ev.getAction())) {
+            flapping = recordTransition(ev.getEventRef(), time);
+        }
+        else {
+            flapping = isFlapping(ev.getEventRef());
+        }
+
+        mRecordCount++;
+        mRecordNanos += Platform.clock().nanoTime() - start;
+        return flapping;
+    }
+
+    /**
+     * Records an event from the history before the first fetch; it counts towards flapping, but not towards the rate 
+     * (old history is not a storm now).
+     * 
+     * @return true if the EventRef of the event is now flapping.
+     */
+    public boolean recordHistory(iEvent ev) {
+        if (iEvent.TransitionAction.STATUSCHANGE.toString().equals(ev.getAction())) {
+            return recordTransition(ev.getEventRef(), parseTimestamp(ev.getEnteliwebTimestamp()));
+        }
+        return isFlapping(ev.getEventRef());
+    }
+
+    /**
+     * True if the EventRef had FLAP_THRESHOLD or more status changes within FLAP_WINDOW_SECONDS of its last change.
+     */
+    public boolean isFlapping(String eventRef) {
+        TransitionTimes times = mTransitions.get(eventRef);
+        return (times != null) && times.isFlapping();
+    }
+
+    public ArrayList<String> getFlappingRefs() {
+        ArrayList<String> refs = new ArrayList<String>();
+        for (Map.Entry<String, TransitionTimes> entry : mTransitions.entrySet()) {
+            if (entry.getValue().isFlapping()) {
+                refs.add(entry.getKey());
+            }
+        }
+        return refs;
+    }
+
+    public boolean isStorm() {
+        expireIfQuiet();
+        return mStorm;
+    }
+
+    /**
+     * Number of events within the last STORM_WINDOW_SECONDS (of event time); 0 once no event was counted for a window.
+     */
+    public int getWindowCount() {
+        expireIfQuiet();
+        return mWindowCount;
+    }
+
+    /**
+     * Most events within STORM_WINDOW_SECONDS during the current storm; this can be a window of caught up events rather 
+     * than the last one. 0 if there is no storm.
+     */
+    public int getStormCount() {
+        return isStorm() ? mStormCount : 0;
+    }
+
+    /**
+     * Average time spent in record(), in nanoseconds.
+     */
+    public long getAverageRecordNanos() {
+        return (mRecordCount == 0) ? 0 : mRecordNanos / mRecordCount;
+    }
+
+    public void clear() {
+        mTransitions.clear();
+        clearRate();
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private functions
+    // ------------------------------------------------------------------------------
+    private boolean recordTransition(String eventRef, long time) {
+        // Remove and put back to move the EventRef to the end of the map
+        TransitionTimes times = mTransitions.remove(eventRef);
+        if (times == null) {
+            times = new TransitionTimes();
+        }
+        mTransitions.put(eventRef, times);
+
+        times.add(time);
+        return times.isFlapping();
+    }
+
+    private void recordRate(long time) {
+        expireIfQuiet();
+        mLastRateMillis = Platform.clock().currentTimeMillis();
+
+        if (time > mLastBucketTime) {
+            // Expire the buckets between the last event and this one
+            long expired = Math.min(time - mLastBucketTime, STORM_WINDOW_SECONDS);
+            for (long t = time - expired + 1; t <= time; t++) {
+                int i = (int) (t % STORM_WINDOW_SECONDS);
+                mWindowCount -= mBuckets[i];
+                mBuckets[i] = 0;
+            }
+            mLastBucketTime = time;
+        }
+        else if (time <= mLastBucketTime - STORM_WINDOW_SECONDS) {
+            // Older than the window; does not count towards the current rate, but may have been a storm of its own
+            recordOlderRate(time);
+            return;
+        }
+
+        mBuckets[(int) (time % STORM_WINDOW_SECONDS)]++;
+        mWindowCount++;
+
+        if (mWindowCount >= STORM_THRESHOLD) {
+            startStorm(mWindowCount);
+        }
+        else if (mStorm && (mWindowCount < STORM_THRESHOLD / 2)) {
+            mStorm = false;
+            mStormCount = 0;
+        }
+    }
+
+    /**
+     * Same as recordRate, for events older than the window while catching up; these arrive newest first, so the window 
+     * moves back in time. The storm is only started here, it ends once the current rate is low again.
+     */
+    private void recordOlderRate(long time) {
+        if ((mOldestBucketTime == 0) || (time >= mOldestBucketTime + STORM_WINDOW_SECONDS)) {
+            // First older event, or newer than the older window (a new catch up); start over
+            mOlderBuckets = new int[STORM_WINDOW_SECONDS];
+            mOlderWindowCount = 0;
+            mOldestBucketTime = time;
+        }
+        else if (time < mOldestBucketTime) {
+            // Expire the buckets that fell off the newer end of the window; they are reused for the seconds from this 
+            // event up to the last one
+            long expired = Math.min(mOldestBucketTime - time, STORM_WINDOW_SECONDS);
+            for (long t = time; t < time + expired; t++) {
+                int i = (int) (t % STORM_WINDOW_SECONDS);
+                mOlderWindowCount -= mOlderBuckets[i];
+                mOlderBuckets[i] = 0;
+            }
+            mOldestBucketTime = time;
+        }
+
+        mOlderBuckets[(int) (time % STORM_WINDOW_SECONDS)]++;
+        mOlderWindowCount++;
+
+        if (mOlderWindowCount >= STORM_THRESHOLD) {
+            startStorm(mOlderWindowCount);
+        }
+    }
+
+    /**
+     * Event time only moves on as events arrive; once none were counted for a whole window of the Platform clock, the 
+     * window is empty whatever the event times were, and any storm is over.
+     */
+    private void expireIfQuiet() {
+        if ((mLastRateMillis != 0) && (Platform.clock().currentTimeMillis() - mLastRateMillis >= STORM_WINDOW_SECONDS * 1000L)) {
+            clearRate();
+        }
+    }
+
+    private void clearRate() {
+        mBuckets = new int[STORM_WINDOW_SECONDS];
+        mLastBucketTime = 0;
+        mWindowCount = 0;
+        mOlderBuckets = new int[STORM_WINDOW_SECONDS];
+        mOldestBucketTime = 0;
+        mOlderWindowCount = 0;
+        mStorm = false;
+        mStormCount = 0;
+        mLastRateMillis = 0;
+    }
+
+    private void startStorm(int windowCount) {
+        mStormCount = mStorm ? Math.max(mStormCount, windowCount) : windowCount;
+        mStorm = true;
+    }
+
+    /**
+     * Seconds since the epoch (UTC, ignoring time zones) of an enteliWEB timestamp, "yyyy-MM-dd HH:mm:ss". Parsed by 
+     * hand since this runs for every event. Falls back to the current time if the timestamp cannot be read.
+     */
+    static long parseTimestamp(String timestamp) {
+        try {
+            int year = Integer.parseInt(timestamp.substring(0, 4));
+            int month = Integer.parseInt(timestamp.substring(5, 7));
+            int day = Integer.parseInt(timestamp.substring(8, 10));
+            int hour = Integer.parseInt(timestamp.substring(11, 13));
+            int minute = Integer.parseInt(timestamp.substring(14, 16));
+            int second = Integer.parseInt(timestamp.substring(17, 19));
+
+            // Days from civil; see http://howardhinnant.github.io/date_algorithms.html
+            int y = (month <= 2) ? year - 1 : year;
+            int era = y / 400;
+            int yoe = y - era * 400;
+            int doy = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+            int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+            long days = (long) era * 146097 + doe - 719468;
+
+            return days * 86400 + hour * 3600 + minute * 60 + second;
+        } 
+        catch (Exception e) {
+            return Platform.clock().currentTimeMillis() / 1000;
+        }
+    }
+}
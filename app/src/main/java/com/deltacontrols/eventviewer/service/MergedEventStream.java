@@ -0,0 +1,138 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+
+/**
+ * MergedEventStream produces a single, timestamp ordered view over the event caches of several servers. 
+ * Each cache is already ordered on index (and therefore time) for its own server, so the caches are merged with a 
+ * k-way merge, walking each cache from its newest event; only the events that make it into the merged view are copied.
+ */
+public class MergedEventStream {
+
+    // ------------------------------------------------------------------------------
+    // Private classes
+    // ------------------------------------------------------------------------------
+    /**
+     * Head of one of the caches being merged.
+     */
+    private static class Cursor {
+        iEvent head;
+        Iterator<iEvent> rest;
+
+        Cursor(Iterator<iEvent> it) {
+            rest = it;
+            head = it.next();
+        }
+
+        boolean advance() {
+            head = rest.hasNext() ? rest.next() : null;
+            return (head != null);
+        }
+    }
+
+    /**
+     * Newest first; on the enteliWEB timestamp ("yyyy-MM-dd HH:mm:ss", so it sorts as a string), then on index.
+     */
+    private final static Comparator<Cursor> NEWEST_FIRST = new Comparator<Cursor>() {
+        @Override
+        public int compare(Cursor lhs, Cursor rhs) {
+            int result = compareTimestamp(rhs.head, lhs.head);
+            return (result != 0) ? result : rhs.head.compareTo(lhs.head);
+        }
+    };
+
+    // ------------------------------------------------------------------------------
+    // Public functions
+    // ------------------------------------------------------------------------------
+    /**
+     * Returns a deep copy of the newest maxEvents events across all caches, in ASC order (oldest first) like 
+     * EventCache.getCopy. The caches are locked for the duration of the merge so they cannot change underneath it.
+     */
+    public static ArrayList<iEvent> getMergedCopy(List<EventCache> caches, int maxEvents) {
+        if (caches.size() == 1) {
+            return caches.get(0).getCopy();
+        }
+
+        ArrayList<iEvent> result = new ArrayList<iEvent>();
+        lockAndMerge(caches, 0, maxEvents, result);
+        Collections.reverse(result);
+        return result;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private functions
+    // ------------------------------------------------------------------------------
+    /**
+     * Takes the lock of each cache in list order (always the same order, so merges cannot deadlock each other) and 
+     * then merges.
+     */
+    private static void lockAndMerge(List<EventCache> caches, int i, int maxEvents, ArrayList<iEvent> result) {
+        if (i == caches.size()) {
+            merge(caches, maxEvents, result);
+            return;
+        }
+
+        synchronized (caches.get(i)) {
+            lockAndMerge(caches, i + 1, maxEvents, result);
+        }
+    }
+
+    private static void merge(List<EventCache> caches, int maxEvents, ArrayList<iEvent> result) {
+        PriorityQueue<Cursor> heads = new PriorityQueue<Cursor>(Math.max(1, caches.size()), NEWEST_FIRST);
+        for (EventCache cache : caches) {
+            Iterator<iEvent> it = cache.descendingIterator();
+            if (it.hasNext()) {
+                heads.add(new Cursor(it));
+            }
+        }
+
+        while ((result.size() < maxEvents) && !heads.isEmpty()) {
+            Cursor newest = heads.poll();
+            result.add(new iEvent(newest.head));
+            if (newest.advance()) {
+                heads.add(newest);
+            }
+        }
+    }
+
+    private static int compareTimestamp(iEvent lhs, iEvent rhs) {
+        String l = (lhs.getEnteliwebTimestamp() == null) ? "" : lhs.getEnteliwebTimestamp();
+        String r = (rhs.getEnteliwebTimestamp() == null) ? "" : rhs.getEnteliwebTimestamp();
+        return l.compareTo(r);
+    }
+}
@@ -0,0 +1,277 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+import com.deltacontrols.eventviewer.App;
+
+/**
+ * Metrics is a small process wide registry of counters, gauges and latency histograms for the poll cycle; it is cheap 
+ * enough to leave on in production. Metrics are created on first use, by name; see the name constants below for what 
+ * is recorded where. The registry is shown in the (hidden) diagnostics dialog of MainActivity, and can be exported 
+ * to a file from there.
+ */
+public class Metrics {
+
+    // ------------------------------------------------------------------------------
+    // Metric names
+    // ------------------------------------------------------------------------------
+    public final static String POLL_FIRST_DATA = "poll.first_data";              // Poller opened (service start) to its first successful poll
+    public final static String POLL_SCHEDULE_DELAY = "poll.schedule_delay";      // How late doWork ran, compared to the refresh interval
+    public final static String POLL_REQUEST_PAGE = "poll.request_page";          // Request to response, per page
+    public final static String POLL_PROBE = "poll.probe";                        // Request to response of the latest index probe
+    public final static String POLL_FETCHES = "poll.fetches";                    // Full fetches started
+    public final static String POLL_FETCHES_AVOIDED = "poll.fetches_avoided";    // Polls the probe completed without a full fetch
+    public final static String POLL_PAGE_SIZE = "poll.page_size";                // Gauges, per server; see PageSizer. Next max-results,
+    public final static String POLL_PAGE_MS = "poll.page_ms";                    // how long the last page took,
+    public final static String POLL_PAGE_EVENTS_PER_SECOND = "poll.page_events_per_s";  // and the average page throughput
+    public final static String POLL_PROBE_TIMEOUT = "poll.probe_timeout_ms";     // Gauges, per server; see AdaptiveTimeout
+    public final static String POLL_PAGE_TIMEOUT = "poll.page_timeout_ms";
+    public final static String CIRCUIT_OPENED = "circuit.opened";                // Failures that left a CircuitBreaker open
+    public final static String CIRCUIT_SKIPPED = "circuit.skipped";              // Polls skipped while open
+    public final static String POLL_PARSE = "poll.parse";                        // iEventList.fromJson, per page
+    public final static String POLL_BYTES_RECEIVED = "poll.bytes_received";      // Size of the raw responses
+    public final static String POLL_PAGES = "poll.pages";
+    public final static String POLL_BACKFILL_PAGES = "poll.backfill_pages";      // Pages of older history; see ServerPoller.loadOlder
+    public final static String POLL_ERRORS = "poll.errors";
+    public final static String HTTP_REQUEST = "http.request";                    // EwebHttpClient request to the end of the response
+    public final static String HTTP_BYTES_WIRE = "http.bytes_wire";              // EwebHttpClient bytes received, as sent (gzip)
+    public final static String HTTP_BYTES_DECODED = "http.bytes_decoded";        // EwebHttpClient bytes received, decoded
+    public final static String HTTP_ERRORS = "http.errors";
+    public final static String HTTP_LOGINS = "http.logins";                      // EwebHttpClient session logins, including re-logins after a 401
+    public final static String CACHE_ADD_PAGE = "cache.add_page";                // EventCache add/addOlderPage, per page
+    public final static String CACHE_EVENTS_ADDED = "cache.events_added";
+    public final static String CACHE_EVENTS = "cache.events";                    // Gauges; updated on every publish
+    public final static String CACHE_BYTES = "cache.estimated_bytes";
+    public final static String CACHE_FLAP_RECORD_NS = "cache.flap_record_ns";
+    public final static String CACHE_HYDRATE = "cache.hydrate";                  // Loading the cache file at startup
+    public final static String PERSIST_WRITE = "persist.write";                  // Writing the cache file
+    public final static String NOTIFY_EMITTED = "notify.emitted";
+    public final static String NOTIFY_SUPPRESSED = "notify.suppressed";
+    public final static String UI_PUBLISH_TO_RENDER = "ui.publish_to_render";    // STATE_CHANGED published to list synced
+    public final static String UI_FILTER = "ui.filter";                          // Filter started to results shown
+
+    // ------------------------------------------------------------------------------
+    // Metric types
+    // ------------------------------------------------------------------------------
+    public static class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void inc() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long n) {
+            mValue.addAndGet(n);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+    }
+
+    public static class Gauge {
+        private volatile long mValue;
+
+        public void set(long value) {
+            mValue = value;
+        }
+
+        public long get() {
+            return mValue;
+        }
+    }
+
+    /**
+     * Latency histogram with power of two buckets of microseconds; bucket i holds values below 2^i us. Percentiles are 
+     * therefore upper bounds, accurate to a factor of two, which is plenty to tell where the time goes.
+     */
+    public static class Histogram {
+        private final static int BUCKETS = 32;  // 2^31 us is over half an hour
+        private final long[] mBuckets = new long[BUCKETS];
+        private long mCount;
+        private long mSumNanos;
+        private long mMaxNanos;
+
+        public synchronized void record(long nanos) {
+            if (nanos < 0) {
+                return;
+            }
+            long micros = nanos / 1000;
+            int bucket = (micros == 0) ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            mBuckets[bucket]++;
+            mCount++;
+            mSumNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+        }
+
+        /**
+         * Records the time since startNanos (from System.nanoTime).
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        /**
+         * Upper bound of the p-th percentile (0-100), in nanoseconds.
+         */
+        public synchronized long getPercentileNanos(int p) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (mCount * p + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    return Math.min(mMaxNanos, (1L << i) * 1000);
+                }
+            }
+            return mMaxNanos;
+        }
+
+        public synchronized String describe() {
+            if (mCount == 0) {
+                return "n=0";
+            }
+            return String.format("n=%d avg=%.1fms p50<=%.1fms p90<=%.1fms p99<=%.1fms max=%.1fms",
+                    mCount,
+                    (mSumNanos / (double) mCount) / 1e6,
+                    getPercentileNanos(50) / 1e6,
+                    getPercentileNanos(90) / 1e6,
+                    getPercentileNanos(99) / 1e6,
+                    mMaxNanos / 1e6);
+        }
+    }
+
+    // ------------------------------------------------------------------------------
+    // Registry
+    // ------------------------------------------------------------------------------
+    private final static ConcurrentHashMap<String, Counter> mCounters = new ConcurrentHashMap<String, Counter>();
+    private final static ConcurrentHashMap<String, Gauge> mGauges = new ConcurrentHashMap<String, Gauge>();
+    private final static ConcurrentHashMap<String, Histogram> mHistograms = new ConcurrentHashMap<String, Histogram>();
+
+    public static Counter counter(String name) {
+        Counter metric = mCounters.get(name);
+        if (metric == null) {
+            mCounters.putIfAbsent(name, new Counter());
+            metric = mCounters.get(name);
+        }
+        return metric;
+    }
+
+    public static Gauge gauge(String name) {
+        Gauge metric = mGauges.get(name);
+        if (metric == null) {
+            mGauges.putIfAbsent(name, new Gauge());
+            metric = mGauges.get(name);
+        }
+        return metric;
+    }
+
+    public static Histogram histogram(String name) {
+        Histogram metric = mHistograms.get(name);
+        if (metric == null) {
+            mHistograms.putIfAbsent(name, new Histogram());
+            metric = mHistograms.get(name);
+        }
+        return metric;
+    }
+
+    /**
+     * Human readable dump of all metrics, one per line, sorted by name.
+     */
+    public static String report() {
+        ArrayList<String> lines = new ArrayList<String>();
+        for (String name : mCounters.keySet()) {
+            lines.add(String.format("%s: %d", name, mCounters.get(name).get()));
+        }
+        for (String name : mGauges.keySet()) {
+            lines.add(String.format("%s: %d", name, mGauges.get(name).get()));
+        }
+        for (String name : mHistograms.keySet()) {
+            lines.add(String.format("%s: %s", name, mHistograms.get(name).describe()));
+        }
+        Collections.sort(lines);
+
+        StringBuilder report = new StringBuilder();
+        for (String line : lines) {
+            report.append(line).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes report() to the given file, with a timestamp header.
+     * 
+     * @return false if the file could not be written.
+     */
+    public static boolean export(File file) {
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(file);
+            fos.write(String.format("Event Viewer metrics, %s\n\n%s", new Date().toString(), report()).getBytes("UTF-8"));
+            return true;
+        } 
+        catch (IOException e) {
+            Log.e(App.TAG, "Metrics export failed: " + e.getMessage());
+            return false;
+        } 
+        finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } 
+                catch (IOException e) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+
+    public static void reset() {
+        mCounters.clear();
+        mGauges.clear();
+        mHistograms.clear();
+    }
+}
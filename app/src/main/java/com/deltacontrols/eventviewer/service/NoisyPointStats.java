@@ -0,0 +1,200 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+import com.google.gson.Gson;
+
+/**
+ * NoisyPointStats tracks which points generate the most events, by EventRef and by InputRef, for the current hour and
+ * the current day (of event time). Each uses a TopKCounter, so memory is constant however many points a site has.
+ * Fed from the fetch path with every new event, and stored as JSON so the statistics survive a restart.
+ * 
+ * The windows are fixed windows of event time, not sliding ones: the counts start from zero at the top of each hour 
+ * and at midnight (server clock), so just after a boundary they cover only a few minutes. An event older than the 
+ * current window (a late page, or history loaded by a backfill) is not counted, since its window is already cleared.
+ */
+public class NoisyPointStats {
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    public static enum Window {
+        HOUR(60 * 60),
+        DAY(24 * 60 * 60);
+
+        public final int seconds;
+
+        Window(int seconds) {
+            this.seconds = seconds;
+        }
+    }
+
+    private final static String TEMP_SUFFIX = ".tmp";
+    private final static int COUNTERS = 64;     // Counters per window; results are reliable for the top ~1/4 of these
+
+    // ------------------------------------------------------------------------------
+    // Properties
+    // ------------------------------------------------------------------------------
+    private TopKCounter mEventsHour = new TopKCounter(COUNTERS);
+    private TopKCounter mEventsDay = new TopKCounter(COUNTERS);
+    private TopKCounter mInputsHour = new TopKCounter(COUNTERS);
+    private TopKCounter mInputsDay = new TopKCounter(COUNTERS);
+    private long mHourStart = 0;                // Start (seconds, event time) of the current hour window
+    private long mDayStart = 0;                 // Start (seconds, event time) of the current day window
+
+    // ------------------------------------------------------------------------------
+    // Public functions
+    // ------------------------------------------------------------------------------
+    public synchronized void record(iEvent ev) {
+        long time = FlapDetector.parseTimestamp(ev.getEnteliwebTimestamp());
+
+        // Start new windows as event time moves on; late events for an older window are not counted
+        long hourStart = time - (time % Window.HOUR.seconds);
+        if (hourStart > mHourStart) {
+            mHourStart = hourStart;
+            mEventsHour.clear();
+            mInputsHour.clear();
+        }
+        long dayStart = time - (time % Window.DAY.seconds);
+        if (dayStart > mDayStart) {
+            mDayStart = dayStart;
+            mEventsDay.clear();
+            mInputsDay.clear();
+        }
+
+        if (hourStart == mHourStart) {
+            mEventsHour.add(ev.getEventRef(), ev.getEventName());
+            mInputsHour.add(ev.getInputRef(), ev.getInputName());
+        }
+        if (dayStart == mDayStart) {
+            mEventsDay.add(ev.getEventRef(), ev.getEventName());
+            mInputsDay.add(ev.getInputRef(), ev.getInputName());
+        }
+    }
+
+    public synchronized void recordAll(List<iEvent> events) {
+        for (iEvent ev : events) {
+            record(ev);
+        }
+    }
+
+    /**
+     * Returns the k noisiest points in the given window, noisiest first.
+     * 
+     * @param byInput true to count per monitored input (InputRef), false to count per event (EventRef).
+     */
+    public synchronized ArrayList<TopKCounter.Entry> getTop(Window window, boolean byInput, int k) {
+        TopKCounter counter;
+        if (window == Window.HOUR) {
+            counter = byInput ? mInputsHour : mEventsHour;
+        }
+        else {
+            counter = byInput ? mInputsDay : mEventsDay;
+        }
+        return counter.getTop(k);
+    }
+
+    public synchronized void clear() {
+        mEventsHour.clear();
+        mEventsDay.clear();
+        mInputsHour.clear();
+        mInputsDay.clear();
+        mHourStart = 0;
+        mDayStart = 0;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Persistence
+    // ------------------------------------------------------------------------------
+    /**
+     * Writes the statistics to the given file. The file is replaced atomically (written to a temporary file, then 
+     * renamed), so a crash part way through leaves the previous statistics. Callers should write from one thread.
+     */
+    public void save(File file) {
+        String json;
+        synchronized (this) {
+            json = new Gson().toJson(this);
+        }
+
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(json.getBytes("UTF-8"));
+            out.getFD().sync();
+            out.close();
+            out = null;
+
+            if (!temp.renameTo(file)) {
+                Platform.log().e("NoisyPointStats could not replace " + file.getName());
+            }
+        } 
+        catch (IOException e) {
+            Platform.log().e("NoisyPointStats save failed: " + e.getMessage());
+        } 
+        finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } 
+                catch (IOException e) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the statistics stored in the given file; returns empty statistics if there are none.
+     */
+    public static NoisyPointStats load(File file) {
+        NoisyPointStats stats = null;
+
+        if (file.exists()) {
+            try {
+                FileReader reader = new FileReader(file);
+                stats = new Gson().fromJson(reader, NoisyPointStats.class);
+                reader.close();
+            } 
+            catch (Exception e) {
+                Platform.log().e("NoisyPointStats load failed: " + e.getMessage());
+            }
+        }
+
+        return (stats == null) ? new NoisyPointStats() : stats;
+    }
+}
@@ -0,0 +1,194 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * NotificationCoalescer limits how often the service updates the system notification and broadcasts to clients. 
+ * Requests that arrive within MIN_EMIT_INTERVAL_MS of the last emit are held back and flushed once (trailing edge) 
+ * when the interval has passed, so a burst of pages or servers results in one update. 
+ * Repeated errors with the same message are collapsed; the error is only shown again once an update has gone through 
+ * without any error. Emits run on the main thread.
+ */
+public class NotificationCoalescer {
+
+    // ------------------------------------------------------------------------------
+    // Listener
+    // ------------------------------------------------------------------------------
+    public interface Listener {
+        /**
+         * Update the new events notification.
+         */
+        void onEmitUpdate();
+
+        /**
+         * Show the error notification.
+         */
+        void onEmitError(String title, String message);
+
+        /**
+         * Tell clients to sync; called once per emit.
+         */
+        void onEmitBroadcast();
+    }
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    public final static long MIN_EMIT_INTERVAL_MS = 5000;
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private Listener mListener;
+    private Handler mHandler = new Handler(Looper.getMainLooper());
+    private long mLastEmit = 0;             // SystemClock.elapsedRealtime of the last emit
+    private boolean mFlushScheduled = false;
+    private boolean mUpdatePending = false;
+    private String mPendingErrorTitle;      // Latest error held back; null if none
+    private String mPendingErrorMessage;
+    private String mShownErrorMessage;      // Error currently shown; null if none
+
+    private int mEmitted = 0;               // Number of notifications/broadcasts made
+    private int mSuppressed = 0;            // Number of requests folded into another, or dropped as a repeat
+
+    // ------------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------------
+    public NotificationCoalescer(Listener listener) {
+        mListener = listener;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Public functions
+    // ------------------------------------------------------------------------------
+    /**
+     * New events have arrived (or a server recovered).
+     */
+    public synchronized void requestUpdate() {
+        if (mUpdatePending) {
+            mSuppressed++;
+        }
+        mUpdatePending = true;
+        scheduleFlush();
+    }
+
+    /**
+     * A server failed to update.
+     */
+    public synchronized void requestError(String title, String message) {
+        if (mPendingErrorMessage != null) {
+            mSuppressed++;
+        }
+        mPendingErrorTitle = title;
+        mPendingErrorMessage = message;
+        scheduleFlush();
+    }
+
+    public synchronized int getEmittedCount() {
+        return mEmitted;
+    }
+
+    public synchronized int getSuppressedCount() {
+        return mSuppressed;
+    }
+
+    /**
+     * Drops anything that has not been emitted yet; used on logout.
+     */
+    public synchronized void cancel() {
+        mHandler.removeCallbacks(mFlushTask);
+        mFlushScheduled = false;
+        mUpdatePending = false;
+        mPendingErrorTitle = null;
+        mPendingErrorMessage = null;
+        mShownErrorMessage = null;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private functions
+    // ------------------------------------------------------------------------------
+    private void scheduleFlush() {
+        if (mFlushScheduled) {
+            return;
+        }
+        long wait = Math.max(0, (mLastEmit + MIN_EMIT_INTERVAL_MS) - SystemClock.elapsedRealtime());
+        mFlushScheduled = true;
+        mHandler.postDelayed(mFlushTask, wait);
+    }
+
+    /**
+     * Trailing edge; emits whatever was requested since the last emit.
+     */
+    private Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            boolean update;
+            String title, message;
+
+            synchronized (NotificationCoalescer.this) {
+                mFlushScheduled = false;
+                update = mUpdatePending;
+                title = mPendingErrorTitle;
+                message = mPendingErrorMessage;
+
+                if (message == null) {
+                    // Clean update; a later error is news again
+                    mShownErrorMessage = null;
+                }
+                else if (message.equals(mShownErrorMessage)) {
+                    // Already showing this error
+                    message = null;
+                    mSuppressed++;
+                }
+                else {
+                    mShownErrorMessage = message;
+                }
+
+                mUpdatePending = false;
+                mPendingErrorTitle = null;
+                mPendingErrorMessage = null;
+                mLastEmit = SystemClock.elapsedRealtime();
+                mEmitted++;
+            }
+
+            // Emit outside of the lock; the listener may call back in
+            if (update) {
+                mListener.onEmitUpdate();
+            }
+            if (message != null) {
+                mListener.onEmitError(title, message);
+            }
+            mListener.onEmitBroadcast();
+        }
+    };
+}
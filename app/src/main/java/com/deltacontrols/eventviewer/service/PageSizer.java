@@ -0,0 +1,132 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+/**
+ * PageSizer picks the max-results of event requests for one server from the time and size of the pages it returned 
+ * before. A page should take about TARGET_PAGE_MS:
+ * 
+ * - A page that took longer shrinks the next one in proportion, so a slow server gets small pages and each page 
+ *   (and its high priority events) is shown without a long wait.
+ * - A full page that took less grows the next one in proportion, so catching up on a fast server takes few requests.
+ *   A page that was not full says nothing about larger pages, and leaves the size as it is.
+ * 
+ * Sizes change by at most MAX_STEP per page, stay between MIN_PAGE_SIZE and the size of the cache, and are capped 
+ * so a page stays under MAX_PAGE_BYTES. Thread safe.
+ */
+public class PageSizer {
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    public final static int MIN_PAGE_SIZE = 25;
+    public final static int INITIAL_PAGE_SIZE = 100;
+    public final static long TARGET_PAGE_MS = 3000;
+    public final static long MAX_PAGE_BYTES = 2 * 1024 * 1024;  // Response and parse stay well within memory
+    private final static double MAX_STEP = 2.0;
+    private final static double SMOOTHING = 0.5;                // Weight of the newest page in the averages
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private int mMaxPageSize;
+    private int mPageSize;
+    private double mBytesPerEvent = 0;      // Averages; 0 until the first page with events
+    private double mEventsPerSecond = 0;
+    private long mLastPageMs = 0;
+
+    // ------------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------------
+    public PageSizer(int maxPageSize) {
+        mMaxPageSize = Math.max(MIN_PAGE_SIZE, maxPageSize);
+        mPageSize = Math.min(INITIAL_PAGE_SIZE, mMaxPageSize);
+    }
+
+    // ------------------------------------------------------------------------------
+    // Properties
+    // ------------------------------------------------------------------------------
+    /**
+     * max-results for the next page.
+     */
+    public synchronized int getPageSize() {
+        return mPageSize;
+    }
+
+    public synchronized double getEventsPerSecond() {
+        return mEventsPerSecond;
+    }
+
+    public synchronized long getLastPageMs() {
+        return mLastPageMs;
+    }
+
+    /**
+     * Largest page; the size of the cache, since no request needs more.
+     */
+    public synchronized void setMaxPageSize(int maxPageSize) {
+        mMaxPageSize = Math.max(MIN_PAGE_SIZE, maxPageSize);
+        mPageSize = Math.min(mPageSize, mMaxPageSize);
+    }
+
+    // ------------------------------------------------------------------------------
+    // Public functionality
+    // ------------------------------------------------------------------------------
+    /**
+     * Adjusts the page size after a page of received events (of the requested max-results) took latencyMs and bytes.
+     */
+    public synchronized void onPage(int requested, int received, long latencyMs, long bytes) {
+        mLastPageMs = latencyMs;
+        if (received <= 0) {
+            return;
+        }
+        latencyMs = Math.max(1, latencyMs);
+        mBytesPerEvent = average(mBytesPerEvent, bytes / (double) received);
+        mEventsPerSecond = average(mEventsPerSecond, received * 1000.0 / latencyMs);
+
+        double next = mPageSize;
+        if (latencyMs > TARGET_PAGE_MS) {
+            next = Math.max(mPageSize / MAX_STEP, received * TARGET_PAGE_MS / (double) latencyMs);
+        }
+        else if (received >= requested) {
+            next = Math.min(mPageSize * MAX_STEP, received * TARGET_PAGE_MS / (double) latencyMs);
+        }
+        if (mBytesPerEvent > 0) {
+            next = Math.min(next, MAX_PAGE_BYTES / mBytesPerEvent);
+        }
+        mPageSize = (int) Math.max(MIN_PAGE_SIZE, Math.min(mMaxPageSize, next));
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private Helper Functions
+    // ------------------------------------------------------------------------------
+    private static double average(double average, double value) {
+        return (average == 0) ? value : (SMOOTHING * value) + ((1 - SMOOTHING) * average);
+    }
+}
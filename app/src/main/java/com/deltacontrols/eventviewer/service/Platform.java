@@ -0,0 +1,149 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Platform holds the few services the event core (EventCache, ColdEventStore, FlapDetector, EventListFile and 
+ * EventFilter) needs from its surroundings: logging, file storage and a clock. The core uses only these and plain Java,
+ * so it runs on a desktop JVM for benchmarks and replays as well as in the app. The defaults work anywhere; App 
+ * installs the Android ones (see AndroidPlatform).
+ */
+public final class Platform {
+
+    public interface Logger {
+        void i(String message);
+
+        void e(String message);
+    }
+
+    /**
+     * Named files in some private location.
+     */
+    public interface Storage {
+        InputStream openInput(String name) throws IOException;
+
+        OutputStream openOutput(String name) throws IOException;
+
+        boolean delete(String name);
+    }
+
+    public interface Clock {
+        long currentTimeMillis();
+
+        long nanoTime();
+    }
+
+    // ------------------------------------------------------------------------------
+    // Defaults
+    // ------------------------------------------------------------------------------
+    /**
+     * Writes to stdout/stderr.
+     */
+    public final static Logger CONSOLE_LOGGER = new Logger() {
+        @Override
+        public void i(String message) {
+            System.out.println(message);
+        }
+
+        @Override
+        public void e(String message) {
+            System.err.println(message);
+        }
+    };
+
+    public final static Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Files in a directory.
+     */
+    public static class DirectoryStorage implements Storage {
+        private final File mDir;
+
+        public DirectoryStorage(File dir) {
+            mDir = dir;
+        }
+
+        @Override
+        public InputStream openInput(String name) throws IOException {
+            return new FileInputStream(new File(mDir, name));
+        }
+
+        @Override
+        public OutputStream openOutput(String name) throws IOException {
+            return new FileOutputStream(new File(mDir, name));
+        }
+
+        @Override
+        public boolean delete(String name) {
+            return new File(mDir, name).delete();
+        }
+    }
+
+    private static volatile Logger sLogger = CONSOLE_LOGGER;
+    private static volatile Clock sClock = SYSTEM_CLOCK;
+
+    private Platform() {
+    }
+
+    // ------------------------------------------------------------------------------
+    // Public functionality
+    // ------------------------------------------------------------------------------
+    public static Logger log() {
+        return sLogger;
+    }
+
+    public static Clock clock() {
+        return sClock;
+    }
+
+    public static void setLogger(Logger logger) {
+        sLogger = (logger == null) ? CONSOLE_LOGGER : logger;
+    }
+
+    public static void setClock(Clock clock) {
+        sClock = (clock == null) ? SYSTEM_CLOCK : clock;
+    }
+}
@@ -0,0 +1,155 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.deltacontrols.eventviewer.App;
+import com.deltacontrols.eweb.support.api.FetchJSON;
+import com.google.gson.Gson;
+
+/**
+ * ResponseRecorder saves the raw eWEB event list responses, with the request and timing, so that production problems 
+ * can be replayed later (see ResponseReplay, in androidTest). Opt in from the diagnostics dialog; off by default, since the responses
+ * contain site data. One JSON Entry per line; the file is rotated at MAX_FILE_BYTES, keeping one older file.
+ */
+public class ResponseRecorder {
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    private final static String PREFS_ID = "EVENTVIEWER_DIAGNOSTICS";
+    private final static String PREF_RECORD_RESPONSES = "RECORD_RESPONSES";
+    private final static String RECORDING_FILENAME = "responses.jsonl";
+    private final static String ROTATED_FILENAME = "responses.1.jsonl";
+    private final static long MAX_FILE_BYTES = 2 * 1024 * 1024;
+
+    /**
+     * One recorded response.
+     */
+    public static class Entry {
+        public String server;       // ServerPoller id; empty for the primary login
+        public boolean first;       // First page of a poll; false for "next" pages
+        public String request;      // Query of the first page, or the next url
+        public boolean success;
+        public int statusCode;
+        public long time;           // Wall clock, ms
+        public double latencyMs;    // Request to response
+        public String body;         // Raw response
+    }
+
+    private static Boolean sEnabled = null;  // Loaded on first use
+    private static final Gson sGson = new Gson();
+
+    // ------------------------------------------------------------------------------
+    // Public functionality
+    // ------------------------------------------------------------------------------
+    public static synchronized boolean isEnabled() {
+        if (sEnabled == null) {
+            SharedPreferences prefs = App.getContext().getSharedPreferences(PREFS_ID, Context.MODE_PRIVATE);
+            sEnabled = prefs.getBoolean(PREF_RECORD_RESPONSES, false);
+        }
+        return sEnabled;
+    }
+
+    public static synchronized void setEnabled(Context ctx, boolean enabled) {
+        sEnabled = enabled;
+        SharedPreferences.Editor editor = ctx.getSharedPreferences(PREFS_ID, Context.MODE_PRIVATE).edit();
+        editor.putBoolean(PREF_RECORD_RESPONSES, enabled);
+        editor.commit();
+    }
+
+    /**
+     * Appends a response to the recording; called by ServerPoller on its background thread.
+     */
+    public static synchronized void record(String server, boolean first, String request, FetchJSON.Result result, long latencyNanos) {
+        Entry entry = new Entry();
+        entry.server = server;
+        entry.first = first;
+        entry.request = request;
+        entry.success = result.success;
+        entry.statusCode = result.statusCode;
+        entry.time = System.currentTimeMillis();
+        entry.latencyMs = latencyNanos / 1e6;
+        entry.body = result.rawResponse;
+
+        File dir = App.getContext().getFilesDir();
+        File file = new File(dir, RECORDING_FILENAME);
+        if (file.length() > MAX_FILE_BYTES) {
+            File rotated = new File(dir, ROTATED_FILENAME);
+            rotated.delete();
+            file.renameTo(rotated);
+        }
+
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(file, true);
+            fos.write((sGson.toJson(entry) + "\n").getBytes("UTF-8"));
+        } 
+        catch (IOException e) {
+            Log.e(App.TAG, "ResponseRecorder could not write: " + e.getMessage());
+        } 
+        finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } 
+                catch (IOException e) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+
+    /**
+     * The recording files, oldest first; only the ones that exist.
+     */
+    public static synchronized ArrayList<File> getFiles(Context ctx) {
+        ArrayList<File> files = new ArrayList<File>();
+        for (String name : new String[] { ROTATED_FILENAME, RECORDING_FILENAME }) {
+            File file = new File(ctx.getFilesDir(), name);
+            if (file.exists()) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    public static synchronized void clear(Context ctx) {
+        ctx.deleteFile(ROTATED_FILENAME);
+        ctx.deleteFile(RECORDING_FILENAME);
+    }
+}
@@ -0,0 +1,1425 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpStatus;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.deltacontrols.eventviewer.App;
+import com.deltacontrols.eventviewer.LoginInfo;
+import com.deltacontrols.eventviewer.R;
+import com.deltacontrols.eventviewer.service.EventNotificationsService.AlertLevel;
+import com.deltacontrols.eventviewer.service.EventNotificationsService.STATUS;
+import com.deltacontrols.eweb.support.api.EwebConnection;
+import com.deltacontrols.eweb.support.api.FetchJSON;
+import com.deltacontrols.eweb.support.api.FetchRawResponse;
+import com.deltacontrols.eweb.support.interfaces.GenericCallback;
+import com.deltacontrols.eweb.support.models.iEvent;
+import com.deltacontrols.eweb.support.models.iEventList;
+
+/**
+ * ServerPoller polls a single eWEB server for events on behalf of EventNotificationsService; it owns the connection, 
+ * event cache, last index and status for that server. The service runs one poller per server profile, and the pollers
+ * run concurrently since every request is asynchronous.
+ */
+public class ServerPoller {
+
+    // ------------------------------------------------------------------------------
+    // Host
+    // ------------------------------------------------------------------------------
+    /**
+     * Receives the results of the poller; EventNotificationsService, or a load test. Called on background threads.
+     */
+    interface Host {
+        String getString(int resId);
+
+        /**
+         * Each page of new events, before it is added to the cache.
+         */
+        void onEventsReceived(ServerPoller poller, ArrayList<iEvent> events);
+
+        void onHighPriorityEvents(ServerPoller poller, ArrayList<iEvent> events);
+
+        /**
+         * New events were added, the cache was reset, or the poller recovered from an error.
+         */
+        void onServerUpdated(ServerPoller poller);
+
+        /**
+         * Each page of older history (see loadOlder), before it is added behind the cached events. Not new events; they 
+         * are not counted or notified.
+         */
+        void onHistoryReceived(ServerPoller poller, ArrayList<iEvent> events);
+
+        /**
+         * A page of older history, or the cache file (see open), was added to the cache.
+         */
+        void onHistoryAdded(ServerPoller poller);
+
+        void onServerError(ServerPoller poller, String message);
+    }
+
+    // ------------------------------------------------------------------------------
+    // Transport
+    // ------------------------------------------------------------------------------
+    /**
+     * How the poller reaches its server; EwebHttpClient or the EwebConnection normally (see HttpTransport), a recording when replaying 
+     * (see ResponseReplay). Results are delivered on a background thread.
+     */
+    interface Transport {
+        boolean isInitialized();
+
+        boolean isConnected();
+
+        /**
+         * Starts a connect; onDone runs once it has finished, whether it succeeded or not.
+         */
+        void connect(LoginInfo login, Runnable onDone);
+
+        void getEventList(String lastIndex, String maxResults, int readTimeout, GenericCallback<FetchJSON.Result> callback);
+
+        void getNextEventList(String url, int readTimeout, GenericCallback<FetchJSON.Result> callback);
+    }
+
+    /**
+     * Transport over the eweb-support EwebConnection.
+     */
+    private static class EwebTransport implements Transport {
+        private final EwebConnection mEweb;
+
+        EwebTransport(EwebConnection eweb) {
+            mEweb = eweb;
+        }
+
+        @Override
+        public boolean isInitialized() {
+            return mEweb.getConnectionStatus() != EwebConnection.CONNECTION_STATUS.NOT_INITIALIZED;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return mEweb.isConnected();
+        }
+
+        @Override
+        public void connect(LoginInfo login, final Runnable onDone) {
+            mEweb.connect(login.url, login.username, login.password, new GenericCallback<FetchJSON.Result>() {
+                @Override
+                public void onCallback(FetchJSON.Result result) {
+                    onDone.run();
+                }
+            }, login.mBasicAuthentication);
+        }
+
+        @Override
+        public void getEventList(String lastIndex, String maxResults, int readTimeout, GenericCallback<FetchJSON.Result> callback) {
+            mEweb.getEventList(lastIndex, maxResults, onBackgroundThread(callback), readTimeout);
+        }
+
+        @Override
+        public void getNextEventList(String url, int readTimeout, GenericCallback<FetchJSON.Result> callback) {
+            mEweb.getNextEventList(url, onBackgroundThread(callback), readTimeout);
+        }
+
+        /**
+         * EwebConnection calls back on the UI thread; run on a different thread so we don't hang the UI if it is running.
+         */
+        private static GenericCallback<FetchJSON.Result> onBackgroundThread(final GenericCallback<FetchJSON.Result> callback) {
+            return new GenericCallback<FetchJSON.Result>() {
+                @Override
+                public void onCallback(final FetchJSON.Result fetchResult) {
+                    Thread thread = new Thread() {
+                        @Override
+                        public void run() {
+                            callback.onCallback(fetchResult);
+                        }
+                    };
+                    thread.start();
+                }
+            };
+        }
+    }
+
+    /**
+     * Fetches events through EwebHttpClient when the connection allows it (see EwebHttpClient.forConnection); 
+     * otherwise, and for connecting, through the EwebConnection.
+     */
+    private class HttpTransport extends EwebTransport {
+
+        HttpTransport(EwebConnection eweb) {
+            super(eweb);
+        }
+
+        @Override
+        public void getEventList(String lastIndex, String maxResults, int readTimeout, GenericCallback<FetchJSON.Result> callback) {
+            EwebHttpClient http = EwebHttpClient.forConnection(mEweb, mLogin);
+            if (http == null) {
+                super.getEventList(lastIndex, maxResults, readTimeout, callback);
+                return;
+            }
+            http.getEventList(lastIndex, maxResults, readTimeout, callback);
+        }
+
+        @Override
+        public void getNextEventList(String url, int readTimeout, GenericCallback<FetchJSON.Result> callback) {
+            EwebHttpClient http = EwebHttpClient.forConnection(mEweb, mLogin);
+            if (http == null) {
+                super.getNextEventList(url, readTimeout, callback);
+                return;
+            }
+            http.getNextEventList(url, readTimeout, callback);
+        }
+    }
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    private final static String CACHED_FILENAME = "cachedList%s.json";
+    private final static String COLD_FILENAME = "coldEvents%s.dat";   // Cold tier of the event cache; see ColdEventStore
+    private final static String CHECKPOINT_FILENAME = "checkpoint%s.json"; // See Checkpoint
+    private final static int COLD_STORE_MAX_EVENTS = 10000;
+    private final static int MIN_READ_TIMEOUT = 1000 * 5;              // Floor of the adaptive timeouts; see AdaptiveTimeout
+    private final static int FIRST_PAGE_SIZE = 50;                     // Newest events fetched first on a fresh install; see loadOlder
+    private final static long BACKFILL_DELAY_MS = 1000 * 2;            // Between background history pages
+    private final static String MAX_SQL_INDEX = "9223372036854775807"; // Used in sequence-le to attempt to speed up response from eWEB. Use sql unsigned big int as max value.
+    private final static String PROBE_QUERY = "sequence-le=" + MAX_SQL_INDEX;  // Newest event only; see startProbe
+    private final static String PROBE_RESULTS = "max-results=1";
+    public final static String UnknownIndex = "0";
+
+    /**
+     * Writes the cache and checkpoint files of all pollers, one at a time and in the order they were asked for; so a 
+     * checkpoint is never written before the cache file it goes with.
+     */
+    private final static ExecutorService sFileWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "ServerPoller files");
+        }
+    });
+
+    /**
+     * Runs the delayed history pages of all pollers, one at a time, on a single low priority thread.
+     */
+    private final static ScheduledExecutorService sBackfillScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ServerPoller backfill");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private Host mService;
+    private EwebConnection mEweb;
+    private Transport mTransport;
+    private String mId;                         // Identifies the server profile; empty for the primary login
+    private LoginInfo mLogin;                   // Server profile as of the last poll
+    private EventCache mEventCache;
+    private ColdEventStore mColdStore;          // Cold (on-disk) tier of mEventCache
+    private PageSizer mPageSizer;               // max-results of the fetch pages
+    private CircuitBreaker mBreaker;            // Shared with everything else calling this server; see CircuitBreaker
+    private AdaptiveTimeout mProbeTimeout = new AdaptiveTimeout(MIN_READ_TIMEOUT);
+    private AdaptiveTimeout mPageTimeout = new AdaptiveTimeout(MIN_READ_TIMEOUT);
+    private final Object mCacheFileLock = new Object(); // Guards the cache file; written on sFileWriter, read and deleted on other threads.
+    private File mFilesDir;                             // Where the checkpoint is kept; set by open()
+    private volatile CountDownLatch mHydrated;          // Open once the cache file is loaded; see open()
+    private long mCheckpointSequence = 0;               // Of the last snapshot taken
+    private long mCheckpointWritten = 0;                // Of the last snapshot written; guarded by mCacheFileLock
+
+    /**
+     * Catch up state for the current request; because we may need to make multiple requests to fulfill a request, pages
+     * are added to the cache as they arrive (newest page first) and only this bookkeeping spans requests.
+     */
+    private String mCatchUpFloor = UnknownIndex;  // mLastIndex when the request started; pages stop once they reach it
+    private String mCatchUpTop = UnknownIndex;    // Newest index returned by the first page
+    private int mFetchedCount = 0;                // Events received so far by this request
+    private int mPagesDone = 0;
+    private int mPagesTotal = 0;                  // Estimated from the index gap; 0 until the first page arrives
+    private volatile long mRequestStartNanos;     // When the outstanding page was requested; see Metrics
+    private volatile long mPageLatencyNanos;      // Of the page being handled
+    private int mRequestedPageSize = 0;           // max-results of the outstanding page
+    private int mRequestTimeout = 0;              // Read timeout of the outstanding page
+    private volatile String mLastRequest;         // Query or url of the outstanding page; see ResponseRecorder
+    private long mOpenedNanos = 0;                // When open() ran, until the first successful poll; see Metrics
+    private boolean mNewestFirst = false;         // The request only asked for the newest page; the rest is backfilled
+
+    /**
+     * Backfill of the history older than the first (newest-first) fetch; see loadOlder. A poll and a history page both 
+     * change the cache, so only one of them is requested at a time; mRequestLock guards starting either.
+     */
+    private final Object mRequestLock = new Object();
+    private volatile String mBackfillURL;         // "next" url of the oldest page so far; null once there is nothing more to load
+    private volatile boolean mIsBackfilling = false;
+    private boolean mPollPending = false;         // A poll was held back (history page, open or reset); it runs once that is done
+    private boolean mAwaitingLastIndex = false;   // open() is loading the last index from the cache file; polls wait for it
+    private boolean mResetPending = false;        // reset() is clearing the cache and its files; polls wait for it
+    private ScheduledFuture<?> mBackfillTask;     // The next history page, if one is scheduled; see scheduleBackfill
+
+    private volatile boolean mIsFetching = false;
+    private volatile boolean mIsConnecting = false;
+    private int mNewEventCount = 0;
+    private String mLastIndex = UnknownIndex;
+    private Date mLastSuccess = null;
+    private STATUS mCurrentStatus = STATUS.UNKNOWN;
+
+    // ------------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------------
+    /**
+     * Polls through the given transport instead of eweb; used to replay recordings.
+     */
+    ServerPoller(Host service, String id, LoginInfo login, Transport transport) {
+        this(service, id, login, (EwebConnection) null);
+        mTransport = transport;
+        mBreaker = new CircuitBreaker(Integer.MAX_VALUE); // Replay every recorded poll
+    }
+
+    public ServerPoller(Host service, String id, LoginInfo login, EwebConnection eweb) {
+        mService = service;
+        mId = id;
+        mLogin = login;
+        mEweb = eweb;
+        mTransport = new HttpTransport(eweb);
+        mBreaker = CircuitBreaker.forServer(login.url);
+        mEventCache = new EventCache();
+        mPageSizer = new PageSizer(mEventCache.getMaxEvents());
+    }
+
+    // ------------------------------------------------------------------------------
+    // Read-only properties
+    // ------------------------------------------------------------------------------
+    public String getId() {
+        return mId;
+    }
+
+    public boolean isPrimary() {
+        return mId.isEmpty();
+    }
+
+    public LoginInfo getLogin() {
+        return mLogin;
+    }
+
+    public EwebConnection getEwebConnection() {
+        return mEweb;
+    }
+
+    /**
+     * Does not wait for open() to load the cache from file, so it may still be filling; clients are told once it is 
+     * loaded (Host.onHistoryAdded). Safe to call from the main thread.
+     */
+    public EventCache getEventCache() {
+        return mEventCache;
+    }
+
+    public boolean getIsFetching() {
+        return mIsFetching;
+    }
+
+    public int getNewEventCount() {
+        return mNewEventCount;
+    }
+
+    public void resetNewEventCount() {
+        if (mNewEventCount != 0) {
+            mNewEventCount = 0;
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * Index of that last/latest event received from this server
+     */
+    public String getLastKnownIndex() {
+        return mLastIndex;
+    }
+
+    /**
+     * Lets ResponseReplay start where a recording started.
+     */
+    void setLastKnownIndex(String index) {
+        mLastIndex = index;
+    }
+
+    public Date getLastSuccess() {
+        return (mLastSuccess == null) ? null : (Date) mLastSuccess.clone();
+    }
+
+    /**
+     * True if older history is still to be loaded; see loadOlder.
+     */
+    public boolean hasOlderHistory() {
+        return mBackfillURL != null;
+    }
+
+    public boolean isBackfilling() {
+        return mIsBackfilling;
+    }
+
+    /**
+     * True while a request spanning several pages is in progress; see getCatchUpPagesDone/Total.
+     */
+    public boolean isCatchingUp() {
+        return mIsFetching && (mPagesTotal > 1);
+    }
+
+    public int getCatchUpPagesDone() {
+        return mPagesDone;
+    }
+
+    public int getCatchUpPagesTotal() {
+        return mPagesTotal;
+    }
+
+    /**
+     * max-results of the next catch up page; see PageSizer.
+     */
+    public int getPageSize() {
+        return mPageSizer.getPageSize();
+    }
+
+    public STATUS getCurrentStatus() {
+        return mCurrentStatus;
+    }
+
+    void setCurrentStatus(STATUS status) {
+        mCurrentStatus = status;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Life Cycle
+    // ------------------------------------------------------------------------------
+    /**
+     * Sizes the cache and restores the last index etc. from the checkpoint, so polling can start right away; the cold 
+     * tier is opened and the in-memory tier loaded from file on a background thread, and clients are told once it is 
+     * in. Without a checkpoint (first start after an upgrade) the last index has to come from the cache, so polls are 
+     * held until it is loaded. Does not block the calling thread on the cache file.
+     */
+    public void open(final Context ctx, long maxBytes) {
+        mOpenedNanos = System.nanoTime();
+        mEventCache.setCapacity(mLogin.cacheSize, maxBytes);
+        mPageSizer.setMaxPageSize(mEventCache.getMaxEvents());
+        mFilesDir = ctx.getFilesDir();
+        final CountDownLatch hydrated = new CountDownLatch(1);
+        mHydrated = hydrated;
+
+        final Checkpoint checkpoint = Checkpoint.read(checkpointFile());
+        if (checkpoint != null) {
+            restore(checkpoint);
+        }
+        else {
+            synchronized (mRequestLock) {
+                mAwaitingLastIndex = true;
+            }
+        }
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                hydrate(ctx);
+                if (checkpoint == null) {
+                    synchronized (mRequestLock) {
+                        // A reset meanwhile has already set the last index, and clears what was loaded
+                        if (!mResetPending) {
+                            String lastIndex = mEventCache.getLastKnownIndex();
+                            mLastIndex = (lastIndex == null) ? UnknownIndex : lastIndex;
+                        }
+                        mAwaitingLastIndex = false;
+                    }
+                    writeCheckpoint(); // So the next start is quick
+                }
+                hydrated.countDown();
+
+                mService.onHistoryAdded(ServerPoller.this);
+                runPendingPoll();
+            }
+        };
+        thread.start();
+    }
+
+    /**
+     * Resizes the cache if the limits changed; returns false if they did not. Does not wait for the cache to load; 
+     * events spilled by a smaller capacity are written to the cold tier on sFileWriter.
+     */
+    public boolean setCacheCapacity(int maxEvents, long maxBytes) {
+        if ((maxEvents == mEventCache.getMaxEvents()) && (maxBytes == mEventCache.getMaxBytes())) {
+            return false;
+        }
+        mEventCache.setCapacity(maxEvents, maxBytes);
+        mPageSizer.setMaxPageSize(mEventCache.getMaxEvents());
+        flushSpills();
+        return true;
+    }
+
+    /**
+     * Spills events out of memory until at most maxEvents remain (see EventCache.trimTo); they are written to the cold 
+     * tier, and the cache file rewritten, on sFileWriter.
+     * 
+     * @return number of events moved out of memory.
+     */
+    public int trimInMemoryCache(int maxEvents) {
+        int removed = mEventCache.trimTo(maxEvents).size();
+        if (removed > 0) {
+            writeToCacheFile(); // Main cache file only holds the in-memory events
+        }
+        return removed;
+    }
+
+    /**
+     * Updates the cached event, and the cache file; on sFileWriter, as the event may be in the cold tier.
+     */
+    public void updateEvent(final iEvent ev) {
+        sFileWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                awaitHydrated();
+                mEventCache.updateEvent(ev);
+            }
+        });
+        writeToCacheFile();
+    }
+
+    /**
+     * Closes the cold tier on sFileWriter, once open() has loaded the cache and the writes already queued have run.
+     */
+    public void close() {
+        sFileWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                awaitHydrated();
+                mEventCache.flushSpills();
+                mEventCache.setColdStore(null);
+                if (mColdStore != null) {
+                    mColdStore.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Resets all values associated with this server; clears the caches and files. The cache and its files are cleared 
+     * on sFileWriter, once open() has loaded them and the writes already queued have run; polls are held until then, 
+     * and clients are told once it is done.
+     */
+    public void reset() {
+        synchronized (mRequestLock) {
+            mBackfillURL = null; // A page still outstanding is dropped; see mHandleBackfill
+            if (mBackfillTask != null) {
+                mBackfillTask.cancel(false);
+                mBackfillTask = null;
+            }
+            mResetPending = true;
+        }
+        mLastIndex = UnknownIndex;
+        mCurrentStatus = STATUS.UNKNOWN;
+        mNewEventCount = 0;
+        mLastSuccess = null;
+        mIsFetching = false;
+        mPagesTotal = 0;
+
+        sFileWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                awaitHydrated();
+                mEventCache.clear();
+                deleteCacheFile();
+                synchronized (mRequestLock) {
+                    mResetPending = false;
+                }
+
+                mService.onServerUpdated(ServerPoller.this);
+                runPendingPoll();
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------------
+    // Main implementation
+    // ------------------------------------------------------------------------------
+    /**
+     * Starts a poll of this server using the given profile.
+     * 
+     * @return false if the connection was not yet initialized; a connect was started, and the fetch follows it.
+     */
+    public boolean poll(LoginInfo login) {
+        // Crude way to avoid having two requests out at once (handles case where eWEB takes longer to respond then
+        // the repeat time. We do not want to miss any alarms, thus we do not want to double up on requests (since we are
+        // currently passing along lastIndex). Checked again, under the lock, before the request is started.
+        if (mIsFetching) {
+            return true;
+        }
+
+        mLogin = login;
+        if (mEweb != null) {
+            mBreaker = CircuitBreaker.forServer(login.url);
+        }
+
+        // While the server keeps failing, skip the poll (and its error) until the breaker lets a trial through
+        if (!mBreaker.allowRequest()) {
+            Metrics.counter(Metrics.CIRCUIT_SKIPPED).inc();
+            Log.i(App.TAG, String.format("SERVER %s (poll): Circuit open, retry in %dms", mLogin.url, mBreaker.getRetryDelayMs()));
+            return true;
+        }
+
+        // Check if login has occur; if not, connect and fetch as soon as the connect is done rather than on the next poll.
+        // The next poll reports the status if the connect did not initialize the connection at all.
+        if (!mTransport.isInitialized()) {
+            if (mIsConnecting) {
+                return false;
+            }
+            mIsConnecting = true;
+            mTransport.connect(login, new Runnable() {
+                @Override
+                public void run() {
+                    mIsConnecting = false;
+                    if (mTransport.isConnected()) {
+                        mBreaker.onSuccess();
+                    }
+                    else if (!mTransport.isInitialized()) {
+                        mBreaker.onFailure(); // Otherwise the poll below records the failure, as not connected
+                    }
+                    if (mTransport.isInitialized()) {
+                        poll(mLogin);
+                    }
+                }
+            });
+            return false;
+        }
+
+        // if eWeb is not connected, inform user
+        if (!mTransport.isConnected()) {
+            mBreaker.onFailure();
+            reportError(STATUS.NOT_CONNECTED, mService.getString(R.string.serverstatus_not_connected));
+            return true;
+        }
+
+        // Once we have events, only run the full fetch if a probe shows there are new ones
+        synchronized (mRequestLock) {
+            if (mIsFetching) {
+                return true;
+            }
+            if (mIsBackfilling) {
+                mPollPending = true; // Polls as soon as the history page is in; see mHandleBackfill
+                return true;
+            }
+            if (mAwaitingLastIndex || mResetPending) {
+                mPollPending = true; // Polls as soon as the last index is loaded, or the reset is done; see open and reset
+                return true;
+            }
+            mIsFetching = true;
+        }
+        if (mLastIndex.equals(UnknownIndex)) {
+            startFetch();
+        }
+        else {
+            startProbe();
+        }
+        return true;
+    }
+
+    /**
+     * Asks for the newest event only; much cheaper for eWEB than the full fetch on a quiet site. See mHandleProbe.
+     */
+    private void startProbe() {
+        mRequestStartNanos = System.nanoTime();
+        mLastRequest = PROBE_QUERY + "&" + PROBE_RESULTS;
+        mRequestTimeout = mProbeTimeout.getTimeoutMs(EventNotificationsService.ProbeReadTimeout);
+        Metrics.gauge(metricName(Metrics.POLL_PROBE_TIMEOUT)).set(mRequestTimeout);
+        mTransport.getEventList(PROBE_QUERY, PROBE_RESULTS, mRequestTimeout, mHandleProbeCallback);
+        Log.i(App.TAG, String.format("SERVER %s (poll): Starting probe (mLastIndex: %s)", mLogin.url, mLastIndex));
+    }
+
+    /**
+     * Starts the full fetch of the events after mLastIndex; a request may take several pages, see mHandleResult.
+     */
+    private void startFetch() {
+        Metrics.counter(Metrics.POLL_FETCHES).inc();
+        mCatchUpFloor = mLastIndex;
+        mCatchUpTop = UnknownIndex;
+        mFetchedCount = 0;
+        mPagesDone = 0;
+        mPagesTotal = 0;
+        mNewestFirst = false;
+        String lastIndex = "";
+
+        // If we do not have a mLastIndex
+        if (mLastIndex.equals(UnknownIndex)) {
+            // Attempt to use the user's dismissIndex
+            if (mLogin.dismissIndex != null) {
+                lastIndex = "startID=-" + String.valueOf(mLogin.dismissIndex);
+            }
+            else {
+                // Else, give the api a max value and ask to get all records BEFORE that.
+                // Note: eWEB seems to run faster when given an index vs. just asking for "the most recent".
+                lastIndex = "sequence-le=" + MAX_SQL_INDEX;
+            }
+        }
+        else {
+            // Use mLastIndex as it is the most recent value
+            lastIndex = "startID=-" + String.valueOf(mLastIndex);
+        }
+
+        // No need to request more than the max cache. When catching up, ask for pages sized to how fast the server is
+        // (see PageSizer); each is shown as soon as it arrives.
+        // With nothing cached and nothing dismissed, only the newest page is fetched, so there is something to show after 
+        // one small request; the older history is loaded afterwards (see loadOlder).
+        int pageSize = mEventCache.getMaxEvents();
+        if (!mCatchUpFloor.equals(UnknownIndex)) {
+            pageSize = Math.min(pageSize, mPageSizer.getPageSize());
+        }
+        else if (mLogin.dismissIndex == null) {
+            pageSize = Math.min(pageSize, FIRST_PAGE_SIZE);
+            mNewestFirst = true;
+        }
+        mRequestedPageSize = pageSize;
+        String maxResults = "max-results=" + pageSize;
+
+        // A first fetch from the dismissIndex asks for the whole cache at once, so it gets the whole timeout
+        boolean wholeCache = mCatchUpFloor.equals(UnknownIndex) && !mNewestFirst;
+        mRequestTimeout = wholeCache ? EventNotificationsService.LongerReadTimeout : pageTimeout();
+        mRequestStartNanos = System.nanoTime();
+        mLastRequest = lastIndex + "&" + maxResults;
+        mTransport.getEventList(lastIndex, maxResults, mRequestTimeout, mHandleResultCallback);
+        Log.i(App.TAG, String.format("SERVER %s (poll): Starting request (mLastIndex: %s)", mLogin.url, mLastIndex));
+    }
+
+    /**
+     * Handler for probe result. Runs on a background thread (see Transport).
+     */
+    private GenericCallback<FetchJSON.Result> mHandleProbeCallback = new GenericCallback<FetchJSON.Result>() {
+        @Override
+        public void onCallback(FetchJSON.Result fetchResult) {
+            long latencyNanos = System.nanoTime() - mRequestStartNanos;
+            Metrics.histogram(Metrics.POLL_PROBE).record(latencyNanos);
+            if (fetchResult.rawResponse != null) {
+                Metrics.counter(Metrics.POLL_BYTES_RECEIVED).add(fetchResult.rawResponse.length());
+            }
+            if ((mTransport instanceof EwebTransport) && ResponseRecorder.isEnabled()) {
+                ResponseRecorder.record(mId, true, mLastRequest, fetchResult, latencyNanos);
+            }
+            recordOutcome(mProbeTimeout, fetchResult, latencyNanos);
+
+            mHandleProbe(fetchResult);
+        }
+    };
+
+    /**
+     * Completes the poll if the newest event on the server is one we already have; otherwise starts the full fetch. 
+     * A failed probe ends the poll with an error rather than following up with the (more expensive) full fetch; one 
+     * that could not be understood falls through to the full fetch, which reports errors as usual.
+     */
+    private void mHandleProbe(FetchJSON.Result fetchResult) {
+        if (!fetchResult.success) {
+            failPoll(fetchResult);
+            return;
+        }
+
+        String newest = null;
+        try {
+            JSONObject result = fetchResult.json;
+            boolean failed = (result == null) || (result.has("success") && !result.getBoolean("success"));
+            if (!failed) {
+                iEventList probe = iEventList.fromJson(result);
+                if ((probe.events != null) && !probe.events.isEmpty()) {
+                    newest = probe.events.get(probe.events.size() - 1).getIndex();
+                }
+            }
+        } 
+        catch (Exception e) {
+            newest = null;
+        }
+
+        if ((newest != null) && !isNewer(newest, mLastIndex)) {
+            Metrics.counter(Metrics.POLL_FETCHES_AVOIDED).inc();
+            completePoll(false);
+            mIsFetching = false;
+            return;
+        }
+
+        startFetch();
+    }
+
+    /**
+     * Handler for data result. Runs on a background thread to avoid locking up the main UI (see Transport).
+     */
+    private GenericCallback<FetchJSON.Result> mHandleResultCallback = new GenericCallback<FetchJSON.Result>() {
+        @Override
+        public void onCallback(FetchJSON.Result fetchResult) {
+            long latencyNanos = System.nanoTime() - mRequestStartNanos;
+            mPageLatencyNanos = latencyNanos;
+            Metrics.histogram(Metrics.POLL_REQUEST_PAGE).record(latencyNanos);
+            if (fetchResult.rawResponse != null) {
+                Metrics.counter(Metrics.POLL_BYTES_RECEIVED).add(fetchResult.rawResponse.length());
+            }
+            if ((mTransport instanceof EwebTransport) && ResponseRecorder.isEnabled()) {
+                ResponseRecorder.record(mId, mPagesDone == 0, mLastRequest, fetchResult, latencyNanos);
+            }
+            recordOutcome(mPageTimeout, fetchResult, latencyNanos);
+
+            mHandleResult(fetchResult);
+        }
+    };
+
+    /**
+     * Handles the JSON result from eWEB; checks for errors and then processes the data, updates the cache and informs the
+     * service if new data has been received.
+     */
+    private void mHandleResult(FetchJSON.Result fetchResult) {
+        awaitHydrated(); // Pages are checked against, and merged into, the loaded cache
+
+        JSONObject result = fetchResult.json;
+
+        // Parse result
+        long parseStart = System.nanoTime();
+        iEventList lastGet = iEventList.fromJson(result);
+        Metrics.histogram(Metrics.POLL_PARSE).recordSince(parseStart);
+
+        if (lastGet.events == null) {
+            Log.i(App.TAG, "ServerPoller - handleJSONResult data is null, do nothing.");
+            mIsFetching = false;
+            mPagesTotal = 0;
+            return;
+        }
+
+        try {
+            // Check for failed response:
+            // - the request itself failed
+            // - or the response contained a success JSON object that indicated a failure
+            boolean failed = (!fetchResult.success) || ((result.has("success") && !result.getBoolean("success")));
+            if (failed) {
+                failPoll(fetchResult);
+                return;
+            }
+
+            // Else we have a successful result.
+            boolean firstPage = (mPagesDone == 0);
+            int pageSize = lastGet.events.size();
+            mPagesDone++;
+            Metrics.counter(Metrics.POLL_PAGES).inc();
+            mPageSizer.onPage(mRequestedPageSize, pageSize, mPageLatencyNanos / 1000000, (fetchResult.rawResponse == null) ? 0 : fetchResult.rawResponse.length());
+            Metrics.gauge(metricName(Metrics.POLL_PAGE_SIZE)).set(mPageSizer.getPageSize());
+            Metrics.gauge(metricName(Metrics.POLL_PAGE_MS)).set(mPageSizer.getLastPageMs());
+            Metrics.gauge(metricName(Metrics.POLL_PAGE_EVENTS_PER_SECOND)).set(Math.round(mPageSizer.getEventsPerSecond()));
+
+            // A catch up that failed part way leaves its pages in the cache; skip them when the request is retried.
+            ArrayList<iEvent> page = new ArrayList<iEvent>(lastGet.events.size());
+            for (iEvent ev : lastGet.events) {
+                if (!mEventCache.contains(ev.getIndex())) {
+                    page.add(ev);
+                }
+            }
+
+            // Raise HIGH level alarms as soon as their page is in, rather than after all pages; every page, including 
+            // the first after open or hydrate.
+            ArrayList<iEvent> highPriority = new ArrayList<iEvent>();
+            for (iEvent ev : page) {
+                if (EventNotificationsService.getAlertLevel(ev) == AlertLevel.HIGH) {
+                    highPriority.add(ev);
+                }
+            }
+            if (!highPriority.isEmpty()) {
+                mService.onHighPriorityEvents(this, highPriority);
+            }
+
+            if (firstPage && (pageSize > 0)) {
+                mCatchUpTop = lastGet.events.get(pageSize - 1).getIndex();
+                mPagesTotal = estimatePages(mCatchUpFloor, mCatchUpTop, pageSize);
+
+                // A full newest page means there is older history to load
+                if (mNewestFirst && (lastGet.next != null) && (pageSize >= mRequestedPageSize)) {
+                    mBackfillURL = lastGet.next;
+                }
+            }
+
+            // Add events from last get
+            // iEventList sorts the events in ASC order on event index number, but eWEB returns the newest page first;
+            // so the first page is appended to the cache and later ones are inserted in front of it.
+            if (page.size() > 0) {
+                mService.onEventsReceived(this, page);
+                long addStart = System.nanoTime();
+                if (firstPage) {
+                    mEventCache.addAll(page);
+                }
+                else {
+                    mEventCache.addOlderPage(page);
+                }
+                Metrics.histogram(Metrics.CACHE_ADD_PAGE).recordSince(addStart);
+                Metrics.counter(Metrics.CACHE_EVENTS_ADDED).add(page.size());
+                flushSpills();
+                mFetchedCount += page.size();
+                mNewEventCount = mNewEventCount + page.size();
+            }
+
+            // Check if we have MORE data to get
+            // Note, it appears that eWEB is returning next url even when 0 events remain
+            // This means we cannot rely on the existence of the next url to tell when we are "done" getting data.
+            // Instead use the number of results we have retrieved, and stop once a page reaches the index we started from.
+            // Also note: this is our original request if our cache was empty. Only use "next" if this is not the case.
+            if ((!mCatchUpFloor.equals(UnknownIndex))
+                    && (lastGet.next != null)
+                    && (pageSize > 0)
+                    && (mFetchedCount < mEventCache.getMaxEvents())
+                    && !reachesIndex(lastGet.events.get(0).getIndex(), mCatchUpFloor)) {
+                Log.i(App.TAG, String.format("SERVER %s (handleJSONResult): Catching up %d/%d, next URL found, %s", mLogin.url, mPagesDone, mPagesTotal, lastGet.next));
+                mPagesTotal = Math.max(mPagesTotal, mPagesDone + 1);
+                if (page.size() > 0) {
+                    mService.onServerUpdated(this);
+                }
+                getNextData(lastGet.next, mEventCache.getMaxEvents() - mFetchedCount);
+                // Note, still fetching!
+                return;
+            }
+
+            // When here, we have all the data we need to respond to the request.
+            // Note: lastGet.data.index no longer appears to return the highest index; use the newest event of the first page.
+            boolean newData = !mCatchUpTop.equals(UnknownIndex) && !mCatchUpTop.equals(mLastIndex);
+            if (newData) {
+                // Update last index
+                mLastIndex = mCatchUpTop;
+            }
+            completePoll(newData);
+        } 
+        catch (Exception e) {
+            Metrics.counter(Metrics.POLL_ERRORS).inc();
+            Log.e(App.TAG, String.format("SERVER %s (handleJSONResult): Error found: %s", mLogin.url, e.getMessage()));
+            reportError(STATUS.EWEB_ERROR, mService.getString(R.string.notification_error_getting_events));
+            writeCheckpoint();
+        }
+
+        // Attempt to run the next item in the queue.
+        mIsFetching = false;
+        mPagesTotal = 0;
+    }
+
+    /**
+     * Ends the poll after a failed request.
+     */
+    private void failPoll(FetchJSON.Result fetchResult) {
+        STATUS status;
+        String message;
+        if (fetchResult.statusCode == HttpStatus.SC_UNAUTHORIZED) {
+            status = STATUS.INVALID_LOGIN;
+            message = mService.getString(R.string.notification_invalid_eweb_login);
+        }
+        else {
+            // Assume network connection issue
+            status = STATUS.EWEB_ERROR;
+            message = mService.getString(R.string.notification_network_connection_issue);
+        }
+
+        Log.i(App.TAG, String.format("SERVER %s (handleJSONResult): %s", mLogin.url, message));
+        mIsFetching = false;
+        mPagesTotal = 0;
+        Metrics.counter(Metrics.POLL_ERRORS).inc();
+        reportError(status, message);
+        writeCheckpoint();
+    }
+
+    /**
+     * Sets the error status, and tells the service unless that was the status already; a server that keeps failing 
+     * raises one notification rather than one per poll.
+     */
+    private void reportError(STATUS status, String message) {
+        boolean changed = (mCurrentStatus != status);
+        mCurrentStatus = status;
+        if (changed) {
+            mService.onServerError(this, message);
+        }
+    }
+
+    /**
+     * Feeds the outcome of a request to the circuit breaker, and its latency to the timeout of its kind.
+     */
+    private void recordOutcome(AdaptiveTimeout timeout, FetchJSON.Result fetchResult, long latencyNanos) {
+        if (fetchResult.success) {
+            mBreaker.onSuccess();
+            timeout.record(latencyNanos / 1000000);
+            return;
+        }
+        mBreaker.onFailure();
+        if ((fetchResult.statusCode == 0) || (fetchResult.statusCode == FetchRawResponse.DefaultStatusCode)) {
+            timeout.onTimeout(); // No response at all
+        }
+    }
+
+    /**
+     * Read timeout for a fetch page; see AdaptiveTimeout.
+     */
+    private int pageTimeout() {
+        int timeout = mPageTimeout.getTimeoutMs(EventNotificationsService.LongerReadTimeout);
+        Metrics.gauge(metricName(Metrics.POLL_PAGE_TIMEOUT)).set(timeout);
+        return timeout;
+    }
+
+    /**
+     * Bookkeeping once a poll has everything it asked for; saves and announces new data.
+     */
+    private void completePoll(boolean newData) {
+        mPagesTotal = 0;
+        if (mOpenedNanos != 0) {
+            Metrics.histogram(Metrics.POLL_FIRST_DATA).recordSince(mOpenedNanos);
+            mOpenedNanos = 0;
+        }
+        mLastSuccess = Calendar.getInstance().getTime();
+        STATUS previousStatus = mCurrentStatus;
+        mCurrentStatus = STATUS.OK;
+
+        // We have new data!
+        if (newData) {
+            writeToCacheFile();
+
+            Log.i(App.TAG, String.format("SERVER %s (handleJSONResult): %s Total events, %s New events", mLogin.url, mEventCache.size(), mNewEventCount));
+            mService.onServerUpdated(this);
+        }
+        // No new data.
+        else {
+            Log.i(App.TAG, String.format("SERVER %s (handleJSONResult): No new events", mLogin.url));
+
+            // Only inform the service if we transition from a non-ok status to an ok status to allow client UIs to be updated
+            if (previousStatus != STATUS.OK) {
+                writeCheckpoint();
+                mService.onServerUpdated(this);
+            }
+        }
+
+        // Carry on with (or retry) the older history, if any
+        scheduleBackfill();
+    }
+
+    // ------------------------------------------------------------------------------
+    // Older history
+    // ------------------------------------------------------------------------------
+    /**
+     * Requests the next page of the history that is older than the first, newest-first, fetch (see startFetch); pages 
+     * are loaded one at a time, in the background after each poll (see scheduleBackfill) and when the UI asks for 
+     * more. Returns false if there is nothing more to load, the cache is full, or a request is already in progress.
+     */
+    public boolean loadOlder() {
+        final String url;
+        final int pageSize;
+        synchronized (mRequestLock) {
+            if ((mBackfillURL == null) || mIsBackfilling || mIsFetching || !mBreaker.allowRequest()) {
+                return false;
+            }
+            int room = mEventCache.getMaxEvents() - mEventCache.size();
+            if (room <= 0) {
+                mBackfillURL = null;
+                return false;
+            }
+            url = mBackfillURL;
+            pageSize = Math.max(1, Math.min(room, mPageSizer.getPageSize()));
+            mIsBackfilling = true;
+        }
+
+        final long start = System.nanoTime();
+        String fullURL = pageURL(url, pageSize);
+        mTransport.getNextEventList(fullURL, pageTimeout(), new GenericCallback<FetchJSON.Result>() {
+            @Override
+            public void onCallback(FetchJSON.Result fetchResult) {
+                recordOutcome(mPageTimeout, fetchResult, System.nanoTime() - start);
+                mHandleBackfill(url, pageSize, fetchResult);
+            }
+        });
+        Log.i(App.TAG, String.format("SERVER %s (loadOlder): Starting request (fullURL: %s)", mLogin.url, fullURL));
+        return true;
+    }
+
+    /**
+     * Handles a page of older history; runs on a background thread (see Transport). A failed page is not reported; it 
+     * is tried again after the next poll. A poll that was held back for the page is run now.
+     */
+    private void mHandleBackfill(String url, int requested, FetchJSON.Result fetchResult) {
+        awaitHydrated();
+        boolean added = false;
+        try {
+            added = addBackfillPage(url, requested, fetchResult);
+        }
+        catch (Exception e) {
+            Log.e(App.TAG, String.format("SERVER %s (handleBackfill): Error found: %s", mLogin.url, e.getMessage()));
+        }
+
+        synchronized (mRequestLock) {
+            mIsBackfilling = false;
+        }
+
+        // A poll that was held back schedules the next history page once it completes
+        if (!runPendingPoll() && added) {
+            scheduleBackfill();
+        }
+    }
+
+    /**
+     * Runs the poll that was held back (see poll), if any.
+     * 
+     * @return true if there was one.
+     */
+    private boolean runPendingPoll() {
+        boolean pollPending;
+        synchronized (mRequestLock) {
+            pollPending = mPollPending;
+            mPollPending = false;
+        }
+        if (pollPending) {
+            poll(mLogin);
+        }
+        return pollPending;
+    }
+
+    /**
+     * Adds a page of older history behind the cached events; returns false if the page failed, or the history was reset 
+     * while it was outstanding.
+     */
+    private boolean addBackfillPage(String url, int requested, FetchJSON.Result fetchResult) throws JSONException {
+        JSONObject result = fetchResult.json;
+        boolean failed = (!fetchResult.success) || (result == null) || (result.has("success") && !result.getBoolean("success"));
+        iEventList lastGet = failed ? null : iEventList.fromJson(result);
+        if ((lastGet == null) || (lastGet.events == null)) {
+            Log.i(App.TAG, String.format("SERVER %s (handleBackfill): Failed (%d), retrying after the next poll", mLogin.url, fetchResult.statusCode));
+            return false;
+        }
+
+        ArrayList<iEvent> page = new ArrayList<iEvent>(lastGet.events.size());
+        for (iEvent ev : lastGet.events) {
+            if (!mEventCache.contains(ev.getIndex())) {
+                page.add(ev);
+            }
+        }
+
+        synchronized (mRequestLock) {
+            if (!url.equals(mBackfillURL)) {
+                return false; // Reset while the page was outstanding
+            }
+            if (page.size() > 0) {
+                mService.onHistoryReceived(this, page);
+                mEventCache.addHistoryPage(page);
+            }
+            boolean more = (lastGet.next != null)
+                    && (lastGet.events.size() >= requested)
+                    && (mEventCache.size() < mEventCache.getMaxEvents());
+            mBackfillURL = more ? lastGet.next : null;
+        }
+
+        Metrics.counter(Metrics.POLL_BACKFILL_PAGES).inc();
+        Log.i(App.TAG, String.format("SERVER %s (handleBackfill): %d older events, %s", mLogin.url, page.size(), (mBackfillURL == null) ? "history complete" : "more to load"));
+        writeToCacheFile();
+        mService.onHistoryAdded(this);
+        return true;
+    }
+
+    /**
+     * Loads the next page of older history shortly, on the low priority backfill thread, so it gives way to polls and 
+     * the UI. Does nothing if a page is already scheduled.
+     */
+    private void scheduleBackfill() {
+        if ((mBackfillURL == null) || !(mTransport instanceof EwebTransport)) {
+            return; // Nothing to load, or replaying a recording
+        }
+        synchronized (mRequestLock) {
+            if ((mBackfillTask != null) && !mBackfillTask.isDone()) {
+                return;
+            }
+            mBackfillTask = sBackfillScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    loadOlder();
+                }
+            }, BACKFILL_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Name of a per server metric; the primary server uses the plain name, the others add their id.
+     */
+    private String metricName(String name) {
+        return isPrimary() ? name : String.format("%s.%s", name, mId);
+    }
+
+    /**
+     * True if index is after last, or if either is not a number.
+     */
+    private static boolean isNewer(String index, String last) {
+        try {
+            return Long.parseLong(index) > Long.parseLong(last);
+        }
+        catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Estimates the number of pages needed to catch up from floor to top; event indexes are sequential, so the gap is
+     * the number of missed events. Capped at what the cache can hold, since the catch up stops there.
+     */
+    private int estimatePages(String floor, String top, int pageSize) {
+        if (floor.equals(UnknownIndex)) {
+            return 1;
+        }
+        try {
+            long gap = Long.parseLong(top) - Long.parseLong(floor);
+            long maxPages = (mEventCache.getMaxEvents() + pageSize - 1) / pageSize;
+            return (int) Math.max(1, Math.min(maxPages, (gap + pageSize - 1) / pageSize));
+        }
+        catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * True if index is at or below floor + 1, i.e. nothing is missing between the two.
+     */
+    private static boolean reachesIndex(String index, String floor) {
+        try {
+            return Long.parseLong(index) <= Long.parseLong(floor) + 1;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * If another request is required to fulfill the original request, eWEB will return a "next" url.
+     * This method runs that url and then calls the original callback. The url keeps the max-results of the first
+     * request; it is replaced with the current page size, up to maxResults.
+     * @param url
+     * @param maxResults
+     */
+    private void getNextData(String url, int maxResults) {
+        mRequestedPageSize = Math.max(1, Math.min(maxResults, mPageSizer.getPageSize()));
+        String fullURL = pageURL(url, mRequestedPageSize);
+
+        mRequestTimeout = pageTimeout();
+        mRequestStartNanos = System.nanoTime();
+        mLastRequest = fullURL;
+        mTransport.getNextEventList(fullURL, mRequestTimeout, mHandleResultCallback);
+
+        Log.i(App.TAG, String.format("SERVER %s (getNextData): Starting request (fullURL: %s)", mLogin.url, fullURL));
+    }
+
+    /**
+     * A "next" url from eWEB, with its max-results replaced by pageSize.
+     */
+    private static String pageURL(String url, int pageSize) {
+        String pageURL = url.matches(".*[?&]max-results=\\d+.*")
+                ? url.replaceFirst("([?&])max-results=\\d+", "$1max-results=" + pageSize)
+                : url + "&max-results=" + pageSize;
+        return String.format("%s&alt=json", pageURL);
+    }
+
+    // ------------------------------------------------------------------------------------------------
+    // Serializing JSON to/from internal file so that data can persist if app process is killed and restarted
+    // ------------------------------------------------------------------------------------------------
+    /**
+     * Primary login keeps the original file names so existing caches are still picked up.
+     */
+    private String fileSuffix() {
+        return isPrimary() ? "" : "_" + mId;
+    }
+
+    /**
+     * Writes eventCache json object to a file in internal storage so that it may persist if application is killed and restarted. 
+     * Runs on sFileWriter so we don't hang the UI
+     */
+    public synchronized void writeToCacheFile() {
+        // Snapshot and queue under the same lock, so the writes are queued in snapshot order. The snapshot is taken 
+        // first, so it never points past the cache copy.
+        final Checkpoint checkpoint = snapshot();
+        sFileWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                awaitHydrated();
+                mEventCache.flushSpills();
+                synchronized (mCacheFileLock) {
+                    long writeStart = System.nanoTime();
+                    EventListFile.write(new AndroidPlatform.ContextStorage(App.getContext()), String.format(CACHED_FILENAME, fileSuffix()), mEventCache.getCopy());
+                    Metrics.histogram(Metrics.PERSIST_WRITE).recordSince(writeStart);
+                    writeCheckpoint(checkpoint);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes only the checkpoint; for changes that do not touch the events (status, new event count). Queued behind 
+     * any cache file write asked for earlier.
+     */
+    private synchronized void writeCheckpoint() {
+        final Checkpoint checkpoint = snapshot();
+        sFileWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mCacheFileLock) {
+                    writeCheckpoint(checkpoint);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes run in order, but snapshots taken before a reset may still be queued; never replace a newer snapshot 
+     * with an older one.
+     */
+    private void writeCheckpoint(Checkpoint checkpoint) {
+        File file = checkpointFile();
+        if ((file != null) && (checkpoint.sequence > mCheckpointWritten)) {
+            checkpoint.write(file);
+            mCheckpointWritten = checkpoint.sequence;
+        }
+    }
+
+    private synchronized Checkpoint snapshot() {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.sequence = ++mCheckpointSequence;
+        checkpoint.lastIndex = mLastIndex;
+        checkpoint.lastSuccess = (mLastSuccess == null) ? 0 : mLastSuccess.getTime();
+        checkpoint.newEventCount = mNewEventCount;
+        checkpoint.status = mCurrentStatus.name();
+        checkpoint.backfillURL = mBackfillURL;
+        return checkpoint;
+    }
+
+    private void restore(Checkpoint checkpoint) {
+        mLastIndex = checkpoint.lastIndex;
+        mLastSuccess = (checkpoint.lastSuccess == 0) ? null : new Date(checkpoint.lastSuccess);
+        mNewEventCount = checkpoint.newEventCount;
+        mBackfillURL = checkpoint.backfillURL;
+        try {
+            mCurrentStatus = STATUS.valueOf(checkpoint.status);
+        } 
+        catch (Exception e) {
+            mCurrentStatus = STATUS.UNKNOWN;
+        }
+    }
+
+    private synchronized long checkpointSequence() {
+        return mCheckpointSequence;
+    }
+
+    private File checkpointFile() {
+        return (mFilesDir == null) ? null : new File(mFilesDir, String.format(CHECKPOINT_FILENAME, fileSuffix()));
+    }
+
+    /**
+     * Opens the cold tier and loads the in-memory tier from file; only the in-memory tier is loaded, the cold tier 
+     * stays on disk.
+     */
+    private void hydrate(Context ctx) {
+        long start = System.nanoTime();
+        mColdStore = new ColdEventStore(new File(ctx.getFilesDir(), String.format(COLD_FILENAME, fileSuffix())), COLD_STORE_MAX_EVENTS);
+        mEventCache.setColdStore(mColdStore);
+        synchronized (mCacheFileLock) {
+            // Through the history path; events from before a restart are not a storm now
+            mEventCache.addHistoryPage(EventListFile.read(new AndroidPlatform.ContextStorage(ctx), String.format(CACHED_FILENAME, fileSuffix())));
+        }
+        mEventCache.flushSpills();
+        Metrics.histogram(Metrics.CACHE_HYDRATE).recordSince(start);
+    }
+
+    /**
+     * Writes the events the cache spilled to the cold tier, on sFileWriter; the cache only queues them (see 
+     * EventCache.flushSpills), so the disk is not written while it is locked.
+     */
+    private void flushSpills() {
+        sFileWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                mEventCache.flushSpills();
+            }
+        });
+    }
+
+    /**
+     * Blocks until the file work queued so far (see open, reset and writeToCacheFile) has run; the load tests use it to 
+     * start from a known state. Never on the main thread.
+     */
+    void awaitFileWriter() {
+        try {
+            sFileWriter.submit(new Runnable() {
+                @Override
+                public void run() {
+                    awaitHydrated();
+                }
+            }).get();
+        } 
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } 
+        catch (ExecutionException e) {
+            // Nothing to wait for
+        }
+    }
+
+    /**
+     * Blocks until open() has loaded the cache (and the last index, without a checkpoint); returns right away if it 
+     * has, or if the poller was never opened. Never on the main thread.
+     */
+    private void awaitHydrated() {
+        CountDownLatch hydrated = mHydrated;
+        if (hydrated == null) {
+            return;
+        }
+        try {
+            hydrated.await();
+        } 
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deleteCacheFile() {
+        synchronized (mCacheFileLock) {
+            App.getContext().deleteFile(String.format(CACHED_FILENAME, fileSuffix()));
+            File file = checkpointFile();
+            if (file != null) {
+                Checkpoint.delete(file);
+            }
+            mCheckpointWritten = checkpointSequence(); // Drop snapshots from before the reset that are still queued
+        }
+    }
+}
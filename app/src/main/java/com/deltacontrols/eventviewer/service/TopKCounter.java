@@ -0,0 +1,147 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * TopKCounter finds the most frequent keys in a stream using a fixed number of counters (the Space-Saving algorithm);
+ * memory does not grow with the number of distinct keys. When a new key arrives and all counters are in use, the 
+ * counter with the lowest count is taken over and its count is kept as the possible over-estimate (error) of the new key.
+ * Counts of the top keys are exact as long as there are fewer distinct keys than counters, and close otherwise.
+ * 
+ * Plain fields only so that it can be stored with Gson. Not thread safe.
+ */
+public class TopKCounter {
+
+    // ------------------------------------------------------------------------------
+    // Entry
+    // ------------------------------------------------------------------------------
+    public static class Entry {
+        public String key;
+        public String label;    // Display name for the key, as of its last occurrence
+        public long count;      // Upper bound of the number of occurrences of key
+        public long error;      // Count may be over by at most this much
+
+        public Entry() {
+        }
+
+        public Entry(Entry other) {
+            key = other.key;
+            label = other.label;
+            count = other.count;
+            error = other.error;
+        }
+    }
+
+    // ------------------------------------------------------------------------------
+    // Properties
+    // ------------------------------------------------------------------------------
+    private int mCapacity;
+    private HashMap<String, Entry> mEntries;
+    private long mTotal;
+
+    // ------------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------------
+    public TopKCounter() {
+        this(64);
+    }
+
+    public TopKCounter(int capacity) {
+        mCapacity = Math.max(1, capacity);
+        mEntries = new HashMap<String, Entry>();
+    }
+
+    // ------------------------------------------------------------------------------
+    // Public functions
+    // ------------------------------------------------------------------------------
+    public void add(String key, String label) {
+        if (key == null) {
+            return;
+        }
+        mTotal++;
+
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            if (mEntries.size() >= mCapacity) {
+                // Take over the smallest counter; O(capacity) but only when an unseen key arrives with all counters in use
+                Entry min = null;
+                for (Entry candidate : mEntries.values()) {
+                    if ((min == null) || (candidate.count < min.count)) {
+                        min = candidate;
+                    }
+                }
+                mEntries.remove(min.key);
+                entry.count = min.count;
+                entry.error = min.count;
+            }
+            entry.key = key;
+            mEntries.put(key, entry);
+        }
+
+        entry.count++;
+        entry.label = label;
+    }
+
+    /**
+     * Returns copies of the k entries with the highest counts, highest first.
+     */
+    public ArrayList<Entry> getTop(int k) {
+        ArrayList<Entry> sorted = new ArrayList<Entry>();
+        for (Entry entry : mEntries.values()) {
+            sorted.add(new Entry(entry));
+        }
+
+        Collections.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return (lhs.count == rhs.count) ? 0 : ((lhs.count > rhs.count) ? -1 : 1);
+            }
+        });
+
+        return new ArrayList<Entry>(sorted.subList(0, Math.min(k, sorted.size())));
+    }
+
+    /**
+     * Number of keys added in total.
+     */
+    public long getTotal() {
+        return mTotal;
+    }
+
+    public void clear() {
+        mEntries.clear();
+        mTotal = 0;
+    }
+}
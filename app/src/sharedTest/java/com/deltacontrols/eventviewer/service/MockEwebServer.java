@@ -0,0 +1,448 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * MockEwebServer is a local stand in for eWEB, for load tests of the polling pipeline (see PollingLoadTest). It listens
+ * on the loopback interface and serves the parts of the API the app uses:
+ * 
+ * /api/auth/login, /api/auth/basiclogin - always accepted (unless an error is scripted); login starts a session, with
+ * a session cookie. Requests with a live session cookie skip the credential check; requests with basic authentication
+ * are checked every time, which costs setAuthCostMs. A request with an expired session and no credentials gets a 401.
+ * /api/event - the events Collection; startID=-N (newer than N), sequence-le=N, max-results=N and "next" paging. Pages
+ * are newest first, and like eWEB a "next" url is returned even when no events remain.
+ * /api/event/{index}/AlarmDetails - GET returns the event's details; PUT/POST is accepted.
+ * /api/event/ack - adds an ALARMACK transition for the acked event.
+ * 
+ * Latency, error codes, hanging requests (timeouts) and the rate at which new events appear can be changed while the 
+ * server is running. Events come from SyntheticEvents.
+ */
+public class MockEwebServer {
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private final Gson mGson = new Gson();
+    private final SyntheticEvents mGenerator;
+    private final TreeMap<Long, iEvent> mEvents = new TreeMap<Long, iEvent>(); // By index; guarded by this
+    private ServerSocket mSocket;
+    private Thread mAcceptThread;
+    private Thread mGeneratorThread;
+    private volatile boolean mRunning = false;
+
+    // Script; may be changed at any time
+    private volatile int mLatencyMs = 0;            // Added to every response
+    private volatile int mErrorCode = 0;            // When not 0, every request fails with this HTTP status (401, 500...)
+    private volatile int mHangMs = 0;               // When not 0, requests hang this long before the response; > read timeout is a timeout
+    private volatile double mEventsPerSecond = 0;   // Rate of new events while running
+    private volatile int mAuthCostMs = 0;           // Added to every request that checks credentials (basic authentication or a login)
+    private volatile int mRequestCount = 0;
+    private volatile int mAuthenticationCount = 0;
+    private final HashSet<String> mSessions = new HashSet<String>(); // Live session cookies; guarded by itself
+    private int mNextSession = 1;                                       // Guarded by mSessions
+
+    // ------------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------------
+    public MockEwebServer(SyntheticEvents generator) {
+        mGenerator = generator;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Script
+    // ------------------------------------------------------------------------------
+    public void setLatencyMs(int latencyMs) {
+        mLatencyMs = latencyMs;
+    }
+
+    public void setErrorCode(int errorCode) {
+        mErrorCode = errorCode;
+    }
+
+    public void setHangMs(int hangMs) {
+        mHangMs = hangMs;
+    }
+
+    public void setAuthCostMs(int authCostMs) {
+        mAuthCostMs = authCostMs;
+    }
+
+    /**
+     * Ends all sessions, e.g. as a server restart would; their next request gets a 401.
+     */
+    public void expireSessions() {
+        synchronized (mSessions) {
+            mSessions.clear();
+        }
+    }
+
+    public void setEventsPerSecond(double eventsPerSecond) {
+        mEventsPerSecond = eventsPerSecond;
+    }
+
+    /**
+     * Adds count events at once; e.g. the backlog that built up during an outage.
+     */
+    public synchronized void addEvents(int count) {
+        for (iEvent ev : mGenerator.next(count)) {
+            mEvents.put(Long.parseLong(ev.getIndex()), ev);
+        }
+    }
+
+    public synchronized String getNewestIndex() {
+        return mEvents.isEmpty() ? ServerPoller.UnknownIndex : String.valueOf(mEvents.lastKey());
+    }
+
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Requests that had their credentials checked; logins and requests with basic authentication.
+     */
+    public int getAuthenticationCount() {
+        return mAuthenticationCount;
+    }
+
+    /**
+     * Base url to log in with, e.g. http://127.0.0.1:12345
+     */
+    public String getUrl() {
+        return String.format("http://127.0.0.1:%d", mSocket.getLocalPort());
+    }
+
+    // ------------------------------------------------------------------------------
+    // Life Cycle
+    // ------------------------------------------------------------------------------
+    public void start() throws IOException {
+        mSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        mRunning = true;
+
+        mAcceptThread = new Thread() {
+            @Override
+            public void run() {
+                while (mRunning) {
+                    try {
+                        final Socket client = mSocket.accept();
+                        Thread handler = new Thread() {
+                            @Override
+                            public void run() {
+                                handle(client);
+                            }
+                        };
+                        handler.start();
+                    } 
+                    catch (IOException e) {
+                        // Closed by stop()
+                    }
+                }
+            }
+        };
+        mAcceptThread.start();
+
+        mGeneratorThread = new Thread() {
+            @Override
+            public void run() {
+                double owed = 0;
+                while (mRunning) {
+                    owed += mEventsPerSecond / 10;
+                    if (owed >= 1) {
+                        addEvents((int) owed);
+                        owed -= (int) owed;
+                    }
+                    try {
+                        Thread.sleep(100);
+                    } 
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        mGeneratorThread.start();
+    }
+
+    public void stop() {
+        mRunning = false;
+        try {
+            mSocket.close();
+        } 
+        catch (IOException e) {
+            // Nothing more to do
+        }
+        mGeneratorThread.interrupt();
+    }
+
+    // ------------------------------------------------------------------------------
+    // HTTP
+    // ------------------------------------------------------------------------------
+    private void handle(Socket client) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                client.close();
+                return;
+            }
+
+            // Skip the body; only the credentials in the headers change the response.
+            int contentLength = 0;
+            boolean basicAuth = false;
+            String cookie = null;
+            for (String header = in.readLine(); (header != null) && !header.isEmpty(); header = in.readLine()) {
+                String lower = header.toLowerCase();
+                if (lower.startsWith("content-length:")) {
+                    contentLength = Integer.parseInt(header.substring(15).trim());
+                }
+                else if (lower.startsWith("authorization:")) {
+                    basicAuth = true;
+                }
+                else if (lower.startsWith("cookie:")) {
+                    cookie = header.substring(7).trim();
+                }
+            }
+            for (int i = 0; i < contentLength; i++) {
+                in.read();
+            }
+
+            mRequestCount++;
+            String[] parts = requestLine.split(" ");
+            String method = parts[0];
+            String target = (parts.length > 1) ? parts[1] : "/";
+
+            sleep(mLatencyMs + mHangMs);
+
+            // Credentials
+            boolean login = target.startsWith("/api/auth/");
+            boolean liveSession = false;
+            if ((cookie != null) && !login) {
+                synchronized (mSessions) {
+                    for (String pair : cookie.split(";")) {
+                        liveSession |= mSessions.contains(pair.trim());
+                    }
+                }
+            }
+            if (login || (basicAuth && !liveSession)) {
+                mAuthenticationCount++;
+                sleep(mAuthCostMs);
+            }
+
+            int status = mErrorCode;
+            String body;
+            String setCookie = null;
+            if (status != 0) {
+                body = "{\"success\":false}";
+            }
+            else if ((cookie != null) && !login && !liveSession && !basicAuth) {
+                status = 401;
+                body = "{\"success\":false}";
+            }
+            else {
+                status = 200;
+                body = respond(method, target);
+                if (body == null) {
+                    status = 404;
+                    body = "{\"success\":false}";
+                }
+                else if (target.startsWith("/api/auth/login")) {
+                    synchronized (mSessions) {
+                        setCookie = "session=" + (mNextSession++);
+                        mSessions.add(setCookie);
+                    }
+                }
+            }
+
+            byte[] bytes = body.getBytes("UTF-8");
+            OutputStream out = client.getOutputStream();
+            out.write(String.format("HTTP/1.1 %d %s\r\nContent-Type: %s\r\nContent-Length: %d\r\n%sConnection: close\r\n\r\n",
+                    status,
+                    (status == 200) ? "OK" : "Error",
+                    body.startsWith("<") ? "application/xml" : "application/json",
+                    bytes.length,
+                    (setCookie == null) ? "" : String.format("Set-Cookie: %s; Path=/\r\n", setCookie)).getBytes("UTF-8"));
+            out.write(bytes);
+            out.flush();
+            client.close();
+        } 
+        catch (Exception e) {
+            Platform.log().e("MockEwebServer request failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Body of a successful response; null if the target is unknown (404).
+     */
+    private String respond(String method, String target) {
+        int query = target.indexOf('?');
+        String path = (query < 0) ? target : target.substring(0, query);
+        HashMap<String, String> params = parseQuery((query < 0) ? "" : target.substring(query + 1));
+
+        if (path.startsWith("/api/auth/")) {
+            return "{\"$base\":\"String\",\"value\":\"OK\",\"_csrfToken\":\"mock\"}";
+        }
+        if (path.equals("/api/event")) {
+            return eventPage(params);
+        }
+        if (path.equals("/api/event/ack")) {
+            ackNewest();
+            return "<Struct />";
+        }
+        if (path.startsWith("/api/event/") && path.endsWith("/AlarmDetails")) {
+            if (!method.equals("GET")) {
+                return "<Struct />";
+            }
+            return alarmDetails(path.substring("/api/event/".length(), path.length() - "/AlarmDetails".length()));
+        }
+        if (path.startsWith("/api/")) {
+            // .multi, user, systems; the load tests do not look at these
+            return "<Struct />";
+        }
+        return null;
+    }
+
+    /**
+     * Newest max-results events newer than startID=-N and at most sequence-le; ASC within the page, like eWEB.
+     */
+    private synchronized String eventPage(HashMap<String, String> params) {
+        long after = 0;
+        long atMost = Long.MAX_VALUE;
+        int maxResults = 500;
+        try {
+            if (params.containsKey("startID")) {
+                after = Math.abs(Long.parseLong(params.get("startID")));
+            }
+            if (params.containsKey("sequence-le")) {
+                atMost = Long.parseLong(params.get("sequence-le"));
+            }
+            if (params.containsKey("max-results")) {
+                maxResults = Integer.parseInt(params.get("max-results"));
+            }
+        } 
+        catch (NumberFormatException e) {
+            // Use the defaults
+        }
+
+        List<iEvent> page = new ArrayList<iEvent>();
+        for (Long index : mEvents.descendingKeySet()) {
+            if (index > atMost) {
+                continue;
+            }
+            if ((index <= after) || (page.size() >= maxResults)) {
+                break;
+            }
+            page.add(0, mEvents.get(index));
+        }
+
+        JsonObject collection = new JsonObject();
+        collection.addProperty("$base", "Collection");
+        for (iEvent ev : page) {
+            collection.add(ev.getIndex(), mGson.toJsonTree(ev));
+        }
+
+        // eWEB returns a next url even when nothing remains
+        long nextAtMost = page.isEmpty() ? after : Long.parseLong(page.get(0).getIndex()) - 1;
+        collection.addProperty("next", String.format("%s/api/event?startID=-%d&sequence-le=%d&max-results=%d", getUrl(), after, nextAtMost, maxResults));
+        return collection.toString();
+    }
+
+    private synchronized String alarmDetails(String index) {
+        try {
+            iEvent ev = mEvents.get(Long.parseLong(index));
+            if ((ev != null) && (ev.AlarmDetails != null)) {
+                return mGson.toJson(ev.AlarmDetails);
+            }
+        } 
+        catch (NumberFormatException e) {
+            // Fall through
+        }
+        return "{\"$base\":\"Struct\"}";
+    }
+
+    /**
+     * The ack body is not parsed; acknowledge the newest event, which is what the load tests ack.
+     */
+    private synchronized void ackNewest() {
+        iEvent ack = mGenerator.next();
+        if (!mEvents.isEmpty()) {
+            iEvent acked = mEvents.lastEntry().getValue();
+            JsonObject json = mGson.toJsonTree(ack).getAsJsonObject();
+            json.add("EventRef", mGson.toJsonTree(acked).getAsJsonObject().get("EventRef"));
+            json.getAsJsonObject("Action").addProperty("value", iEvent.TransitionAction.ALARMACK.toString());
+            ack = mGson.fromJson(json, iEvent.class);
+        }
+        mEvents.put(Long.parseLong(ack.getIndex()), ack);
+    }
+
+    private static HashMap<String, String> parseQuery(String query) {
+        HashMap<String, String> params = new HashMap<String, String>();
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            try {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            } 
+            catch (Exception e) {
+                // Skip malformed parameters
+            }
+        }
+        return params;
+    }
+
+    private static void sleep(int ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } 
+        catch (InterruptedException e) {
+            // Respond early
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * SyntheticEvents generates realistic events for benchmarks and load tests; each event is a copy of one of the 
+ * templates (normally res/raw/fake_events.json) with a new index, timestamp, point and transition. Generation is 
+ * deterministic for a given seed; timestamps start at BASE_TIME (UTC) whatever the date or time zone of the device.
+ * 
+ * The number of distinct points (EventRefs) and the action mix are tunable; a low cardinality with a high alarm rate 
+ * looks like a flapping storm, a high cardinality like a site wide outage.
+ */
+public class SyntheticEvents {
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    public final static long BASE_TIME = 1399543200000L; // ms; 2014-05-08 10:00:00 UTC, the timestamp of the first event
+
+    // ------------------------------------------------------------------------------
+    // Private properties
+    // ------------------------------------------------------------------------------
+    private final Gson mGson = new Gson();
+    private final List<JsonObject> mTemplates;
+    private final Random mRandom;
+    private final int mRefCardinality;      // Number of distinct EventRefs generated
+    private final int mAckPercent;          // Share of ALARMACK transitions; the rest are STATUSCHANGE
+    private final int mNormalPercent;       // Share of STATUSCHANGE transitions that return to Normal
+    private final SimpleDateFormat mTimestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+    private long mNextIndex;
+    private long mNextTime;                 // ms; one second per event
+
+    // ------------------------------------------------------------------------------
+    // Constructors
+    // ------------------------------------------------------------------------------
+    /**
+     * @param templates Events to copy; must not be empty.
+     * @param firstIndex Index of the first generated event; indexes increase by one.
+     */
+    public SyntheticEvents(List<iEvent> templates, long seed, long firstIndex, int refCardinality, int ackPercent, int normalPercent) {
+        mTemplates = new ArrayList<JsonObject>(templates.size());
+        for (iEvent template : templates) {
+            mTemplates.add(mGson.toJsonTree(template).getAsJsonObject());
+        }
+        mRandom = new Random(seed);
+        mNextIndex = firstIndex;
+        mNextTime = BASE_TIME;
+        mTimestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        mRefCardinality = Math.max(1, refCardinality);
+        mAckPercent = ackPercent;
+        mNormalPercent = normalPercent;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Public functionality
+    // ------------------------------------------------------------------------------
+    public iEvent next() {
+        int point = mRandom.nextInt(mRefCardinality);
+        JsonObject json = mTemplates.get(point % mTemplates.size());
+
+        boolean ack = mRandom.nextInt(100) < mAckPercent;
+        boolean normal = !ack && (mRandom.nextInt(100) < mNormalPercent);
+
+        set(json, "Index", String.valueOf(mNextIndex++));
+        set(json, "EnteliwebTimestamp", mTimestampFormat.format(new Date(mNextTime)));
+        set(json, "EventRef", String.format("//Synthetic/%d.EV%d", point / 100, point % 100));
+        set(json, "InputRef", String.format("//Synthetic/%d.BV%d", point / 100, point % 100));
+        set(json, "Action", ack ? iEvent.TransitionAction.ALARMACK.toString() : iEvent.TransitionAction.STATUSCHANGE.toString());
+        set(json, "ToState", normal ? "Normal" : "Alarm");
+        set(json, "Acknowledged", ack ? "true" : "false");
+        mNextTime += 1000;
+
+        return mGson.fromJson(json, iEvent.class);
+    }
+
+    /**
+     * Next count events, in ASC index order.
+     */
+    public ArrayList<iEvent> next(int count) {
+        ArrayList<iEvent> events = new ArrayList<iEvent>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(next());
+        }
+        return events;
+    }
+
+    public long getNextIndex() {
+        return mNextIndex;
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private Helper Functions
+    // ------------------------------------------------------------------------------
+    private static void set(JsonObject event, String property, String value) {
+        JsonObject attribute = event.getAsJsonObject(property);
+        if (attribute == null) {
+            attribute = new JsonObject();
+            event.add(property, attribute);
+        }
+        attribute.addProperty("value", value);
+    }
+}
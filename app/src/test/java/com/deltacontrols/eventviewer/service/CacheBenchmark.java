@@ -0,0 +1,343 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+
+/**
+ * CacheBenchmark times the EventCache, FlapDetector and cache file operations at 500, 5k and 50k events, using 
+ * SyntheticEvents based on the given templates. The cold tier suites time spilling to, and faulting in from, a 
+ * ColdEventStore of the same size in the given directory. Used to make capacity and storm handling decisions; runs on 
+ * the JVM with a Platform.DirectoryStorage, see main() and the benchmark task in app/build.gradle. Takes minutes 
+ * (the 50k add is quadratic).
+ * 
+ * Each suite is repeated until it has run for SUITE_BUDGET_NANOS (at most MAX_RUNS times) and the best run is 
+ * reported; the first run includes JIT warm up.
+ */
+public class CacheBenchmark {
+
+    // ------------------------------------------------------------------------------
+    // Static properties
+    // ------------------------------------------------------------------------------
+    public final static int[] SIZES = { 500, 5000, 50000 };
+    private final static int REF_CARDINALITY = 200;         // Distinct points; ~25 transitions per point at 5k
+    private final static int ACK_PERCENT = 20;
+    private final static int NORMAL_PERCENT = 40;
+    private final static long SEED = 42;
+    private final static long SUITE_BUDGET_NANOS = 3000000000L;
+    private final static int MAX_RUNS = 5;
+    private final static int OLDER_PAGE = 50;                // Events per getOlderEvents page, as the event list asks for them
+    private final static String BENCHMARK_FILENAME = "benchmarkCache.json";
+    private final static String SPILL_FILENAME = "benchmarkSpill.dat";
+    private final static String FAULT_FILENAME = "benchmarkFault.dat";
+    private static volatile int sSink;                      // Keeps results alive so work is not optimized away
+
+    /**
+     * One timed operation; setup() runs before every run and is not timed.
+     */
+    private static abstract class Suite {
+        final String name;
+
+        Suite(String name) {
+            this.name = name;
+        }
+
+        void setup() {
+        }
+
+        /**
+         * @return number of operations done, for the per operation time.
+         */
+        abstract int run();
+    }
+
+    // ------------------------------------------------------------------------------
+    // Public functionality
+    // ------------------------------------------------------------------------------
+    /**
+     * Runs the benchmark in a temporary directory, with the test events as templates; each line is logged as its suite finishes.
+     */
+    public static void main(String[] args) throws IOException {
+        File dir = File.createTempFile("benchmark", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Could not create " + dir);
+        }
+
+        try {
+            run(new Platform.DirectoryStorage(dir), dir, TestEvents.range(1, 20));
+        } finally {
+            dir.delete();
+        }
+    }
+
+    /**
+     * Runs all suites at all SIZES; returns a report, one line per suite and size.
+     * 
+     * @param coldDir Directory for the cold tier files; they are deleted afterwards.
+     */
+    public static String run(final Platform.Storage storage, File coldDir, List<iEvent> templates) {
+        File spillFile = new File(coldDir, SPILL_FILENAME);
+        File faultFile = new File(coldDir, FAULT_FILENAME);
+        StringBuilder report = new StringBuilder();
+
+        for (final int size : SIZES) {
+            SyntheticEvents generator = new SyntheticEvents(templates, SEED, 1, REF_CARDINALITY, ACK_PERCENT, NORMAL_PERCENT);
+            final ArrayList<iEvent> events = generator.next(size);
+            final ArrayList<iEvent> extra = generator.next(size / 10);
+
+            // Acked copies of every 10th event, as if the user acknowledged them
+            final ArrayList<iEvent> updates = new ArrayList<iEvent>();
+            for (int i = 0; i < size; i += 10) {
+                iEvent update = new iEvent(events.get(i));
+                update.setAsAcknowledged();
+                updates.add(update);
+            }
+
+            final EventCache full = newCache(size);
+            full.addAll(copies(events));
+            final ArrayList<iEvent> fullCopy = full.getCopy();
+
+            // Cold tiers; one that the spilling suite refills each run, and one holding the extra events for fault in
+            spillFile.delete();
+            faultFile.delete();
+            final ColdEventStore spillStore = new ColdEventStore(spillFile, size);
+            final ColdEventStore faultStore = new ColdEventStore(faultFile, size);
+            final EventCache faultCache = newCache(size);
+            faultCache.setColdStore(faultStore);
+            faultCache.addAll(copies(events));
+            faultCache.addAll(copies(extra));
+            faultCache.flushSpills();
+            final ArrayList<String> spilledIndexes = new ArrayList<String>();
+            for (iEvent ev : faultCache.getOlderEvents(null, extra.size())) {
+                spilledIndexes.add(ev.getIndex());
+            }
+
+            Suite[] suites = new Suite[] {
+                    new Suite("add") {
+                        EventCache cache;
+                        ArrayList<iEvent> input;
+
+                        @Override
+                        void setup() {
+                            cache = newCache(size);
+                            input = copies(events);
+                        }
+
+                        @Override
+                        int run() {
+                            cache.addAll(input);
+                            return input.size();
+                        }
+                    },
+                    new Suite("add, full (spilling)") {
+                        EventCache cache;
+                        ArrayList<iEvent> input;
+
+                        @Override
+                        void setup() {
+                            cache = newCache(size);
+                            cache.addAll(copies(events));
+                            input = copies(extra);
+                        }
+
+                        @Override
+                        int run() {
+                            cache.addAll(input);
+                            return input.size();
+                        }
+                    },
+                    new Suite("add, full (cold tier)") {
+                        EventCache cache;
+                        ArrayList<iEvent> input;
+
+                        @Override
+                        void setup() {
+                            spillStore.clear();
+                            cache = newCache(size);
+                            cache.setColdStore(spillStore);
+                            cache.addAll(copies(events));
+                            input = copies(extra);
+                        }
+
+                        @Override
+                        int run() {
+                            cache.addAll(input);
+                            cache.flushSpills();
+                            return input.size();
+                        }
+                    },
+                    new Suite("getEvent (cold tier)") {
+                        @Override
+                        int run() {
+                            int found = 0;
+                            for (String index : spilledIndexes) {
+                                if (faultCache.getEvent(index) != null) {
+                                    found++;
+                                }
+                            }
+                            sSink = found;
+                            return spilledIndexes.size();
+                        }
+                    },
+                    new Suite("getOlderEvents page") {
+                        @Override
+                        int run() {
+                            sSink = faultCache.getOlderEvents(null, OLDER_PAGE).size();
+                            return 1;
+                        }
+                    },
+                    new Suite("FlapDetector record") {
+                        FlapDetector detector;
+
+                        @Override
+                        void setup() {
+                            detector = new FlapDetector();
+                        }
+
+                        @Override
+                        int run() {
+                            int flapping = 0;
+                            for (iEvent ev : events) {
+                                if (detector.record(ev)) {
+                                    flapping++;
+                                }
+                            }
+                            sSink = flapping;
+                            return events.size();
+                        }
+                    },
+                    new Suite("getCopy") {
+                        @Override
+                        int run() {
+                            full.getCopy();
+                            return 1;
+                        }
+                    },
+                    new Suite("updateEvent") {
+                        @Override
+                        int run() {
+                            for (iEvent update : updates) {
+                                full.updateEvent(update);
+                            }
+                            return updates.size();
+                        }
+                    },
+                    new Suite("iterate") {
+                        @Override
+                        int run() {
+                            int ackRequired = 0;
+                            Iterator<iEvent> it = full.iterator();
+                            while (it.hasNext()) {
+                                if (it.next().ackRequired()) {
+                                    ackRequired++;
+                                }
+                            }
+                            sSink = ackRequired;
+                            return full.size();
+                        }
+                    },
+                    new Suite("serialize") {
+                        @Override
+                        int run() {
+                            EventListFile.write(storage, BENCHMARK_FILENAME, fullCopy);
+                            return fullCopy.size();
+                        }
+                    },
+                    new Suite("deserialize") {
+                        @Override
+                        int run() {
+                            return EventListFile.read(storage, BENCHMARK_FILENAME).size();
+                        }
+                    }
+            };
+
+            for (Suite suite : suites) {
+                String line = measure(suite, size);
+                Platform.log().i("CacheBenchmark " + line);
+                report.append(line).append('\n');
+            }
+            report.append('\n');
+
+            spillStore.close();
+            faultStore.close();
+        }
+
+        storage.delete(BENCHMARK_FILENAME);
+        spillFile.delete();
+        faultFile.delete();
+        return report.toString();
+    }
+
+    // ------------------------------------------------------------------------------
+    // Private Helper Functions
+    // ------------------------------------------------------------------------------
+    private static String measure(Suite suite, int size) {
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        int ops = 1;
+        int runs = 0;
+
+        while ((runs < MAX_RUNS) && ((runs == 0) || (total < SUITE_BUDGET_NANOS))) {
+            suite.setup();
+            long start = System.nanoTime();
+            ops = Math.max(1, suite.run());
+            long elapsed = System.nanoTime() - start;
+
+            best = Math.min(best, elapsed);
+            total += elapsed;
+            runs++;
+        }
+
+        return String.format("%6d %-22s %9.2fms  %8.2fus/op  (best of %d)", size, suite.name, best / 1e6, (best / 1e3) / ops, runs);
+    }
+
+    /**
+     * Cache limited on number of events only, so the sizes are comparable between devices.
+     */
+    private static EventCache newCache(int size) {
+        return new EventCache(size, Long.MAX_VALUE);
+    }
+
+    /**
+     * The cache changes the events it is given (state, stale and ack flags); every run needs fresh ones.
+     */
+    private static ArrayList<iEvent> copies(List<iEvent> events) {
+        ArrayList<iEvent> copies = new ArrayList<iEvent>(events.size());
+        for (iEvent ev : events) {
+            copies.add(new iEvent(ev));
+        }
+        return copies;
+    }
+}
@@ -0,0 +1,130 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointTest {
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("checkpoint", ".json");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        Checkpoint.delete(mFile);
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.lastIndex = "4606";
+        checkpoint.lastSuccess = 1399569488000L;
+        checkpoint.newEventCount = 3;
+        checkpoint.status = "OK";
+        checkpoint.backfillURL = "http://server/api/events?page=2";
+        checkpoint.sequence = 7;
+        checkpoint.write(mFile);
+
+        Checkpoint read = Checkpoint.read(mFile);
+        assertNotNull(read);
+        assertEquals("4606", read.lastIndex);
+        assertEquals(1399569488000L, read.lastSuccess);
+        assertEquals(3, read.newEventCount);
+        assertEquals("OK", read.status);
+        assertEquals("http://server/api/events?page=2", read.backfillURL);
+        assertEquals(0, read.sequence); // Not written
+    }
+
+    @Test
+    public void missingFileReadsAsNull() {
+        assertNull(Checkpoint.read(mFile));
+    }
+
+    @Test
+    public void corruptFileReadsAsNull() throws IOException {
+        write(mFile, "{\"lastIndex\": \"46");
+        assertNull(Checkpoint.read(mFile));
+
+        write(mFile, "{}");
+        assertNull(Checkpoint.read(mFile));
+    }
+
+    @Test
+    public void interruptedWriteKeepsPreviousCheckpoint() throws IOException {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.lastIndex = "10";
+        checkpoint.write(mFile);
+
+        // A write killed before the rename leaves only the temporary file behind
+        write(new File(mFile.getPath() + ".tmp"), "{\"lastIndex\": \"2");
+        assertEquals("10", Checkpoint.read(mFile).lastIndex);
+
+        checkpoint.lastIndex = "20";
+        checkpoint.write(mFile);
+        assertEquals("20", Checkpoint.read(mFile).lastIndex);
+    }
+
+    @Test
+    public void deleteRemovesTemporaryFileToo() throws IOException {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.lastIndex = "10";
+        checkpoint.write(mFile);
+        File temp = new File(mFile.getPath() + ".tmp");
+        write(temp, "partial");
+
+        Checkpoint.delete(mFile);
+        assertFalse(mFile.exists());
+        assertFalse(temp.exists());
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } 
+        finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+
+public class EventCacheTest {
+    private File mColdFile;
+    private ColdEventStore mColdStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mColdFile = File.createTempFile("cold", ".dat");
+        mColdStore = new ColdEventStore(mColdFile, 100);
+    }
+
+    @After
+    public void tearDown() {
+        mColdStore.close();
+        mColdFile.delete();
+    }
+
+    @Test
+    public void keepsEventsInIndexOrderWithinCapacity() {
+        EventCache cache = new EventCache(10);
+        cache.addAll(TestEvents.range(1, 25));
+
+        assertEquals(10, cache.size());
+        assertEquals("25", cache.getLastKnownIndex());
+        assertEquals("16", cache.getCopy().get(0).getIndex());
+    }
+
+    @Test
+    public void spillsOverflowToColdStoreAndFaultsItBackIn() {
+        EventCache cache = new EventCache(10);
+        cache.setColdStore(mColdStore);
+        cache.addAll(TestEvents.range(1, 25));
+        cache.flushSpills();
+
+        assertEquals(10, cache.size());
+        assertEquals(15, mColdStore.size());
+
+        iEvent spilled = cache.getEvent("3");
+        assertNotNull(spilled);
+        assertEquals("//Test/1.EV3", spilled.getEventRef());
+        assertNull(cache.getEvent("99"));
+    }
+
+    @Test
+    public void containsChecksBothTiers() {
+        EventCache cache = new EventCache(10);
+        cache.setColdStore(mColdStore);
+        cache.addAll(TestEvents.range(1, 25));
+
+        assertTrue(cache.contains("25"));
+        assertTrue(cache.contains("3"));
+        assertFalse(cache.contains("99"));
+    }
+
+    @Test
+    public void getOlderEventsPagesBackThroughColdStore() {
+        EventCache cache = new EventCache(10);
+        cache.setColdStore(mColdStore);
+        cache.addAll(TestEvents.range(1, 25));
+
+        String oldestInMemory = cache.getCopy().get(0).getIndex();
+        ArrayList<iEvent> page = cache.getOlderEvents(oldestInMemory, 5);
+        assertEquals(5, page.size());
+        assertEquals("11", page.get(0).getIndex());
+        assertEquals("15", page.get(4).getIndex());
+
+        page = cache.getOlderEvents(page.get(0).getIndex(), 20);
+        assertEquals(10, page.size());
+        assertEquals("1", page.get(0).getIndex());
+    }
+
+    @Test
+    public void newestSpilledEventsGrowBackFromTheHotTier() {
+        EventCache cache = new EventCache(10);
+        assertEquals(0, cache.getSpilledCount());
+        cache.setColdStore(mColdStore);
+        cache.addAll(TestEvents.range(1, 25));
+        assertEquals(15, cache.getSpilledCount());
+
+        // As the list asks for them; each page adds the next older events, and stops at what was spilled
+        ArrayList<iEvent> spilled = cache.getOlderEvents(null, 5);
+        assertEquals("11", spilled.get(0).getIndex());
+        assertEquals("15", spilled.get(4).getIndex());
+
+        spilled = cache.getOlderEvents(null, 20);
+        assertEquals(15, spilled.size());
+        assertEquals("1", spilled.get(0).getIndex());
+    }
+
+    @Test
+    public void olderPageIsTrimmedToCapacity() {
+        EventCache cache = new EventCache(3);
+        cache.setColdStore(mColdStore);
+        cache.addAll(TestEvents.range(10, 10));
+        cache.addOlderPage(TestEvents.range(5, 9));
+        cache.flushSpills();
+
+        assertEquals(3, cache.size());
+        assertEquals("10", cache.getLastKnownIndex());
+        assertEquals(3, mColdStore.size());
+        assertNotNull(cache.getEvent("5"));
+    }
+
+    @Test
+    public void olderPagesGiveTheSameCacheAsAddingInOrder() {
+        EventCache inOrder = new EventCache(50);
+        inOrder.addAll(TestEvents.range(1, 40));
+
+        EventCache newestFirst = new EventCache(50);
+        newestFirst.addAll(TestEvents.range(31, 40));
+        newestFirst.addOlderPage(TestEvents.range(21, 30));
+        newestFirst.addOlderPage(TestEvents.range(11, 20));
+        newestFirst.addOlderPage(TestEvents.range(1, 10));
+
+        ArrayList<iEvent> expected = inOrder.getCopy();
+        ArrayList<iEvent> actual = newestFirst.getCopy();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getIndex(), actual.get(i).getIndex());
+        }
+        assertEquals(inOrder.getEstimatedBytes(), newestFirst.getEstimatedBytes());
+    }
+
+    @Test
+    public void unacknowledgedAlarmOutlivesNewerNormalEvents() {
+        EventCache cache = new EventCache(10);
+        cache.setColdStore(mColdStore);
+        cache.add(TestEvents.alarm(1, "//Test/1.EV1000", 0));
+        for (int i = 2; i <= 40; i++) {
+            cache.add(TestEvents.acknowledged(TestEvents.normal(i, "//Test/1.EV" + i, i)));
+        }
+        cache.flushSpills();
+
+        assertEquals(10, cache.size());
+        assertEquals("1", cache.getCopy().get(0).getIndex());
+        assertFalse(mColdStore.contains("1"));
+        assertTrue(mColdStore.contains("2"));
+    }
+
+    @Test
+    public void olderTransitionIsUpdatedBeforeItIsSpilled() {
+        String ref = "//Test/1.EV1000";
+        EventCache cache = new EventCache(2);
+        cache.setColdStore(mColdStore);
+        cache.add(TestEvents.alarm(1, ref, 0));
+        cache.add(TestEvents.alarm(2, "//Test/1.EV2000", 1));
+
+        // Every event needs an ack, so the oldest is spilled; the new alarm makes it stale and acknowledged first
+        cache.add(TestEvents.alarm(3, ref, 2));
+        cache.flushSpills();
+        assertTrue(mColdStore.contains("1"));
+        assertFalse(cache.getEvent("1").ackRequired());
+
+        // Acknowledging the latest transition clears the summary
+        cache.updateEvent(TestEvents.acknowledged(TestEvents.alarm(3, ref, 2)));
+        for (EventSummary summary : cache.getSummaryCopy()) {
+            if (summary.getEventRef().equals(ref)) {
+                assertFalse(summary.getAckRequired());
+            }
+        }
+    }
+
+    @Test
+    public void spillingWithoutColdStoreKeepsSummaryCounts() {
+        EventCache cache = new EventCache(2);
+        cache.add(TestEvents.alarm(1, "//Test/1.EV1", 0));
+        cache.add(TestEvents.alarm(2, "//Test/1.EV2", 1));
+        cache.add(TestEvents.alarm(3, "//Test/1.EV3", 2));
+
+        // The first alarm was dropped; its summary has no transition in memory left that could be acknowledged
+        for (EventSummary summary : cache.getSummaryCopy()) {
+            assertEquals(summary.getEventRef(), !summary.getEventRef().equals("//Test/1.EV1"), summary.getAckRequired());
+        }
+    }
+
+    @Test
+    public void updatesSpilledEventsInColdStore() {
+        EventCache cache = new EventCache(10);
+        cache.setColdStore(mColdStore);
+        cache.addAll(TestEvents.range(1, 25));
+        cache.flushSpills();
+
+        iEvent spilled = cache.getEvent("2");
+        spilled.setAsAcknowledged();
+        cache.updateEvent(spilled);
+
+        assertTrue(!cache.getEvent("2").ackRequired());
+    }
+
+    @Test
+    public void spilledEventsAreFoundBeforeTheyAreWritten() {
+        EventCache cache = new EventCache(10);
+        cache.setColdStore(mColdStore);
+        cache.addAll(TestEvents.range(1, 25));
+
+        assertEquals(0, mColdStore.size());
+        assertEquals(15, cache.getSpilledCount());
+        assertTrue(cache.contains("3"));
+        assertEquals("//Test/1.EV3", cache.getEvent("3").getEventRef());
+        ArrayList<iEvent> older = cache.getOlderEvents(null, 5);
+        assertEquals("11", older.get(0).getIndex());
+        assertEquals("15", older.get(4).getIndex());
+
+        // Half written; the rest is merged in from the queue
+        cache.flushSpills();
+        cache.addAll(TestEvents.range(26, 30));
+        older = cache.getOlderEvents("18", 5);
+        assertEquals(5, older.size());
+        assertEquals("13", older.get(0).getIndex());
+        assertEquals("17", older.get(4).getIndex());
+        assertEquals(20, cache.getSpilledCount());
+    }
+
+    @Test
+    public void updateOfAQueuedSpillIsWritten() {
+        EventCache cache = new EventCache(10);
+        cache.setColdStore(mColdStore);
+        cache.addAll(TestEvents.range(1, 25));
+
+        iEvent spilled = cache.getEvent("2");
+        spilled.setAsAcknowledged();
+        cache.updateEvent(spilled);
+        cache.flushSpills();
+
+        assertFalse(mColdStore.get("2").ackRequired());
+    }
+
+    @Test
+    public void estimatedBytesFollowUpdatesAndAcks() {
+        EventCache cache = new EventCache(10);
+        cache.addAll(TestEvents.range(1, 5));
+        cache.add(TestEvents.event(6, "//Test/1.EV1", iEvent.TransitionAction.ALARMACK.toString(), "Normal", 6));
+
+        iEvent updated = cache.getEvent("3");
+        updated.setMessage(updated.getMessage() + " with a much longer message than before");
+        cache.updateEvent(updated);
+
+        long expected = 0;
+        for (iEvent ev : cache.getCopy()) {
+            expected += EventCache.estimateSizeInBytes(ev);
+        }
+        assertEquals(expected, cache.getEstimatedBytes());
+    }
+
+    @Test
+    public void summariesStayBoundedPastUnacknowledgedOnes() {
+        EventCache cache = new EventCache(10);
+
+        // Alarms need an ack (and are never acknowledged here); acknowledged returns to normal do not
+        for (int i = 0; i < 5; i++) {
+            cache.add(TestEvents.alarm(i + 1, "//Test/1.EV" + i, i));
+        }
+        for (int i = 0; i < 5; i++) {
+            cache.add(TestEvents.acknowledged(TestEvents.normal(i + 6, "//Test/2.EV" + i, i + 5)));
+        }
+        for (int i = 5; i < 10; i++) {
+            cache.add(TestEvents.alarm(i + 6, "//Test/1.EV" + i, i + 10));
+        }
+
+        // The older summaries that need an ack are skipped; the acknowledged ones are dropped
+        ArrayList<EventSummary> summaries = cache.getSummaryCopy();
+        assertEquals(10, summaries.size());
+        for (EventSummary summary : summaries) {
+            assertTrue(summary.getEventRef().startsWith("//Test/1."));
+        }
+
+        // Alarms spilled out of memory no longer pin their summary
+        for (int i = 10; i < 100; i++) {
+            cache.add(TestEvents.alarm(i + 6, "//Test/1.EV" + i, i + 10));
+        }
+        summaries = cache.getSummaryCopy();
+        assertEquals(10, summaries.size());
+        assertEquals("//Test/1.EV90", summaries.get(0).getEventRef());
+    }
+
+    @Test
+    public void acknowledgedSummaryIsDroppedFirst() {
+        EventCache cache = new EventCache(3);
+        for (int i = 0; i < 3; i++) {
+            cache.add(TestEvents.alarm(i + 1, "//Test/1.EV" + i, i));
+        }
+
+        // Acknowledging the oldest alarm makes its summary the first one to go
+        cache.updateEvent(TestEvents.acknowledged(TestEvents.alarm(1, "//Test/1.EV0", 0)));
+        cache.add(TestEvents.alarm(4, "//Test/1.EV3", 3));
+
+        ArrayList<EventSummary> summaries = cache.getSummaryCopy();
+        assertEquals(3, summaries.size());
+        assertEquals("//Test/1.EV1", summaries.get(0).getEventRef());
+        assertEquals("//Test/1.EV3", summaries.get(2).getEventRef());
+    }
+
+    @Test
+    public void iteratesOverACopy() {
+        EventCache cache = new EventCache(10);
+        cache.addAll(TestEvents.range(1, 5));
+
+        int count = 0;
+        for (iEvent ev : cache) {
+            cache.add(TestEvents.normal(100 + count, ev.getEventRef(), 100 + count));
+            count++;
+        }
+        assertEquals(5, count);
+        assertEquals(10, cache.size());
+
+        cache.getAlarmGroupInfoCopy().get("Med").count = 0;
+        assertEquals(10, cache.getAlarmGroupInfoCopy().get("Med").count);
+    }
+
+    @Test
+    public void coldStoreSurvivesReopen() {
+        EventCache cache = new EventCache(10);
+        cache.setColdStore(mColdStore);
+        cache.addAll(TestEvents.range(1, 25));
+        cache.flushSpills();
+        mColdStore.close();
+
+        mColdStore = new ColdEventStore(mColdFile, 100);
+        assertEquals(15, mColdStore.size());
+        assertEquals("//Test/1.EV7", mColdStore.get("7").getEventRef());
+    }
+
+    @Test
+    public void clearEmptiesBothTiers() {
+        EventCache cache = new EventCache(10);
+        cache.setColdStore(mColdStore);
+        cache.addAll(TestEvents.range(1, 25));
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(0, mColdStore.size());
+        assertEquals(0, cache.getEstimatedBytes());
+        assertNull(cache.getEvent("3"));
+    }
+}
@@ -0,0 +1,252 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+
+public class FlapDetectorTest {
+    private final static String REF = "//Test/1.EV1";
+
+    @Test
+    public void pointFlapsAfterThresholdChangesWithinWindow() {
+        FlapDetector detector = new FlapDetector();
+        for (int i = 0; i < FlapDetector.FLAP_THRESHOLD - 1; i++) {
+            assertFalse(detector.record(TestEvents.alarm(i + 1, REF, i * 10)));
+        }
+        assertTrue(detector.record(TestEvents.alarm(FlapDetector.FLAP_THRESHOLD, REF, 100)));
+        assertEquals(1, detector.getFlappingRefs().size());
+    }
+
+    @Test
+    public void slowChangesDoNotFlap() {
+        FlapDetector detector = new FlapDetector();
+        int spacing = FlapDetector.FLAP_WINDOW_SECONDS / (FlapDetector.FLAP_THRESHOLD - 2);
+        for (int i = 0; i < 2 * FlapDetector.FLAP_THRESHOLD; i++) {
+            assertFalse(detector.record(TestEvents.alarm(i + 1, REF, i * spacing)));
+        }
+        assertTrue(detector.getFlappingRefs().isEmpty());
+    }
+
+    @Test
+    public void stormStartsAtThresholdAndEndsBelowHalf() {
+        FlapDetector detector = new FlapDetector();
+        for (int i = 0; i < FlapDetector.STORM_THRESHOLD; i++) {
+            detector.record(TestEvents.normal(i + 1, "//Test/1.EV" + i, i % 30));
+        }
+        assertTrue(detector.isStorm());
+
+        // A quiet minute later, the window holds a single event
+        detector.record(TestEvents.normal(1000, REF, 30 + 2 * FlapDetector.STORM_WINDOW_SECONDS));
+        assertEquals(1, detector.getWindowCount());
+        assertFalse(detector.isStorm());
+    }
+
+    @Test
+    public void stormEndsAfterAQuietWindow() {
+        FakeClock clock = new FakeClock();
+        Platform.setClock(clock);
+        try {
+            FlapDetector detector = new FlapDetector();
+            for (int i = 0; i < FlapDetector.STORM_THRESHOLD; i++) {
+                detector.record(TestEvents.normal(i + 1, "//Test/1.EV" + i, i % 30));
+            }
+            assertTrue(detector.isStorm());
+
+            // No events at all; the storm holds until a whole window has passed on the clock
+            clock.millis += (FlapDetector.STORM_WINDOW_SECONDS - 1) * 1000L;
+            assertTrue(detector.isStorm());
+            clock.millis += 1000L;
+            assertFalse(detector.isStorm());
+            assertEquals(0, detector.getWindowCount());
+            assertEquals(0, detector.getStormCount());
+        } 
+        finally {
+            Platform.setClock(null);
+        }
+    }
+
+    @Test
+    public void hydratedEventsDoNotStartAStorm() {
+        EventCache cache = new EventCache(500);
+        ArrayList<iEvent> saved = new ArrayList<iEvent>();
+        for (int i = 0; i < 200; i++) {
+            saved.add(TestEvents.normal(i + 1, "//Test/1.EV" + i, i / 4));       // 200 events in 50s, before a restart
+        }
+        cache.addHistoryPage(saved);
+
+        assertFalse(cache.isStorm());
+        assertEquals(200, cache.size());
+    }
+
+    @Test
+    public void outOfOrderTransitionsUseTheirTimesNotTheirOrder() {
+        FlapDetector detector = new FlapDetector();
+        int spacing = FlapDetector.FLAP_WINDOW_SECONDS / 2;
+        int[] order = { 9, 10, 11, 6, 7, 8, 3, 4, 5, 0, 1, 2 };    // Newest page first, each page ASC
+        for (int i : order) {
+            detector.record(TestEvents.alarm(i + 1, REF, i * spacing));
+        }
+        assertTrue(detector.getFlappingRefs().isEmpty());
+        assertFalse(detector.isFlapping(REF));
+    }
+
+    @Test
+    public void olderPagesAgreeWithSummary() {
+        EventCache cache = new EventCache(100);
+        List<iEvent> flapping = new ArrayList<iEvent>();
+        List<iEvent> slow = new ArrayList<iEvent>();
+        for (int i = 0; i < 12; i++) {
+            flapping.add(TestEvents.alarm(2 * i + 1, "//Test/1.EV1", i * 10));
+            slow.add(TestEvents.alarm(2 * i + 2, "//Test/1.EV2", i * FlapDetector.FLAP_WINDOW_SECONDS / 2));
+        }
+        addNewestFirst(cache, merge(flapping, slow), 3);
+
+        assertEquals(1, cache.getFlappingRefs().size());
+        assertEquals("//Test/1.EV1", cache.getFlappingRefs().get(0));
+        for (EventSummary summary : cache.getSummaryCopy()) {
+            assertEquals(summary.getEventRef(), cache.getFlappingRefs().contains(summary.getEventRef()), summary.isFlapping());
+        }
+    }
+
+    @Test
+    public void stormInCaughtUpPagesIsFound() {
+        EventCache cache = new EventCache(500);
+        List<iEvent> events = new ArrayList<iEvent>();
+        for (int i = 0; i < 200; i++) {
+            events.add(TestEvents.normal(i + 1, "//Test/1.EV" + i, i / 4));           // 200 events in 50s
+        }
+        for (int i = 0; i < 20; i++) {
+            events.add(TestEvents.normal(i + 201, "//Test/2.EV" + i, 1000 + i));     // Quiet since
+        }
+        addNewestFirst(cache, events, 20);
+
+        assertTrue(cache.isStorm());
+        assertEquals(200, cache.getStormWindowCount());
+
+        // The next live events show the storm is over
+        cache.add(TestEvents.normal(221, REF, 1100));
+        assertFalse(cache.isStorm());
+        assertEquals(0, cache.getStormWindowCount());
+    }
+
+    @Test
+    public void historyPagesDoNotStartAStorm() {
+        EventCache cache = new EventCache(500);
+        cache.addAll(TestEvents.range(201, 220));
+        for (int start = 151; start > 0; start -= 50) {
+            ArrayList<iEvent> page = new ArrayList<iEvent>();
+            for (int i = start; i < start + 50; i++) {
+                page.add(TestEvents.alarm(i, REF, i / 4));
+            }
+            cache.addHistoryPage(page);
+        }
+
+        assertFalse(cache.isStorm());
+        assertEquals(220, cache.size());
+        assertTrue(cache.getFlappingRefs().contains(REF));
+    }
+
+    /**
+     * Replays a recorded style burst (a few flapping points in a storm of other events) in order and newest page first; 
+     * both must find the same flapping points.
+     */
+    @Test
+    public void replayedBurstIsDetectedTheSameInAnyPageOrder() {
+        Random random = new Random(42);
+        List<iEvent> burst = new ArrayList<iEvent>();
+        for (int i = 0; i < 2000; i++) {
+            int point = random.nextBoolean() ? random.nextInt(5) : 5 + random.nextInt(200);
+            String toState = random.nextBoolean() ? "Alarm" : "Normal";
+            burst.add(TestEvents.event(i + 1, "//Test/1.EV" + point, iEvent.TransitionAction.STATUSCHANGE.toString(), toState, 3 * i));
+        }
+
+        EventCache inOrder = new EventCache(2000);
+        inOrder.addAll(new ArrayList<iEvent>(burst));
+        EventCache newestFirst = new EventCache(2000);
+        addNewestFirst(newestFirst, burst, 50);
+
+        List<String> expected = inOrder.getFlappingRefs();
+        List<String> actual = newestFirst.getFlappingRefs();
+        Collections.sort(expected);
+        Collections.sort(actual);
+        for (int point = 0; point < 5; point++) {
+            assertTrue(expected.contains("//Test/1.EV" + point));
+        }
+        assertEquals(expected, actual);
+    }
+
+    // ------------------------------------------------------------------------------
+    // Helpers
+    // ------------------------------------------------------------------------------
+    private static class FakeClock implements Platform.Clock {
+        long millis = 1000000L;
+
+        @Override
+        public long currentTimeMillis() {
+            return millis;
+        }
+
+        @Override
+        public long nanoTime() {
+            return millis * 1000000L;
+        }
+    }
+
+    /**
+     * Adds the events (ASC) the way a catch up does; the newest page first, then older pages in front of it.
+     */
+    private static void addNewestFirst(EventCache cache, List<iEvent> events, int pageSize) {
+        int end = events.size();
+        int start = Math.max(0, end - pageSize);
+        cache.addAll(new ArrayList<iEvent>(events.subList(start, end)));
+        while (start > 0) {
+            end = start;
+            start = Math.max(0, end - pageSize);
+            cache.addOlderPage(new ArrayList<iEvent>(events.subList(start, end)));
+        }
+    }
+
+    private static List<iEvent> merge(List<iEvent> a, List<iEvent> b) {
+        List<iEvent> merged = new ArrayList<iEvent>(a);
+        merged.addAll(b);
+        Collections.sort(merged);
+        return merged;
+    }
+}
@@ -0,0 +1,101 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NoisyPointStatsTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("noisyPoints", ".json");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void statisticsSurviveSaveAndLoad() {
+        NoisyPointStats stats = new NoisyPointStats();
+        for (int i = 1; i <= 3; i++) {
+            stats.record(TestEvents.alarm(i, "//Test/1.EV1", i));
+        }
+        stats.record(TestEvents.alarm(4, "//Test/1.EV2", 4));
+        stats.save(mFile);
+
+        assertTrue(mFile.exists());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+
+        ArrayList<TopKCounter.Entry> top = NoisyPointStats.load(mFile).getTop(NoisyPointStats.Window.HOUR, false, 2);
+        assertEquals(2, top.size());
+        assertEquals("//Test/1.EV1", top.get(0).key);
+        assertEquals(3, top.get(0).count);
+        assertEquals("//Test/1.EV2", top.get(1).key);
+    }
+
+    @Test
+    public void missingFileLoadsEmpty() {
+        assertTrue(NoisyPointStats.load(mFile).getTop(NoisyPointStats.Window.DAY, false, 5).isEmpty());
+    }
+
+    @Test
+    public void hourWindowStartsOverAtTheTopOfTheHour() {
+        NoisyPointStats stats = new NoisyPointStats();
+        stats.record(TestEvents.alarm(1, "//Test/1.EV1", 60));
+        stats.record(TestEvents.alarm(2, "//Test/1.EV1", 120));
+        stats.record(TestEvents.alarm(3, "//Test/1.EV2", 3600 + 60));     // 11:01, a new hour
+
+        // A late event from the previous hour still counts for the day, not for the new hour
+        stats.record(TestEvents.alarm(4, "//Test/1.EV1", 180));
+
+        ArrayList<TopKCounter.Entry> hour = stats.getTop(NoisyPointStats.Window.HOUR, false, 5);
+        assertEquals(1, hour.size());
+        assertEquals("//Test/1.EV2", hour.get(0).key);
+
+        ArrayList<TopKCounter.Entry> day = stats.getTop(NoisyPointStats.Window.DAY, false, 5);
+        assertEquals(2, day.size());
+        assertEquals("//Test/1.EV1", day.get(0).key);
+        assertEquals(3, day.get(0).count);
+    }
+}
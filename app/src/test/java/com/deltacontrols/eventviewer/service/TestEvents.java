@@ -0,0 +1,99 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import java.util.ArrayList;
+
+import com.deltacontrols.eweb.support.models.iEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * Builds events for the unit tests, in the same JSON form enteliWEB returns them.
+ */
+final class TestEvents {
+    private final static Gson GSON = new Gson();
+
+    private TestEvents() {
+    }
+
+    /**
+     * A STATUSCHANGE to Alarm; second is the number of seconds after 2014-05-08 10:00:00.
+     */
+    static iEvent alarm(long index, String eventRef, int second) {
+        return event(index, eventRef, iEvent.TransitionAction.STATUSCHANGE.toString(), "Alarm", second);
+    }
+
+    static iEvent normal(long index, String eventRef, int second) {
+        return event(index, eventRef, iEvent.TransitionAction.STATUSCHANGE.toString(), "Normal", second);
+    }
+
+    static iEvent event(long index, String eventRef, String action, String toState, int second) {
+        JsonObject json = new JsonObject();
+        set(json, "Index", String.valueOf(index));
+        set(json, "EventRef", eventRef);
+        set(json, "Action", action);
+        set(json, "ToState", toState);
+        set(json, "Acknowledged", "false");
+        set(json, "Message", "Event " + index);
+        set(json, "AlarmGroupName", "Med");
+        set(json, "EnteliwebTimestamp", timestamp(second));
+        set(json, "EventTimestamp", timestamp(second));
+        return GSON.fromJson(json, iEvent.class);
+    }
+
+    /**
+     * Normal transitions of distinct points, one second apart; indexes first to last, inclusive.
+     */
+    static ArrayList<iEvent> range(long first, long last) {
+        ArrayList<iEvent> events = new ArrayList<iEvent>();
+        for (long index = first; index <= last; index++) {
+            events.add(normal(index, "//Test/1.EV" + index, (int) index));
+        }
+        return events;
+    }
+
+    /**
+     * Marks the event as acknowledged, as eWEB does for transitions that do not need an ack.
+     */
+    static iEvent acknowledged(iEvent ev) {
+        ev.setAsAcknowledged();
+        return ev;
+    }
+
+    static String timestamp(int second) {
+        return String.format("2014-05-08 %02d:%02d:%02d", 10 + second / 3600, (second / 60) % 60, second % 60);
+    }
+
+    private static void set(JsonObject event, String property, String value) {
+        JsonObject attribute = new JsonObject();
+        attribute.addProperty("value", value);
+        event.add(property, attribute);
+    }
+}
@@ -0,0 +1,102 @@
+/* Copyright (c) 2014, Delta Controls Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this 
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this 
+list of conditions and the following disclaimer in the documentation and/or other 
+materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may 
+be used to endorse or promote products derived from this software without specific 
+prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT 
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR 
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+POSSIBILITY OF SUCH DAMAGE.
+*/
+package com.deltacontrols.eventviewer.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class TopKCounterTest {
+
+    @Test
+    public void countsAreExactWithFewerKeysThanCounters() {
+        TopKCounter counter = new TopKCounter(8);
+        for (int i = 0; i < 5; i++) {
+            counter.add("A", "Point A");
+        }
+        for (int i = 0; i < 3; i++) {
+            counter.add("B", "Point B");
+        }
+        counter.add("C", "Point C");
+
+        ArrayList<TopKCounter.Entry> top = counter.getTop(2);
+        assertEquals(2, top.size());
+        assertEquals("A", top.get(0).key);
+        assertEquals(5, top.get(0).count);
+        assertEquals(0, top.get(0).error);
+        assertEquals("B", top.get(1).key);
+        assertEquals(3, top.get(1).count);
+        assertEquals(9, counter.getTotal());
+    }
+
+    @Test
+    public void findsHeavyHittersWithMoreKeysThanCounters() {
+        TopKCounter counter = new TopKCounter(10);
+        for (int i = 0; i < 500; i++) {
+            counter.add("noise" + i, null);
+            if (i % 5 < 3) {
+                counter.add("A", "Point A");    // 300 times
+            }
+            if (i % 5 < 2) {
+                counter.add("B", "Point B");    // 200 times
+            }
+        }
+
+        ArrayList<TopKCounter.Entry> top = counter.getTop(2);
+        assertEquals("A", top.get(0).key);
+        assertEquals("B", top.get(1).key);
+        for (TopKCounter.Entry entry : top) {
+            long actual = "A".equals(entry.key) ? 300 : 200;
+            assertTrue(entry.count >= actual);
+            assertTrue(entry.count - entry.error <= actual);
+        }
+        assertEquals(1000, counter.getTotal());
+    }
+
+    @Test
+    public void keepsTheLatestLabel() {
+        TopKCounter counter = new TopKCounter(4);
+        counter.add("A", "Old name");
+        counter.add("A", "New name");
+
+        assertEquals("New name", counter.getTop(1).get(0).label);
+    }
+
+    @Test
+    public void ignoresNullKeys() {
+        TopKCounter counter = new TopKCounter(4);
+        counter.add(null, "Nothing");
+
+        assertEquals(0, counter.getTotal());
+        assertTrue(counter.getTop(1).isEmpty());
+    }
+}